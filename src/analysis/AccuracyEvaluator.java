@@ -0,0 +1,248 @@
+package analysis;
+
+import energypeakcontrol.Simulator;
+import energypeakcontrol.TimeSeries;
+import energypeakcontrol.TimeSeriesReader;
+import events.TimeEvent;
+import events.TimeListener;
+import java.io.File;
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class that evaluates the accuracy of the simulator against the annotations
+ * of the meter files (the 'label' and 'truth' fields).
+ * <p>
+ * A point is considered in danger if its danger degree is greater than a
+ * threshold, and labelled if its label is positive. The evaluation measures
+ * the precision and recall of danger against the labels (and against the
+ * points with known truth, that is, with a non-negative truth value, where
+ * the truth 1 means danger), the latency to detection of the labelled
+ * episodes (maximal runs of labelled points) and the root mean square error
+ * of the estimation against the actual value.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class AccuracyEvaluator {
+    /**
+     * The four limits (a, b, c, d) of the desired voltage.
+     */
+    private final float a, b, c, d;
+    /**
+     * Danger degree above which a point is considered in danger.
+     */
+    private double dangerThreshold = 0.0;
+    /**
+     * Window size used by the simulator.
+     */
+    private int windowSize = Simulator.DEFAULT_WINDOW_SIZE;
+    /**
+     * Number of points of the mean behind used by the simulator.
+     */
+    private int meanBehindPoints = Simulator.DEFAULT_MEANBEHIND_NUMBER_POINTS;
+
+    /**
+     * Constructs an evaluator.
+     *
+     * @param a the desired voltage upper limit.
+     * @param b the desired voltage upper-intermediate limit.
+     * @param c the desired voltage bellow-intermediate limit.
+     * @param d the desired voltage below limit.
+     */
+    public AccuracyEvaluator(float a, float b, float c, float d) {
+        if (a > b || b > c || c > d) {
+            throw new InvalidParameterException("The parameters must satisfy the following condition: a<=b<=c<=d");
+        }
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.d = d;
+    }
+
+    /**
+     * Set the danger degree above which a point is considered in danger (by
+     * default, 0).
+     *
+     * @param threshold the danger threshold.
+     */
+    public void setDangerThreshold(double threshold) {
+        this.dangerThreshold = threshold;
+    }
+
+    /**
+     * Set the window size used by the simulator.
+     *
+     * @param size the window size.
+     */
+    public void setWindowSize(int size) {
+        this.windowSize = size;
+    }
+
+    /**
+     * Set the number of points of the mean behind used by the simulator.
+     *
+     * @param n the number of points.
+     */
+    public void setMeanBehindPoints(int n) {
+        this.meanBehindPoints = n;
+    }
+
+    /**
+     * Evaluates a meter file.
+     *
+     * @param file the meter file.
+     * @return the accuracy report.
+     * @throws IOException if an I/O error occurs or the file format is not
+     * valid.
+     */
+    public AccuracyReport evaluate(File file) throws IOException {
+        TimeSeriesReader reader = new TimeSeriesReader();
+        reader.setAnnotationsRead(true);
+        TimeSeries series = reader.read(file.getPath());
+        return evaluate(file.getName(), series, reader.getBuilder().getLabels(), reader.getBuilder().getTruth());
+    }
+
+    /**
+     * Evaluates the meter files of a directory (those with the 'csv'
+     * extension) in parallel. The files that can not be read are skipped.
+     *
+     * @param dir the directory.
+     * @param threads number of threads.
+     * @return the accuracy reports, sorted by file name.
+     * @throws IOException if the directory can not be listed.
+     */
+    public List<AccuracyReport> evaluateDirectory(File dir, int threads) throws IOException {
+        File[] files = dir.listFiles((File f) -> f.isFile() && f.getName().toLowerCase().endsWith(".csv"));
+        if (files == null) {
+            throw new IOException("Not a directory: " + dir);
+        }
+        Arrays.sort(files);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<AccuracyReport>> futures = new ArrayList<>();
+            for (File f : files) {
+                futures.add(executor.submit(() -> evaluate(f)));
+            }
+            List<AccuracyReport> reports = new ArrayList<>();
+            for (int i = 0; i < files.length; i++) {
+                try {
+                    reports.add(futures.get(i).get());
+                } catch (ExecutionException ex) {
+                    Logger.getLogger(AccuracyEvaluator.class.getName()).log(Level.WARNING, "File " + files[i] + " skipped", ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Evaluation interrupted", ex);
+                }
+            }
+            return reports;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Evaluates a time series with its annotations.
+     *
+     * @param name the name of the series.
+     * @param series the time series.
+     * @param labels the labels of the points of the series.
+     * @param truth the truth values of the points of the series.
+     * @return the accuracy report.
+     */
+    public AccuracyReport evaluate(String name, TimeSeries series, int[] labels, double[] truth) {
+        long start = System.nanoTime();
+        int n = series.size();
+        if (labels.length < n || truth.length < n) {
+            throw new InvalidParameterException("There must be an annotation per point.");
+        }
+        //Simulation
+        double[] danger = new double[n];
+        double[] estimation = new double[n];
+        Simulator simulator = new Simulator(series, a, b, c, d);
+        simulator.setWindowSize(windowSize);
+        simulator.setMeanBehindPoints(meanBehindPoints);
+        simulator.addTimeListener(new TimeListener() {
+            @Override
+            public void timeChange(TimeEvent evt) {
+                int t = (int) evt.getTime();
+                danger[t] = evt.getDangerDegree();
+                estimation[t] = evt.getEstimationValue();
+            }
+
+            @Override
+            public void timeOut(TimeEvent evt) {
+            }
+        });
+        simulator.simulate(n);
+
+        //Metrics
+        int tp = 0, fp = 0, fn = 0, tn = 0;
+        int truthTP = 0, truthFP = 0, truthFN = 0;
+        int episodes = 0, detected = 0;
+        long latencySum = 0;
+        int episodeStart = -1;
+        boolean episodeDetected = false;
+        double squaredError = 0;
+        int estimated = 0;
+        for (int t = 0; t < n; t++) {
+            boolean inDanger = danger[t] > dangerThreshold;
+            boolean labelled = labels[t] > 0;
+            if (inDanger && labelled) {
+                tp++;
+            } else if (inDanger) {
+                fp++;
+            } else if (labelled) {
+                fn++;
+            } else {
+                tn++;
+            }
+            if (truth[t] >= 0) {
+                boolean positive = truth[t] > 0;
+                if (inDanger && positive) {
+                    truthTP++;
+                } else if (inDanger) {
+                    truthFP++;
+                } else if (positive) {
+                    truthFN++;
+                }
+            }
+            //Episodes
+            if (labelled) {
+                if (episodeStart < 0) {
+                    episodeStart = t;
+                    episodeDetected = false;
+                    episodes++;
+                }
+                if (inDanger && !episodeDetected) {
+                    episodeDetected = true;
+                    detected++;
+                    latencySum += t - episodeStart;
+                }
+            } else {
+                episodeStart = -1;
+            }
+            //Estimation error (only where the estimation is calculated)
+            if (t >= windowSize) {
+                double e = estimation[t] - series.getValue(t);
+                squaredError += e * e;
+                estimated++;
+            }
+        }
+        double meanLatency = detected > 0 ? (double) latencySum / detected : Double.NaN;
+        double rmse = estimated > 0 ? Math.sqrt(squaredError / estimated) : Double.NaN;
+        double truthPrecision = truthTP + truthFP > 0 ? (double) truthTP / (truthTP + truthFP) : Double.NaN;
+        double truthRecall = truthTP + truthFN > 0 ? (double) truthTP / (truthTP + truthFN) : Double.NaN;
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        return new AccuracyReport(name, n, tp, fp, fn, tn, episodes, detected, meanLatency, rmse,
+                truthPrecision, truthRecall, millis);
+    }
+}
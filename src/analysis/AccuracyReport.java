@@ -0,0 +1,227 @@
+package analysis;
+
+/**
+ * Class representing the accuracy metrics of a simulation run against the
+ * annotations (label and truth) of its time series.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class AccuracyReport {
+    /**
+     * Header of the CSV representation of the reports.
+     */
+    public static final String CSV_HEADER = "name;points;tp;fp;fn;tn;precision;recall;f1;"
+            + "episodes;detected;mean_latency;rmse;truth_precision;truth_recall;millis";
+    /**
+     * Name of the evaluated series.
+     */
+    private final String name;
+    /**
+     * Number of evaluated points.
+     */
+    private final int points;
+    /**
+     * Number of true positives, false positives, false negatives and true
+     * negatives (danger against label).
+     */
+    private final int tp, fp, fn, tn;
+    /**
+     * Number of labelled episodes.
+     */
+    private final int episodes;
+    /**
+     * Number of labelled episodes detected.
+     */
+    private final int detected;
+    /**
+     * Mean latency to detection of the detected episodes (in time units).
+     */
+    private final double meanLatency;
+    /**
+     * Root mean square error of the estimation against the actual value.
+     */
+    private final double rmse;
+    /**
+     * Precision of danger against the points with known truth.
+     */
+    private final double truthPrecision;
+    /**
+     * Recall of danger against the points with known truth.
+     */
+    private final double truthRecall;
+    /**
+     * Duration of the evaluation (in milliseconds).
+     */
+    private final long millis;
+
+    /**
+     * Constructs a new report.
+     *
+     * @param name the name of the evaluated series.
+     * @param points the number of evaluated points.
+     * @param tp the number of true positives.
+     * @param fp the number of false positives.
+     * @param fn the number of false negatives.
+     * @param tn the number of true negatives.
+     * @param episodes the number of labelled episodes.
+     * @param detected the number of labelled episodes detected.
+     * @param meanLatency the mean latency to detection (in time units).
+     * @param rmse the root mean square error of the estimation.
+     * @param truthPrecision the precision against the known truth.
+     * @param truthRecall the recall against the known truth.
+     * @param millis the duration of the evaluation (in milliseconds).
+     */
+    public AccuracyReport(String name, int points, int tp, int fp, int fn, int tn, int episodes, int detected,
+            double meanLatency, double rmse, double truthPrecision, double truthRecall, long millis) {
+        this.name = name;
+        this.points = points;
+        this.tp = tp;
+        this.fp = fp;
+        this.fn = fn;
+        this.tn = tn;
+        this.episodes = episodes;
+        this.detected = detected;
+        this.meanLatency = meanLatency;
+        this.rmse = rmse;
+        this.truthPrecision = truthPrecision;
+        this.truthRecall = truthRecall;
+        this.millis = millis;
+    }
+
+    /**
+     * Returns the name of the evaluated series.
+     *
+     * @return the name of the evaluated series.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of evaluated points.
+     *
+     * @return the number of evaluated points.
+     */
+    public int getPoints() {
+        return points;
+    }
+
+    /**
+     * Returns the precision of the danger detection against the labels, that
+     * is, the fraction of points in danger that are labelled.
+     *
+     * @return the precision (NaN if there is no point in danger).
+     */
+    public double getPrecision() {
+        return tp + fp > 0 ? (double) tp / (tp + fp) : Double.NaN;
+    }
+
+    /**
+     * Returns the recall of the danger detection against the labels, that is,
+     * the fraction of labelled points that are in danger.
+     *
+     * @return the recall (NaN if there is no labelled point).
+     */
+    public double getRecall() {
+        return tp + fn > 0 ? (double) tp / (tp + fn) : Double.NaN;
+    }
+
+    /**
+     * Returns the F1 score (harmonic mean of precision and recall).
+     *
+     * @return the F1 score.
+     */
+    public double getF1() {
+        double p = getPrecision(), r = getRecall();
+        return p + r > 0 ? 2 * p * r / (p + r) : Double.NaN;
+    }
+
+    /**
+     * Returns the number of labelled episodes.
+     *
+     * @return the number of labelled episodes.
+     */
+    public int getEpisodes() {
+        return episodes;
+    }
+
+    /**
+     * Returns the number of labelled episodes detected.
+     *
+     * @return the number of detected episodes.
+     */
+    public int getDetectedEpisodes() {
+        return detected;
+    }
+
+    /**
+     * Returns the mean latency to detection of the detected episodes.
+     *
+     * @return the mean latency (in time units, NaN if no episode has been
+     * detected).
+     */
+    public double getMeanLatency() {
+        return meanLatency;
+    }
+
+    /**
+     * Returns the root mean square error of the estimation against the actual
+     * value.
+     *
+     * @return the root mean square error.
+     */
+    public double getRMSE() {
+        return rmse;
+    }
+
+    /**
+     * Returns the precision of the danger detection against the points with
+     * known truth.
+     *
+     * @return the precision against the truth.
+     */
+    public double getTruthPrecision() {
+        return truthPrecision;
+    }
+
+    /**
+     * Returns the recall of the danger detection against the points with
+     * known truth.
+     *
+     * @return the recall against the truth.
+     */
+    public double getTruthRecall() {
+        return truthRecall;
+    }
+
+    /**
+     * Returns the duration of the evaluation.
+     *
+     * @return the duration of the evaluation (in milliseconds).
+     */
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * Returns a CSV representation of this report (see {@link #CSV_HEADER}).
+     *
+     * @return a CSV representation of this report.
+     */
+    public String toCSV() {
+        return name + ";" + points + ";" + tp + ";" + fp + ";" + fn + ";" + tn + ";" + getPrecision() + ";"
+                + getRecall() + ";" + getF1() + ";" + episodes + ";" + detected + ";" + meanLatency + ";"
+                + rmse + ";" + truthPrecision + ";" + truthRecall + ";" + millis;
+    }
+
+    /**
+     * Returns a string representation of this report.
+     *
+     * @return a string representation of this report.
+     */
+    @Override
+    public String toString() {
+        return "AccuracyReport: [" + name + ": precision=" + getPrecision() + ", recall=" + getRecall()
+                + ", episodes=" + detected + "/" + episodes + ", latency=" + meanLatency + ", rmse=" + rmse + "]";
+    }
+}
@@ -0,0 +1,281 @@
+package analysis;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Class representing an index of peak episodes (possibly of several series)
+ * searchable by time and by severity, so the episodes of an interval above
+ * a danger degree are found without simulating the series again.
+ * <p>
+ * The episodes are kept in two lists: one sorted by start timestamp and
+ * another sorted by maximum danger degree (from the highest). A query counts
+ * with binary searches the candidates of each list (the episodes starting
+ * before the end of the interval and after its beginning minus the longest
+ * episode, and the episodes above the danger degree) and only scans the
+ * shorter range. The index is thread safe, so the episodes can be added by
+ * the simulations while it is queried.
+ * <p>
+ * The index can be written in a CSV file and read again (see
+ * {@link #EPISODE_HEADER}).
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class EpisodeIndex {
+    /**
+     * Header of the episode files.
+     */
+    public static final String EPISODE_HEADER = "source;start;end;start_timestamp;end_timestamp;max_danger;max_voltage;injected_energy";
+    /**
+     * Order of the episodes by start timestamp.
+     */
+    private static final Comparator<PeakEpisode> BY_START = Comparator.comparingLong(PeakEpisode::getStartTimestamp);
+    /**
+     * Order of the episodes by maximum danger degree, from the highest.
+     */
+    private static final Comparator<PeakEpisode> BY_DANGER = Comparator.comparingDouble(PeakEpisode::getMaxDanger).reversed();
+    /**
+     * Episodes sorted by start timestamp.
+     */
+    private final ArrayList<PeakEpisode> byStart = new ArrayList<>();
+    /**
+     * Episodes sorted by maximum danger degree, from the highest.
+     */
+    private final ArrayList<PeakEpisode> byDanger = new ArrayList<>();
+    /**
+     * Longest duration of the episodes (in milliseconds).
+     */
+    private long maxDuration = 0;
+
+    /**
+     * Adds an episode to the index.
+     *
+     * @param episode the episode.
+     */
+    public synchronized void add(PeakEpisode episode) {
+        byStart.add(upperBound(byStart, episode, BY_START), episode);
+        byDanger.add(upperBound(byDanger, episode, BY_DANGER), episode);
+        maxDuration = Math.max(maxDuration, episode.getEndTimestamp() - episode.getStartTimestamp());
+    }
+
+    /**
+     * Adds all the episodes of another index.
+     *
+     * @param index the other index.
+     */
+    public void addAll(EpisodeIndex index) {
+        for (PeakEpisode e : index.getEpisodes()) {
+            add(e);
+        }
+    }
+
+    /**
+     * Returns the number of episodes of the index.
+     *
+     * @return the number of episodes.
+     */
+    public synchronized int size() {
+        return byStart.size();
+    }
+
+    /**
+     * Returns all the episodes, sorted by start timestamp.
+     *
+     * @return a copy of the episodes.
+     */
+    public synchronized List<PeakEpisode> getEpisodes() {
+        return new ArrayList<>(byStart);
+    }
+
+    /**
+     * Returns the episodes whose maximum danger degree is at least the given
+     * one.
+     *
+     * @param minDanger the minimum danger degree.
+     * @return the episodes, sorted by start timestamp.
+     */
+    public List<PeakEpisode> query(double minDanger) {
+        return query(Long.MIN_VALUE, Long.MAX_VALUE, minDanger);
+    }
+
+    /**
+     * Returns the episodes that overlap an interval of timestamps and whose
+     * maximum danger degree is at least the given one.
+     *
+     * @param from the first timestamp of the interval (in epoch
+     * milliseconds).
+     * @param to the last timestamp of the interval (in epoch milliseconds).
+     * @param minDanger the minimum danger degree.
+     * @return the episodes, sorted by start timestamp.
+     */
+    public synchronized List<PeakEpisode> query(long from, long to, double minDanger) {
+        List<PeakEpisode> result = new ArrayList<>();
+        if (from > to) {
+            return result;
+        }
+        // Episodes that may overlap the interval: those starting in [from - maxDuration, to]
+        long earliest = from < Long.MIN_VALUE + maxDuration ? Long.MIN_VALUE : from - maxDuration;
+        int lo = lowerBound(byStart, earliest, true), hi = lowerBound(byStart, to, false);
+        // Episodes above the danger degree: the first ones by danger
+        int severe = countAbove(minDanger);
+        if (severe < hi - lo) {
+            for (int i = 0; i < severe; i++) {
+                PeakEpisode e = byDanger.get(i);
+                if (e.overlaps(from, to)) {
+                    result.add(e);
+                }
+            }
+            Collections.sort(result, BY_START);
+        } else {
+            for (int i = lo; i < hi; i++) {
+                PeakEpisode e = byStart.get(i);
+                if (e.getMaxDanger() >= minDanger && e.overlaps(from, to)) {
+                    result.add(e);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the position where an episode is inserted in a sorted list
+     * (after the equal ones, so the order of addition is kept).
+     *
+     * @param list the sorted list.
+     * @param episode the episode.
+     * @param order the order of the list.
+     * @return the insertion position.
+     */
+    private static int upperBound(List<PeakEpisode> list, PeakEpisode episode, Comparator<PeakEpisode> order) {
+        int lo = 0, hi = list.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (order.compare(list.get(mid), episode) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the position of the first episode starting at or after (or
+     * strictly after) a timestamp in a list sorted by start timestamp.
+     *
+     * @param list the list sorted by start timestamp.
+     * @param timestamp the timestamp.
+     * @param inclusive <tt>true</tt> if the episodes starting at the
+     * timestamp are included.
+     * @return the position of the first episode.
+     */
+    private static int lowerBound(List<PeakEpisode> list, long timestamp, boolean inclusive) {
+        int lo = 0, hi = list.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            long start = list.get(mid).getStartTimestamp();
+            if (start < timestamp || (!inclusive && start == timestamp)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the number of episodes whose maximum danger degree is at least
+     * the given one (which are the first ones of the list sorted by danger).
+     *
+     * @param minDanger the minimum danger degree.
+     * @return the number of episodes.
+     */
+    private int countAbove(double minDanger) {
+        int lo = 0, hi = byDanger.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (byDanger.get(mid).getMaxDanger() >= minDanger) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Writes the episodes in a CSV file, sorted by start timestamp.
+     *
+     * @param file the file.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void write(File file) throws IOException {
+        write(file, getEpisodes());
+    }
+
+    /**
+     * Writes a list of episodes in a CSV file.
+     *
+     * @param file the file.
+     * @param episodes the episodes.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void write(File file, List<PeakEpisode> episodes) throws IOException {
+        try (Writer w = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            w.write(EPISODE_HEADER);
+            w.write('\n');
+            StringBuilder sb = new StringBuilder(128);
+            for (PeakEpisode e : episodes) {
+                sb.setLength(0);
+                sb.append(e.getSource()).append(';').append(e.getStartTime()).append(';').append(e.getEndTime())
+                        .append(';').append(e.getStartTimestamp()).append(';').append(e.getEndTimestamp())
+                        .append(';').append(e.getMaxDanger()).append(';').append(e.getMaxVoltage())
+                        .append(';').append(e.getInjectedEnergy()).append('\n');
+                w.append(sb);
+            }
+        }
+    }
+
+    /**
+     * Reads the episodes of a CSV file (written by {@link #write(File)}) and
+     * adds them to the index.
+     *
+     * @param file the file.
+     * @throws IOException if an I/O error occurs or the file format is not
+     * valid.
+     */
+    public void read(File file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.trim().equals(EPISODE_HEADER)) {
+                throw new IOException(file + ": not an episode file");
+            }
+            int number = 1;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String f[] = line.split(";");
+                try {
+                    if (f.length != 8) {
+                        throw new NumberFormatException("Wrong number of fields");
+                    }
+                    add(new PeakEpisode(f[0], Integer.parseInt(f[1]), Integer.parseInt(f[2]),
+                            Long.parseLong(f[3]), Long.parseLong(f[4]), Double.parseDouble(f[5]),
+                            Double.parseDouble(f[6]), Double.parseDouble(f[7])));
+                } catch (NumberFormatException ex) {
+                    throw new IOException(file + ": invalid line " + number + " (" + ex.getMessage() + ")", ex);
+                }
+            }
+        }
+    }
+}
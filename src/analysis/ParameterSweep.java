@@ -0,0 +1,302 @@
+package analysis;
+
+import energypeakcontrol.Simulator;
+import energypeakcontrol.TimeSeries;
+import events.TimeEvent;
+import events.TimeListener;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Class that evaluates a grid of simulator parameters (the four limits of the
+ * desired voltage, the window size and the number of points of the mean
+ * behind) against a time series.
+ * <p>
+ * Each combination is simulated over the whole series and scored by the
+ * number of times the adjusted voltage is outside the target limits plus the
+ * injected energy weighted by a given factor. The combinations are evaluated
+ * in parallel in a fork-join pool; the series is shared (read-only) and each
+ * worker thread reuses its own simulator.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class ParameterSweep {
+    /**
+     * Maximum number of combinations evaluated by a task without splitting.
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 4;
+    /**
+     * Time series used in the evaluation.
+     */
+    private final TimeSeries series;
+    /**
+     * Lower target limit.
+     */
+    private final double targetLow;
+    /**
+     * Upper target limit.
+     */
+    private final double targetHigh;
+    /**
+     * Candidate values of the 'a' limit.
+     */
+    private double[] aValues;
+    /**
+     * Candidate values of the 'b' limit.
+     */
+    private double[] bValues;
+    /**
+     * Candidate values of the 'c' limit.
+     */
+    private double[] cValues;
+    /**
+     * Candidate values of the 'd' limit.
+     */
+    private double[] dValues;
+    /**
+     * Candidate window sizes.
+     */
+    private int[] windowSizes = {Simulator.DEFAULT_WINDOW_SIZE};
+    /**
+     * Candidate numbers of points of the mean behind.
+     */
+    private int[] meanBehindPoints = {Simulator.DEFAULT_MEANBEHIND_NUMBER_POINTS};
+    /**
+     * Weight of the injected energy in the score.
+     */
+    private double energyWeight = 0.0;
+    /**
+     * Simulator (and its scoring listener) reused by each worker thread.
+     */
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+
+    /**
+     * Constructs a sweep over a time series. By default, only the target
+     * limits are evaluated as 'a' and 'd' limits, with 'b' and 'c' at a
+     * quarter of the range from them.
+     *
+     * @param series the time series used in the evaluation.
+     * @param targetLow the lower target limit.
+     * @param targetHigh the upper target limit.
+     */
+    public ParameterSweep(TimeSeries series, double targetLow, double targetHigh) {
+        if (targetLow > targetHigh) {
+            throw new InvalidParameterException("The lower limit must be less or equal than the upper one");
+        }
+        this.series = series;
+        this.targetLow = targetLow;
+        this.targetHigh = targetHigh;
+        double quarter = (targetHigh - targetLow) / 4;
+        setLimitValues(new double[]{targetLow}, new double[]{targetLow + quarter},
+                new double[]{targetHigh - quarter}, new double[]{targetHigh});
+    }
+
+    /**
+     * Set the candidate values of the four limits of the desired voltage. The
+     * combinations not satisfying a&lt;=b&lt;=c&lt;=d are skipped.
+     *
+     * @param a the candidate values of the 'a' limit.
+     * @param b the candidate values of the 'b' limit.
+     * @param c the candidate values of the 'c' limit.
+     * @param d the candidate values of the 'd' limit.
+     */
+    public final void setLimitValues(double[] a, double[] b, double[] c, double[] d) {
+        if (a.length == 0 || b.length == 0 || c.length == 0 || d.length == 0) {
+            throw new InvalidParameterException("At least one value per limit is needed.");
+        }
+        this.aValues = a.clone();
+        this.bValues = b.clone();
+        this.cValues = c.clone();
+        this.dValues = d.clone();
+    }
+
+    /**
+     * Set the candidate window sizes.
+     *
+     * @param sizes the candidate window sizes.
+     */
+    public void setWindowSizes(int... sizes) {
+        if (sizes.length == 0) {
+            throw new InvalidParameterException("At least one window size is needed.");
+        }
+        this.windowSizes = sizes.clone();
+    }
+
+    /**
+     * Set the candidate numbers of points of the mean behind.
+     *
+     * @param points the candidate numbers of points.
+     */
+    public void setMeanBehindPoints(int... points) {
+        if (points.length == 0) {
+            throw new InvalidParameterException("At least one number of points is needed.");
+        }
+        this.meanBehindPoints = points.clone();
+    }
+
+    /**
+     * Set the weight of the injected energy in the score (by default, 0).
+     *
+     * @param weight the weight of the injected energy.
+     */
+    public void setEnergyWeight(double weight) {
+        this.energyWeight = weight;
+    }
+
+    /**
+     * Returns the number of combinations of the grid (including those not
+     * satisfying a&lt;=b&lt;=c&lt;=d).
+     *
+     * @return the number of combinations.
+     */
+    public long getCombinationCount() {
+        return (long) aValues.length * bValues.length * cValues.length * dValues.length
+                * windowSizes.length * meanBehindPoints.length;
+    }
+
+    /**
+     * Evaluates all the valid combinations in the common fork-join pool.
+     *
+     * @return the results sorted by score (the best first).
+     */
+    public List<SweepResult> run() {
+        return run(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Evaluates all the valid combinations in the given fork-join pool.
+     *
+     * @param pool the pool where the combinations are evaluated.
+     * @return the results sorted by score (the best first).
+     */
+    public List<SweepResult> run(ForkJoinPool pool) {
+        long n = getCombinationCount();
+        if (n > Integer.MAX_VALUE) {
+            throw new InvalidParameterException("Too many combinations.");
+        }
+        SweepResult[] results = new SweepResult[(int) n];
+        pool.invoke(new SweepTask(results, 0, results.length));
+        List<SweepResult> list = new ArrayList<>();
+        for (SweepResult r : results) {
+            if (r != null) {
+                list.add(r);
+            }
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    /**
+     * Evaluates the combination with the given index (in mixed radix over the
+     * candidate values).
+     *
+     * @param index the index of the combination.
+     * @return the result, or null if the combination is not valid.
+     */
+    private SweepResult evaluate(int index) {
+        int i = index;
+        int mb = meanBehindPoints[i % meanBehindPoints.length];
+        i /= meanBehindPoints.length;
+        int ws = windowSizes[i % windowSizes.length];
+        i /= windowSizes.length;
+        double d = dValues[i % dValues.length];
+        i /= dValues.length;
+        double c = cValues[i % cValues.length];
+        i /= cValues.length;
+        double b = bValues[i % bValues.length];
+        i /= bValues.length;
+        double a = aValues[i];
+        if (a > b || b > c || c > d) {
+            return null;
+        }
+        Worker w = workers.get();
+        w.simulator.setVoltageMargins((float) a, (float) b, (float) c, (float) d);
+        w.simulator.setWindowSize(ws);
+        w.simulator.setMeanBehindPoints(mb);
+        w.timeOutside = 0;
+        w.energy = 0.0;
+        w.simulator.simulate(series.size());
+        double score = w.timeOutside + energyWeight * w.energy;
+        return new SweepResult(new double[]{a, b, c, d}, ws, mb, w.timeOutside, w.energy, score);
+    }
+
+    /**
+     * Fork-join task evaluating a range of combinations.
+     */
+    private class SweepTask extends RecursiveAction {
+        /**
+         * Serial version of the class.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * Array where the results are stored.
+         */
+        private final SweepResult[] results;
+        /**
+         * First combination of the range (inclusive).
+         */
+        private final int from;
+        /**
+         * Last combination of the range (exclusive).
+         */
+        private final int to;
+
+        SweepTask(SweepResult[] results, int from, int to) {
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    results[i] = evaluate(i);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SweepTask(results, from, mid), new SweepTask(results, mid, to));
+            }
+        }
+    }
+
+    /**
+     * Simulator and score accumulators of a worker thread.
+     */
+    private class Worker implements TimeListener {
+        /**
+         * Simulator reused by the worker.
+         */
+        private final Simulator simulator;
+        /**
+         * Number of times outside the target limits in the current evaluation.
+         */
+        private int timeOutside;
+        /**
+         * Injected energy in the current evaluation.
+         */
+        private double energy;
+
+        Worker() {
+            simulator = new Simulator(series, (float) targetLow, (float) targetLow, (float) targetHigh, (float) targetHigh);
+            simulator.addTimeListener(this);
+        }
+
+        @Override
+        public void timeChange(TimeEvent evt) {
+            double adjusted = evt.getAdjustedValue();
+            if (adjusted < targetLow || adjusted > targetHigh) {
+                timeOutside++;
+            }
+            energy += Math.abs(adjusted - series.getValue((int) evt.getTime()));
+        }
+
+        @Override
+        public void timeOut(TimeEvent evt) {
+        }
+    }
+}
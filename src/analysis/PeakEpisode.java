@@ -0,0 +1,171 @@
+package analysis;
+
+import java.util.Locale;
+
+/**
+ * Class representing a peak episode of a simulation: a maximal run of
+ * consecutive times whose danger degree is above a threshold. The episode
+ * keeps its bounds (as times of the series and as timestamps), its maximum
+ * danger degree, its maximum voltage and the energy injected to adjust the
+ * voltage (the sum of the absolute differences between the adjusted and the
+ * actual values).
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class PeakEpisode {
+    /**
+     * Name of the series of the episode (for instance, the meter file).
+     */
+    private final String source;
+    /**
+     * First time of the episode.
+     */
+    private final int startTime;
+    /**
+     * Last time of the episode.
+     */
+    private final int endTime;
+    /**
+     * Timestamp of the first time (in epoch milliseconds).
+     */
+    private final long startTimestamp;
+    /**
+     * Timestamp of the last time (in epoch milliseconds).
+     */
+    private final long endTimestamp;
+    /**
+     * Maximum danger degree of the episode.
+     */
+    private final double maxDanger;
+    /**
+     * Maximum voltage of the episode.
+     */
+    private final double maxVoltage;
+    /**
+     * Energy injected during the episode.
+     */
+    private final double injectedEnergy;
+
+    /**
+     * Constructs a peak episode.
+     *
+     * @param source the name of the series of the episode.
+     * @param startTime the first time of the episode.
+     * @param endTime the last time of the episode.
+     * @param startTimestamp the timestamp of the first time.
+     * @param endTimestamp the timestamp of the last time.
+     * @param maxDanger the maximum danger degree.
+     * @param maxVoltage the maximum voltage.
+     * @param injectedEnergy the energy injected during the episode.
+     */
+    public PeakEpisode(String source, int startTime, int endTime, long startTimestamp, long endTimestamp,
+            double maxDanger, double maxVoltage, double injectedEnergy) {
+        this.source = source;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.startTimestamp = startTimestamp;
+        this.endTimestamp = endTimestamp;
+        this.maxDanger = maxDanger;
+        this.maxVoltage = maxVoltage;
+        this.injectedEnergy = injectedEnergy;
+    }
+
+    /**
+     * Returns the name of the series of the episode.
+     *
+     * @return the name of the series.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the first time of the episode.
+     *
+     * @return the first time.
+     */
+    public int getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the last time of the episode.
+     *
+     * @return the last time.
+     */
+    public int getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Returns the timestamp of the first time of the episode.
+     *
+     * @return the timestamp (in epoch milliseconds).
+     */
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    /**
+     * Returns the timestamp of the last time of the episode.
+     *
+     * @return the timestamp (in epoch milliseconds).
+     */
+    public long getEndTimestamp() {
+        return endTimestamp;
+    }
+
+    /**
+     * Returns the number of times of the episode.
+     *
+     * @return the number of times.
+     */
+    public int getLength() {
+        return endTime - startTime + 1;
+    }
+
+    /**
+     * Returns the maximum danger degree of the episode.
+     *
+     * @return the maximum danger degree.
+     */
+    public double getMaxDanger() {
+        return maxDanger;
+    }
+
+    /**
+     * Returns the maximum voltage of the episode.
+     *
+     * @return the maximum voltage.
+     */
+    public double getMaxVoltage() {
+        return maxVoltage;
+    }
+
+    /**
+     * Returns the energy injected during the episode.
+     *
+     * @return the injected energy.
+     */
+    public double getInjectedEnergy() {
+        return injectedEnergy;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the episode overlaps the given interval of
+     * timestamps.
+     *
+     * @param from the first timestamp of the interval.
+     * @param to the last timestamp of the interval.
+     * @return <tt>true</tt> if the episode overlaps the interval.
+     */
+    public boolean overlaps(long from, long to) {
+        return startTimestamp <= to && endTimestamp >= from;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s [%d-%d] danger=%.3f, voltage=%.3f, energy=%.3f",
+                source, startTime, endTime, maxDanger, maxVoltage, injectedEnergy);
+    }
+}
@@ -0,0 +1,183 @@
+package analysis;
+
+import energypeakcontrol.TimeSeries;
+import events.TimeEvent;
+import events.TimeListener;
+import java.util.ArrayList;
+import java.util.EventListener;
+
+/**
+ * Time listener that extracts the peak episodes of a simulation as it runs.
+ * An episode is opened at the first time whose danger degree is above the
+ * threshold and closed at the first following time that is not (or at the
+ * end of the simulation, or when the simulated times are not consecutive).
+ * Each closed episode is added to the index, if any, and notified to the
+ * episode listeners, so the episodes are available while the simulation is
+ * still running.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class PeakEpisodeDetector implements TimeListener {
+    /**
+     * Simulated time series.
+     */
+    private final TimeSeries series;
+    /**
+     * Name of the series, given to its episodes.
+     */
+    private final String source;
+    /**
+     * Danger degree above which a time belongs to an episode.
+     */
+    private final double threshold;
+    /**
+     * Index where the closed episodes are added (null for none).
+     */
+    private EpisodeIndex index = null;
+    /**
+     * Listeners notified of the closed episodes.
+     */
+    private final ArrayList<EpisodeListener> listeners = new ArrayList<>();
+    /**
+     * First time of the open episode (-1 if there is no open episode).
+     */
+    private int start = -1;
+    /**
+     * Last time of the open episode.
+     */
+    private int last;
+    /**
+     * Maximum danger degree of the open episode.
+     */
+    private double maxDanger;
+    /**
+     * Maximum voltage of the open episode.
+     */
+    private double maxVoltage;
+    /**
+     * Energy injected during the open episode.
+     */
+    private double energy;
+
+    /**
+     * Constructs a detector.
+     *
+     * @param series the simulated time series.
+     * @param source the name of the series, given to its episodes.
+     * @param threshold the danger degree above which a time belongs to an
+     * episode.
+     */
+    public PeakEpisodeDetector(TimeSeries series, String source, double threshold) {
+        this.series = series;
+        this.source = source;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Set the index where the closed episodes are added.
+     *
+     * @param index the index (null for none).
+     */
+    public void setIndex(EpisodeIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Returns the index where the closed episodes are added.
+     *
+     * @return the index (null for none).
+     */
+    public EpisodeIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the danger degree above which a time belongs to an episode.
+     *
+     * @return the danger threshold.
+     */
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Adds a listener notified of the closed episodes.
+     *
+     * @param l the listener.
+     */
+    public void addEpisodeListener(EpisodeListener l) {
+        if (l != null) {
+            listeners.add(l);
+        }
+    }
+
+    /**
+     * Removes a listener of the closed episodes.
+     *
+     * @param l the listener.
+     */
+    public void removeEpisodeListener(EpisodeListener l) {
+        listeners.remove(l);
+    }
+
+    @Override
+    public void timeChange(TimeEvent evt) {
+        int time = (int) evt.getTime();
+        if (start >= 0 && time != last + 1) {
+            close();
+        }
+        double danger = evt.getDangerDegree();
+        if (danger <= threshold) {
+            if (start >= 0) {
+                close();
+            }
+            return;
+        }
+        double voltage = series.getValue(time);
+        if (start < 0) {
+            start = time;
+            maxDanger = danger;
+            maxVoltage = voltage;
+            energy = 0.0;
+        } else {
+            maxDanger = Math.max(maxDanger, danger);
+            maxVoltage = Math.max(maxVoltage, voltage);
+        }
+        energy += Math.abs(evt.getAdjustedValue() - voltage);
+        last = time;
+    }
+
+    @Override
+    public void timeOut(TimeEvent evt) {
+        if (start >= 0) {
+            close();
+        }
+    }
+
+    /**
+     * Closes the open episode, adding it to the index and notifying it.
+     */
+    private void close() {
+        PeakEpisode episode = new PeakEpisode(source, start, last, series.getTimestamp(start),
+                series.getTimestamp(last), maxDanger, maxVoltage, energy);
+        start = -1;
+        if (index != null) {
+            index.add(episode);
+        }
+        for (EpisodeListener l : listeners) {
+            l.episodeClosed(episode);
+        }
+    }
+
+    /**
+     * Interface that all the listeners of the closed episodes must implement.
+     */
+    public interface EpisodeListener extends EventListener {
+        /**
+         * A peak episode has been closed.
+         *
+         * @param episode the closed episode.
+         */
+        public void episodeClosed(PeakEpisode episode);
+    }
+}
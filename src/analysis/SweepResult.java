@@ -0,0 +1,132 @@
+package analysis;
+
+/**
+ * Class representing the result of the simulation with a combination of
+ * parameters in a parameter sweep.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class SweepResult implements Comparable<SweepResult> {
+    /**
+     * The four limits (a, b, c, d) of the desired voltage.
+     */
+    private final double[] limits;
+    /**
+     * Window size used in the time series analisys.
+     */
+    private final int windowSize;
+    /**
+     * Number of points used to calculate the mean behind.
+     */
+    private final int meanBehindPoints;
+    /**
+     * Number of times with the adjusted voltage outside the target limits.
+     */
+    private final int timeOutside;
+    /**
+     * Injected energy (sum of the absolute injected voltages).
+     */
+    private final double injectedEnergy;
+    /**
+     * Score of the combination (the lower, the better).
+     */
+    private final double score;
+
+    /**
+     * Constructs a new result.
+     *
+     * @param limits the four limits (a, b, c, d) of the desired voltage.
+     * @param windowSize the window size.
+     * @param meanBehindPoints the number of points of the mean behind.
+     * @param timeOutside the number of times outside the target limits.
+     * @param injectedEnergy the injected energy.
+     * @param score the score of the combination.
+     */
+    public SweepResult(double[] limits, int windowSize, int meanBehindPoints, int timeOutside, double injectedEnergy, double score) {
+        this.limits = limits.clone();
+        this.windowSize = windowSize;
+        this.meanBehindPoints = meanBehindPoints;
+        this.timeOutside = timeOutside;
+        this.injectedEnergy = injectedEnergy;
+        this.score = score;
+    }
+
+    /**
+     * Returns the four limits (a, b, c, d) of the desired voltage.
+     *
+     * @return the four limits of the desired voltage.
+     */
+    public double[] getLimits() {
+        return limits.clone();
+    }
+
+    /**
+     * Returns the window size.
+     *
+     * @return the window size.
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Returns the number of points used to calculate the mean behind.
+     *
+     * @return the number of points of the mean behind.
+     */
+    public int getMeanBehindPoints() {
+        return meanBehindPoints;
+    }
+
+    /**
+     * Returns the number of times with the adjusted voltage outside the
+     * target limits.
+     *
+     * @return the number of times outside the target limits.
+     */
+    public int getTimeOutside() {
+        return timeOutside;
+    }
+
+    /**
+     * Returns the injected energy (sum of the absolute injected voltages).
+     *
+     * @return the injected energy.
+     */
+    public double getInjectedEnergy() {
+        return injectedEnergy;
+    }
+
+    /**
+     * Returns the score of the combination (the lower, the better).
+     *
+     * @return the score.
+     */
+    public double getScore() {
+        return score;
+    }
+
+    /**
+     * Compares two results by their score.
+     *
+     * @param o the result to be compared.
+     * @return a negative integer, zero, or a positive integer as this result
+     * is better, equal or worse than the given one.
+     */
+    @Override
+    public int compareTo(SweepResult o) {
+        return Double.compare(score, o.score);
+    }
+
+    /**
+     * Returns a string representation of this result.
+     *
+     * @return a string representation of this result.
+     */
+    @Override
+    public String toString() {
+        return "SweepResult: [limits=(" + limits[0] + "," + limits[1] + "," + limits[2] + "," + limits[3]
+                + "), window=" + windowSize + ", meanBehind=" + meanBehindPoints
+                + ", timeOutside=" + timeOutside + ", energy=" + injectedEnergy + ", score=" + score + "]";
+    }
+}
@@ -0,0 +1,382 @@
+package energypeakcontrol;
+
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Base class for the time series whose points are held by a custom backing
+ * store (compressed blocks, files, off-heap memory...) instead of the list
+ * storage inherited from {@link TimeSeries}. Subclasses only have to provide
+ * the size and the primitive accessors {@link #getTime(int)} and
+ * {@link #getValue(int)}; appendable stores also override
+ * {@link #append(double, double)}.
+ * <p>
+ * This kind of series supports random access, iteration and appending at the
+ * end. Insertions, replacements and removals in the middle of the series are
+ * not supported.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public abstract class BackedTimeSeries extends TimeSeries {
+    /**
+     * Serial version of the class.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs an empty time series.
+     */
+    protected BackedTimeSeries() {
+        super();
+    }
+
+    /**
+     * Returns the number of points in this series.
+     *
+     * @return the number of points in this series.
+     */
+    @Override
+    public abstract int size();
+
+    /**
+     * Returns the time (X coordinate) of the point at the specified position
+     * in this series. Implementations are not required to check the index.
+     *
+     * @param index index of the point.
+     * @return the time of the point at the specified position.
+     */
+    @Override
+    public abstract double getTime(int index);
+
+    /**
+     * Returns the value (Y coordinate) of the point at the specified position
+     * in this series. Implementations are not required to check the index.
+     *
+     * @param index index of the point.
+     * @return the value of the point at the specified position.
+     */
+    @Override
+    public abstract double getValue(int index);
+
+    /**
+     * Appends a new point at the end of the backing store. By default, the
+     * store is read-only.
+     *
+     * @param time the time of the new point.
+     * @param value the value of the new point.
+     * @throws UnsupportedOperationException if the store is read-only.
+     */
+    protected void append(double time, double value) {
+        throw new UnsupportedOperationException("Read-only time series");
+    }
+
+    /**
+     * Removes all the points of the backing store. By default, the store is
+     * read-only.
+     *
+     * @throws UnsupportedOperationException if the store is read-only.
+     */
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("Read-only time series");
+    }
+
+    /**
+     * Checks if the given index is in range.
+     *
+     * @param index the index to be checked.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    protected final void checkIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Point2D get(int index) {
+        checkIndex(index);
+        return new Point2D.Double(getTime(index), getValue(index));
+    }
+
+    @Override
+    public boolean add(Point2D p) {
+        append(p.getX(), p.getY());
+        modCount++;
+        pointAppended();
+        return true;
+    }
+
+    @Override
+    public void add(int index, Point2D p) {
+        if (index != size()) {
+            throw new UnsupportedOperationException("Only appending is supported");
+        }
+        add(p);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Point2D> c) {
+        for (Point2D p : c) {
+            add(p);
+        }
+        return !c.isEmpty();
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends Point2D> c) {
+        if (index != size()) {
+            throw new UnsupportedOperationException("Only appending is supported");
+        }
+        return addAll(c);
+    }
+
+    @Override
+    public Point2D set(int index, Point2D p) {
+        throw new UnsupportedOperationException("Points can not be replaced");
+    }
+
+    @Override
+    public Point2D remove(int index) {
+        throw new UnsupportedOperationException("Points can not be removed");
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        throw new UnsupportedOperationException("Points can not be removed");
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        throw new UnsupportedOperationException("Points can not be removed");
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        throw new UnsupportedOperationException("Points can not be removed");
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super Point2D> filter) {
+        throw new UnsupportedOperationException("Points can not be removed");
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        throw new UnsupportedOperationException("Points can not be removed");
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<Point2D> operator) {
+        throw new UnsupportedOperationException("Points can not be replaced");
+    }
+
+    @Override
+    public void sort(Comparator<? super Point2D> c) {
+        throw new UnsupportedOperationException("Points can not be reordered");
+    }
+
+    @Override
+    public List<Point2D> subList(int fromIndex, int toIndex) {
+        throw new UnsupportedOperationException("Sublists are not supported");
+    }
+
+    @Override
+    public Object clone() {
+        throw new UnsupportedOperationException("Backed time series can not be cloned");
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        for (int i = 0; i < size(); i++) {
+            if (Objects.equals(o, get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        for (int i = size() - 1; i >= 0; i--) {
+            if (Objects.equals(o, get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public Object[] toArray() {
+        Object[] a = new Object[size()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = get(i);
+        }
+        return a;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] a) {
+        int n = size();
+        T[] r = a.length >= n ? a : Arrays.copyOf(a, n);
+        for (int i = 0; i < n; i++) {
+            r[i] = (T) get(i);
+        }
+        if (r.length > n) {
+            r[n] = null;
+        }
+        return r;
+    }
+
+    @Override
+    public void forEach(Consumer<? super Point2D> action) {
+        Iterator<Point2D> it = iterator();
+        while (it.hasNext()) {
+            action.accept(it.next());
+        }
+    }
+
+    @Override
+    public Iterator<Point2D> iterator() {
+        return listIterator(0);
+    }
+
+    @Override
+    public ListIterator<Point2D> listIterator() {
+        return listIterator(0);
+    }
+
+    @Override
+    public ListIterator<Point2D> listIterator(int index) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return new PointIterator(index);
+    }
+
+    @Override
+    public Spliterator<Point2D> spliterator() {
+        return Spliterators.spliterator(iterator(), size(), Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof List)) {
+            return false;
+        }
+        Iterator<Point2D> it1 = iterator();
+        Iterator<?> it2 = ((List<?>) o).iterator();
+        while (it1.hasNext() && it2.hasNext()) {
+            if (!Objects.equals(it1.next(), it2.next())) {
+                return false;
+            }
+        }
+        return !(it1.hasNext() || it2.hasNext());
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        Iterator<Point2D> it = iterator();
+        while (it.hasNext()) {
+            hash = 31 * hash + it.next().hashCode();
+        }
+        return hash;
+    }
+
+    /**
+     * Read-only list iterator over the points of this series.
+     */
+    private class PointIterator implements ListIterator<Point2D> {
+        /**
+         * Index of the next point to be returned.
+         */
+        private int cursor;
+
+        /**
+         * Constructs an iterator starting at the given position.
+         *
+         * @param index index of the first point to be returned.
+         */
+        PointIterator(int index) {
+            this.cursor = index;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor < size();
+        }
+
+        @Override
+        public Point2D next() {
+            if (cursor >= size()) {
+                throw new NoSuchElementException();
+            }
+            return get(cursor++);
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return cursor > 0;
+        }
+
+        @Override
+        public Point2D previous() {
+            if (cursor <= 0) {
+                throw new NoSuchElementException();
+            }
+            return get(--cursor);
+        }
+
+        @Override
+        public int nextIndex() {
+            return cursor;
+        }
+
+        @Override
+        public int previousIndex() {
+            return cursor - 1;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Points can not be removed");
+        }
+
+        @Override
+        public void set(Point2D p) {
+            throw new UnsupportedOperationException("Points can not be replaced");
+        }
+
+        @Override
+        public void add(Point2D p) {
+            throw new UnsupportedOperationException("Only appending is supported");
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package energypeakcontrol;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/**
+ * Class representing a sparse index over the values of a time series. The
+ * series is divided in blocks with a fixed number of samples, and the minimum,
+ * maximum and sum of each block are stored, so the summary of any range of
+ * the series is calculated by visiting only the blocks it covers plus, at
+ * most, two partial blocks.
+ * <p>
+ * The index is updated incrementally with the points appended to the series
+ * since the last query. It assumes that the points of the series are not
+ * replaced; if the series shrinks, the index is rebuilt.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class BlockIndex {
+    /**
+     * Default number of samples per block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    /**
+     * Indexed time series.
+     */
+    private final TimeSeries series;
+    /**
+     * Number of samples per block.
+     */
+    private final int blockSize;
+    /**
+     * Minimum value of each block.
+     */
+    private double[] min = new double[16];
+    /**
+     * Maximum value of each block.
+     */
+    private double[] max = new double[16];
+    /**
+     * Sum of the values of each block.
+     */
+    private double[] sum = new double[16];
+    /**
+     * Number of indexed samples.
+     */
+    private int indexed = 0;
+
+    /**
+     * Constructs an index with the default block size.
+     *
+     * @param series the time series to be indexed.
+     */
+    public BlockIndex(TimeSeries series) {
+        this(series, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructs an index.
+     *
+     * @param series the time series to be indexed.
+     * @param blockSize number of samples per block.
+     */
+    public BlockIndex(TimeSeries series, int blockSize) {
+        if (blockSize < 1) {
+            throw new InvalidParameterException("The block size must be positive.");
+        }
+        this.series = series;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Returns the number of samples per block.
+     *
+     * @return the number of samples per block.
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Removes all the blocks of the index, so it is rebuilt in the next
+     * update (for instance, when the points of the series have been
+     * replaced).
+     */
+    public synchronized void reset() {
+        indexed = 0;
+    }
+
+    /**
+     * Updates the index with the points appended to the series since the
+     * last update.
+     */
+    public synchronized void update() {
+        int n = series.size();
+        if (n < indexed) {
+            indexed = 0;
+        }
+        for (int i = indexed; i < n; i++) {
+            int b = i / blockSize;
+            if (b >= min.length) {
+                min = Arrays.copyOf(min, b * 2);
+                max = Arrays.copyOf(max, b * 2);
+                sum = Arrays.copyOf(sum, b * 2);
+            }
+            double v = series.getValue(i);
+            if (i % blockSize == 0) {
+                min[b] = v;
+                max[b] = v;
+                sum[b] = v;
+            } else {
+                min[b] = Math.min(min[b], v);
+                max[b] = Math.max(max[b], v);
+                sum[b] += v;
+            }
+        }
+        indexed = n;
+    }
+
+    /**
+     * Returns the summary (minimum, maximum, sum and number of points) of the
+     * values in the given range of the series.
+     *
+     * @param from index of the first point of the range (inclusive).
+     * @param to index of the last point of the range (exclusive).
+     * @return the summary of the range.
+     */
+    public synchronized Summary summarize(int from, int to) {
+        update();
+        from = Math.max(from, 0);
+        to = Math.min(to, indexed);
+        if (from >= to) {
+            return Summary.EMPTY;
+        }
+        double rMin = Double.POSITIVE_INFINITY, rMax = Double.NEGATIVE_INFINITY, rSum = 0;
+        int i = from;
+        while (i < to) {
+            int b = i / blockSize;
+            int blockEnd = (b + 1) * blockSize;
+            if (i % blockSize == 0 && blockEnd <= to) {
+                //Whole block
+                rMin = Math.min(rMin, min[b]);
+                rMax = Math.max(rMax, max[b]);
+                rSum += sum[b];
+                i = blockEnd;
+            } else {
+                //Partial block: raw values
+                int end = Math.min(blockEnd, to);
+                for (; i < end; i++) {
+                    double v = series.getValue(i);
+                    rMin = Math.min(rMin, v);
+                    rMax = Math.max(rMax, v);
+                    rSum += v;
+                }
+            }
+        }
+        return new Summary(rMin, rMax, rSum, to - from);
+    }
+
+    /**
+     * Class representing the summary of a range of values.
+     */
+    public static class Summary {
+        /**
+         * Summary of an empty range.
+         */
+        public static final Summary EMPTY = new Summary(Double.NaN, Double.NaN, 0.0, 0);
+        /**
+         * Minimum value.
+         */
+        private final double min;
+        /**
+         * Maximum value.
+         */
+        private final double max;
+        /**
+         * Sum of the values.
+         */
+        private final double sum;
+        /**
+         * Number of values.
+         */
+        private final int count;
+
+        /**
+         * Constructs a summary.
+         *
+         * @param min the minimum value.
+         * @param max the maximum value.
+         * @param sum the sum of the values.
+         * @param count the number of values.
+         */
+        public Summary(double min, double max, double sum, int count) {
+            this.min = min;
+            this.max = max;
+            this.sum = sum;
+            this.count = count;
+        }
+
+        /**
+         * Returns the minimum value (NaN if the range is empty).
+         *
+         * @return the minimum value.
+         */
+        public double getMin() {
+            return min;
+        }
+
+        /**
+         * Returns the maximum value (NaN if the range is empty).
+         *
+         * @return the maximum value.
+         */
+        public double getMax() {
+            return max;
+        }
+
+        /**
+         * Returns the sum of the values.
+         *
+         * @return the sum of the values.
+         */
+        public double getSum() {
+            return sum;
+        }
+
+        /**
+         * Returns the number of values.
+         *
+         * @return the number of values.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the mean of the values (NaN if the range is empty).
+         *
+         * @return the mean of the values.
+         */
+        public double getMean() {
+            return count > 0 ? sum / count : Double.NaN;
+        }
+
+        /**
+         * Returns a string representation of this summary.
+         *
+         * @return a string representation of this summary.
+         */
+        @Override
+        public String toString() {
+            return "Summary: [min=" + min + ", max=" + max + ", mean=" + getMean() + ", count=" + count + "]";
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package energypeakcontrol;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+/**
+ * Class that renders the chart of a whole time series (and the series derived
+ * from it by the simulation) in an image, without the graphical interface, so
+ * it can be used in a headless JVM. The series are fitted to the width of the
+ * image and drawn, decimated, by a {@link TimeSeriesRenderer}.
+ * <p>
+ * An exporter does not keep any state between charts, so it can render many
+ * charts in parallel from several threads (see the <code>--charts</code>
+ * option of the {@link CommandLineRunner}).
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class ChartExporter {
+    /**
+     * Colors of the series (the same as in the graphical interface).
+     */
+    private static final Color SERIES_COLORS[] = {Color.black, Color.blue, Color.orange, Color.green};
+    /**
+     * Color of the danger degree.
+     */
+    private static final Color DANGER_COLOR = Color.red;
+    /**
+     * Fraction of the height of the image left as margin above and below the
+     * values.
+     */
+    private static final double MARGIN = 0.1;
+    /**
+     * Width of the images.
+     */
+    private final int width;
+    /**
+     * Height of the images.
+     */
+    private final int height;
+
+    /**
+     * Constructs an exporter of images of the given size.
+     *
+     * @param width the width of the images.
+     * @param height the height of the images.
+     */
+    public ChartExporter(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new InvalidParameterException("The size of the images must be positive.");
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Renders a chart. All the series share the value scale, fitted to the
+     * values of the first one and to the limits; the danger degree (between 0
+     * and 1) is drawn at the bottom of the chart with its own scale.
+     *
+     * @param series the series (the first one is the original series).
+     * @param danger the danger degree (null for none).
+     * @param limits the values of the four limits (null for none).
+     * @param title the title of the chart (null for none).
+     * @return the image with the chart.
+     */
+    public BufferedImage render(List<TimeSeries> series, TimeSeries danger, float limits[], String title) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        try {
+            g2d.setColor(Color.white);
+            g2d.fillRect(0, 0, width, height);
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            if (!series.isEmpty() && !series.get(0).isEmpty()) {
+                draw(g2d, series, danger, limits);
+            }
+            if (title != null) {
+                g2d.setColor(Color.black);
+                g2d.drawString(title, 7, 15);
+            }
+        } finally {
+            g2d.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Draws the series of a chart.
+     *
+     * @param g2d the <code>Graphics2D</code> context in which to paint
+     * @param series the series (the first one is the original series).
+     * @param danger the danger degree (null for none).
+     * @param limits the values of the four limits (null for none).
+     */
+    private void draw(Graphics2D g2d, List<TimeSeries> series, TimeSeries danger, float limits[]) {
+        TimeSeries main = series.get(0);
+        int n = main.size();
+        // Time scale: the whole series fits the width
+        double t0 = main.getTime(0), t1 = main.getTime(n - 1);
+        double scaleX = t1 > t0 ? (width - 1) / (t1 - t0) : 1;
+        double offsetX = -t0 * scaleX;
+        // Value scale: the values of the original series and the limits fit the height
+        BlockIndex.Summary summary = main.summarize(0, n);
+        double min = summary.getMin(), max = summary.getMax();
+        if (Double.isNaN(min) || Double.isNaN(max)) {
+            min = max = 0;
+        }
+        if (limits != null) {
+            min = Math.min(min, limits[0]);
+            max = Math.max(max, limits[3]);
+        }
+        if (!(max > min)) {
+            min -= 1;
+            max += 1;
+        }
+        double ty = (min + max) / 2;
+        double scaleY = height * (1 - 2 * MARGIN) / (max - min);
+        int originY = height / 2;
+        double offsetY = originY + ty * scaleY;
+
+        TimeSeriesRenderer renderer = new TimeSeriesRenderer();
+        renderer.drawValueAxis(g2d, originY, width, String.valueOf((float) ty));
+        if (limits != null) {
+            renderer.drawLimits(g2d, limits, ty, scaleY, originY, width);
+        }
+        if (danger != null) {
+            g2d.setColor(DANGER_COLOR);
+            renderer.drawSeries(g2d, danger, offsetX, scaleX, height - 1, height * MARGIN * 2, width);
+        }
+        for (int i = series.size() - 1; i >= 0; i--) {
+            g2d.setColor(SERIES_COLORS[i % SERIES_COLORS.length]);
+            renderer.drawSeries(g2d, series.get(i), offsetX, scaleX, offsetY, scaleY, width);
+        }
+    }
+
+    /**
+     * Writes an image in a PNG file.
+     *
+     * @param image the image.
+     * @param file the PNG file.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void write(BufferedImage image, File file) throws IOException {
+        if (!ImageIO.write(image, "png", file)) {
+            throw new IOException("No PNG writer available");
+        }
+    }
+}
@@ -0,0 +1,664 @@
+package energypeakcontrol;
+
+import analysis.EpisodeIndex;
+import analysis.PeakEpisodeDetector;
+import events.TimeEvent;
+import events.TimeListener;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import metrics.MetricsReporter;
+import metrics.SimulatorMetrics;
+
+/**
+ * Command-line runner of the simulator. It runs the simulation over one or
+ * many input files (without the graphical interface, so no Swing class is
+ * loaded), writes the results of each file in a CSV file and prints a timing
+ * summary. By default, the times are processed without pauses; optionally,
+ * they are replayed at a multiple of the wall-clock speed of the series.
+ * <p>
+ * Usage: <code>EnergyPeakControl [options] file...</code>, where a directory
+ * stands for all its CSV files (see {@link TimeSeriesCatalogue#listFiles(File)}),
+ * a file given more than once is processed once and the options are:
+ * <ul>
+ * <li><code>--config file</code>: a properties file with the simulator
+ * configuration (see {@link SimulatorConfig}); the following options override
+ * its values.</li>
+ * <li><code>--limits a,b,c,d</code>: the desired voltage limits.</li>
+ * <li><code>--window n</code>: the window size used in the analysis.</li>
+ * <li><code>--mean-behind n</code>: the number of points of the mean behind.</li>
+ * <li><code>--spike-filter n[,x]</code>: filters the spikes of the series
+ * before their analysis (see {@link SpikeFilter}), with a window of
+ * <code>n</code> samples and a threshold of <code>x</code> deviations (by
+ * default, 3).</li>
+ * <li><code>--speed x</code>: replays the series at <code>x</code> times its
+ * wall-clock speed (for example, 1, 10 or 60).</li>
+ * <li><code>--unit unit</code>: the time unit of the series (a
+ * {@link TimeUnit} name, by default MINUTES).</li>
+ * <li><code>--output dir</code>: the directory where the results are written
+ * (by default, no result is written).</li>
+ * <li><code>--episodes x</code>: extracts the peak episodes (the runs of
+ * times whose danger degree is above <code>x</code>, see
+ * {@link PeakEpisodeDetector}) and writes them in an episode file next to
+ * each result file (with <code>--output</code>).</li>
+ * <li><code>--threads n</code>: the number of files processed
+ * concurrently.</li>
+ * <li><code>--parse-threads n</code>: the number of threads that parse each
+ * large file (by default, the available processors divided by the number of
+ * files processed concurrently).</li>
+ * <li><code>--off-heap</code>: stores the points of the series read from CSV
+ * files out of the Java heap (see {@link OffHeapTimeSeries}).</li>
+ * <li><code>--page-cache MB</code>: the memory budget of each series file
+ * (<code>.series</code>, see {@link PagedTimeSeries}) given as input; these
+ * files are paged from the disk instead of being read in memory.</li>
+ * <li><code>--charts dir</code>: the directory where a PNG chart of each file
+ * is written (see {@link ChartExporter}); the JVM is then run headless.</li>
+ * <li><code>--chart-size WxH</code>: the size of the charts (by default,
+ * 1600x400).</li>
+ * <li><code>--metrics file</code>: a CSV file where the metrics of the
+ * simulators are dumped every second (they are also published as a JMX
+ * MBean).</li>
+ * <li><code>--jfr</code>: emits Flight Recorder events for the processed
+ * times and the listener notifications (to be recorded, the JVM must be
+ * started with <code>-XX:StartFlightRecording</code>).</li>
+ * <li><code>--workers n</code>: spreads the files across <code>n</code> worker
+ * processes, partitioned by meter id (see {@link FleetCoordinator}).</li>
+ * </ul>
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class CommandLineRunner {
+    /**
+     * Header of the result files.
+     */
+    public static final String RESULT_HEADER = "time;timestamp;value;estimation;danger;tendency;adjusted";
+    /**
+     * Header of the timing summary.
+     */
+    public static final String SUMMARY_HEADER = "file;points;read_ms;simulation_ms;points_per_second;missed_deadlines";
+    /**
+     * Configuration of the simulators (shared by all of them).
+     */
+    private SimulatorConfig config = SimulatorConfig.DEFAULT;
+    /**
+     * Prototype of the spike filter of the simulators (null to analyse the
+     * raw values); each simulator uses a copy.
+     */
+    private SpikeFilter spikeFilter = null;
+    /**
+     * Time unit of the series.
+     */
+    private TimeUnit timeUnit = TimeUnit.MINUTES;
+    /**
+     * Directory where the results are written (null for none).
+     */
+    private File outputDir = null;
+    /**
+     * Danger degree above which the peak episodes are extracted (NaN if they
+     * are not extracted).
+     */
+    private double episodeThreshold = Double.NaN;
+    /**
+     * Number of files processed concurrently.
+     */
+    private int threads = 1;
+    /**
+     * Number of threads that parse each large file (0 to divide the available
+     * processors among the files processed concurrently).
+     */
+    private int parseThreads = 0;
+    /**
+     * Memory budget of each paged series (in bytes).
+     */
+    private long pageCacheBytes = PagedTimeSeries.DEFAULT_CACHE_BYTES;
+    /**
+     * Flag that indicates whether the series are stored out of the heap.
+     */
+    private boolean offHeap = false;
+    /**
+     * Directory where the charts are written (null for none).
+     */
+    private File chartsDir = null;
+    /**
+     * Exporter of the charts.
+     */
+    private ChartExporter chartExporter = new ChartExporter(1600, 400);
+    /**
+     * File where the metrics are dumped (null if the metrics are disabled).
+     */
+    private File metricsFile = null;
+    /**
+     * Metrics shared by all the simulators (null if disabled).
+     */
+    private SimulatorMetrics metrics = null;
+    /**
+     * Flag that indicates whether the Flight Recorder events are emitted.
+     */
+    private boolean flightRecording = false;
+    /**
+     * Number of worker processes (0 to process the files in this process).
+     */
+    private int workers = 0;
+    /**
+     * Options given in the command line, passed on to the worker processes.
+     */
+    private final List<String> options = new ArrayList<>();
+    /**
+     * Input files.
+     */
+    private final List<File> files = new ArrayList<>();
+    /**
+     * Absolute and normalized paths of the input files.
+     */
+    private final Set<Path> paths = new HashSet<>();
+
+    /**
+     * Runs the simulator from the command line.
+     *
+     * @param args the command line arguments.
+     */
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs the simulator with the given arguments.
+     *
+     * @param args the command line arguments.
+     * @param out the stream where the summary is printed.
+     * @param err the stream where the errors are printed.
+     * @return the exit status: 0 if all the files have been processed, 1 if
+     * some file has failed and 2 if the arguments are not valid.
+     */
+    public static int run(String[] args, PrintStream out, PrintStream err) {
+        CommandLineRunner runner = new CommandLineRunner();
+        try {
+            runner.parseArguments(args);
+        } catch (IllegalArgumentException | IOException ex) {
+            err.println("Error: " + ex.getMessage());
+            printUsage(err);
+            return 2;
+        }
+        if (runner.files.isEmpty()) {
+            printUsage(err);
+            return 2;
+        }
+        return runner.runAll(out, err);
+    }
+
+    /**
+     * Prints the usage message.
+     *
+     * @param out the stream where the message is printed.
+     */
+    private static void printUsage(PrintStream out) {
+        out.println("Usage: EnergyPeakControl [options] file|directory...");
+        out.println("  --config file      properties file with the simulator configuration");
+        out.println("  --limits a,b,c,d   desired voltage limits");
+        out.println("  --window n         window size used in the analysis");
+        out.println("  --mean-behind n    number of points of the mean behind");
+        out.println("  --spike-filter n   filter the spikes with a window of n samples (n,x: threshold x)");
+        out.println("  --speed x          replay at x times the wall-clock speed of the series");
+        out.println("  --unit unit        time unit of the series (MINUTES, SECONDS...)");
+        out.println("  --output dir       directory where the results are written");
+        out.println("  --episodes x       write the peak episodes with danger above x (with --output)");
+        out.println("  --threads n        number of files processed concurrently");
+        out.println("  --parse-threads n  number of threads that parse each large file");
+        out.println("  --off-heap         store the points of the series out of the Java heap");
+        out.println("  --page-cache MB    memory budget of each paged .series input file");
+        out.println("  --charts dir       directory where a PNG chart of each file is written");
+        out.println("  --chart-size WxH   size of the charts (by default, 1600x400)");
+        out.println("  --metrics file     CSV file where the metrics are dumped every second");
+        out.println("  --jfr              emit Flight Recorder events");
+        out.println("  --workers n        number of worker processes (files partitioned by meter id)");
+    }
+
+    /**
+     * Parses the command line arguments.
+     *
+     * @param args the command line arguments.
+     * @throws IllegalArgumentException if the arguments are not valid.
+     * @throws IOException if the configuration file can not be read.
+     */
+    void parseArguments(String[] args) throws IOException {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                File file = new File(arg);
+                if (file.isDirectory()) {
+                    for (File f : TimeSeriesCatalogue.listFiles(file)) {
+                        addFile(f);
+                    }
+                } else {
+                    addFile(file);
+                }
+                continue;
+            }
+            if (arg.equals("--jfr")) {
+                flightRecording = true;
+                options.add(arg);
+                continue;
+            }
+            if (arg.equals("--off-heap")) {
+                offHeap = true;
+                options.add(arg);
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            if (!arg.equals("--workers")) {
+                options.add(arg);
+                options.add(value);
+            }
+            switch (arg) {
+                case "--config":
+                    config = SimulatorConfig.load(new File(value));
+                    break;
+                case "--limits":
+                    String[] v = value.split(",");
+                    if (v.length != 4) {
+                        throw new IllegalArgumentException("Four limits are needed");
+                    }
+                    config = config.withLimits(Float.parseFloat(v[0].trim()), Float.parseFloat(v[1].trim()),
+                            Float.parseFloat(v[2].trim()), Float.parseFloat(v[3].trim()));
+                    break;
+                case "--window":
+                    config = config.withWindowSize(Integer.parseInt(value));
+                    break;
+                case "--mean-behind":
+                    config = config.withMeanBehindPoints(Integer.parseInt(value));
+                    break;
+                case "--spike-filter":
+                    String[] f = value.split(",");
+                    if (f.length > 2) {
+                        throw new IllegalArgumentException("The spike filter must be n[,x]");
+                    }
+                    spikeFilter = new SpikeFilter(Integer.parseInt(f[0].trim()),
+                            f.length > 1 ? Double.parseDouble(f[1].trim()) : SpikeFilter.DEFAULT_THRESHOLD,
+                            SpikeFilter.DEFAULT_MIN_DEVIATION, SpikeFilter.DEFAULT_MAX_SPIKE_LENGTH);
+                    break;
+                case "--speed":
+                    config = config.withReplaySpeed(Double.parseDouble(value));
+                    break;
+                case "--unit":
+                    timeUnit = TimeUnit.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+                case "--output":
+                    outputDir = new File(value);
+                    break;
+                case "--episodes":
+                    episodeThreshold = Double.parseDouble(value);
+                    break;
+                case "--threads":
+                    threads = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--parse-threads":
+                    parseThreads = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--page-cache":
+                    pageCacheBytes = Math.max(0, Long.parseLong(value)) << 20;
+                    break;
+                case "--charts":
+                    chartsDir = new File(value);
+                    if (System.getProperty("java.awt.headless") == null) {
+                        System.setProperty("java.awt.headless", "true");
+                    }
+                    break;
+                case "--chart-size":
+                    String[] size = value.toLowerCase(Locale.ROOT).split("x");
+                    if (size.length != 2) {
+                        throw new IllegalArgumentException("The chart size must be WxH");
+                    }
+                    chartExporter = new ChartExporter(Integer.parseInt(size[0].trim()), Integer.parseInt(size[1].trim()));
+                    break;
+                case "--metrics":
+                    metricsFile = new File(value);
+                    break;
+                case "--workers":
+                    workers = Math.max(0, Integer.parseInt(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+    }
+
+    /**
+     * Adds an input file, unless it has already been given (maybe with
+     * another path).
+     *
+     * @param file the input file.
+     */
+    private void addFile(File file) {
+        if (paths.add(file.getAbsoluteFile().toPath().normalize())) {
+            files.add(file);
+        }
+    }
+
+    /**
+     * Processes all the input files and prints the timing summary.
+     *
+     * @param out the stream where the summary is printed.
+     * @param err the stream where the errors are printed.
+     * @return the exit status.
+     */
+    private int runAll(PrintStream out, PrintStream err) {
+        if (outputDir != null && !outputDir.isDirectory() && !outputDir.mkdirs()) {
+            err.println("Error: the output directory can not be created");
+            return 1;
+        }
+        if (chartsDir != null && !chartsDir.isDirectory() && !chartsDir.mkdirs()) {
+            err.println("Error: the charts directory can not be created");
+            return 1;
+        }
+        if (workers > 0) {
+            return runFleet(out, err);
+        }
+        MetricsReporter reporter = startMetrics("cli", metricsFile);
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+        int status = 0;
+        long points = 0;
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (File f : files) {
+                results.add(executor.submit(() -> runFile(f)));
+            }
+            out.println(SUMMARY_HEADER);
+            for (int i = 0; i < files.size(); i++) {
+                try {
+                    String line = results.get(i).get();
+                    points += Long.parseLong(line.split(";")[1]);
+                    out.println(line);
+                } catch (ExecutionException ex) {
+                    err.println("Error in " + files.get(i) + ": " + ex.getCause().getMessage());
+                    status = 1;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            status = 1;
+        } finally {
+            executor.shutdownNow();
+            stopMetrics(reporter);
+        }
+        printTotal(out, points, start);
+        return status;
+    }
+
+    /**
+     * Processes all the input files in worker processes and prints the
+     * timing summary. The summary lines are printed as the files are
+     * completed.
+     *
+     * @param out the stream where the summary is printed.
+     * @param err the stream where the errors are printed.
+     * @return the exit status.
+     */
+    private int runFleet(PrintStream out, PrintStream err) {
+        long start = System.nanoTime();
+        long[] points = {0};
+        int status;
+        out.println(SUMMARY_HEADER);
+        try {
+            FleetCoordinator coordinator = new FleetCoordinator(workers, options);
+            int failed = coordinator.run(files, (String line) -> {
+                points[0] += Long.parseLong(line.split(";")[1]);
+                out.println(line);
+            }, (File f, String message) -> err.println("Error in " + f + ": " + message));
+            status = failed == 0 ? 0 : 1;
+        } catch (IOException ex) {
+            err.println("Error: " + ex.getMessage());
+            status = 1;
+        }
+        printTotal(out, points[0], start);
+        return status;
+    }
+
+    /**
+     * Prints the total line of the timing summary.
+     *
+     * @param out the stream where the summary is printed.
+     * @param points the number of processed points.
+     * @param start the instant when the processing started.
+     */
+    private void printTotal(PrintStream out, long points, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.println(String.format(Locale.ROOT, "Total: %d files, %d points in %.3f s (%.0f points/s)",
+                files.size(), points, seconds, points / seconds));
+    }
+
+    /**
+     * Enables the metrics of the simulators, if a dump file has been given.
+     *
+     * @param name the name under which the metrics are registered.
+     * @param file the CSV file where the metrics are dumped (null if the
+     * metrics are disabled).
+     * @return the reporter of the metrics, or null if they are disabled.
+     */
+    MetricsReporter startMetrics(String name, File file) {
+        if (file == null) {
+            return null;
+        }
+        metrics = new SimulatorMetrics();
+        metrics.register(name);
+        return new MetricsReporter(metrics, file, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the dump of the metrics of the simulators.
+     *
+     * @param reporter the reporter of the metrics (null if they are 
+     * disabled).
+     */
+    void stopMetrics(MetricsReporter reporter) {
+        if (reporter != null) {
+            reporter.close();
+            metrics.unregister();
+        }
+    }
+
+    /**
+     * Returns the file where the metrics are dumped.
+     *
+     * @return the file where the metrics are dumped (null if the metrics are
+     * disabled).
+     */
+    File getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * Returns the number of files processed concurrently.
+     *
+     * @return the number of files processed concurrently.
+     */
+    int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Processes an input file.
+     *
+     * @param file the input file.
+     * @return the summary line of the file.
+     * @throws IOException if an I/O error occurs.
+     */
+    String runFile(File file) throws IOException {
+        long t0 = System.nanoTime();
+        TimeSeries series = readSeries(file);
+        try {
+            long t1 = System.nanoTime();
+            int n = series.size();
+            double[][] results = new double[4][n];
+            Simulator simulator = new Simulator(series, config);
+            simulator.setMetrics(metrics);
+            if (spikeFilter != null) {
+                simulator.setSpikeFilter(spikeFilter.copy());
+            }
+            if (flightRecording) {
+                simulator.setFlightRecording(true);
+            }
+            simulator.addTimeListener(new TimeListener() {
+                @Override
+                public void timeChange(TimeEvent evt) {
+                    int t = (int) evt.getTime();
+                    results[0][t] = evt.getEstimationValue();
+                    results[1][t] = evt.getDangerDegree();
+                    results[2][t] = evt.getTendencyBehind();
+                    results[3][t] = evt.getAdjustedValue();
+                }
+
+                @Override
+                public void timeOut(TimeEvent evt) {
+                }
+            });
+            EpisodeIndex episodes = null;
+            if (outputDir != null && !Double.isNaN(episodeThreshold)) {
+                PeakEpisodeDetector detector = new PeakEpisodeDetector(series, file.getName(), episodeThreshold);
+                episodes = new EpisodeIndex();
+                detector.setIndex(episodes);
+                simulator.addTimeListener(detector);
+            }
+            if (config.getReplaySpeed() > 0) {
+                simulator.replay(n);
+            } else {
+                simulator.simulate(n);
+            }
+            long t2 = System.nanoTime();
+            if (outputDir != null) {
+                writeResults(new File(outputDir, outputName(file, ".result.csv")), series, results);
+                if (episodes != null) {
+                    episodes.write(new File(outputDir, outputName(file, ".episodes.csv")));
+                }
+            }
+            if (chartsDir != null) {
+                writeChart(file, series, results);
+            }
+            double simulationMillis = (t2 - t1) / 1e6;
+            return String.format(Locale.ROOT, "%s;%d;%.3f;%.3f;%.0f;%d", file.getName(), n, (t1 - t0) / 1e6,
+                    simulationMillis, n / Math.max(simulationMillis / 1000, 1e-9), simulator.getMissedDeadlines());
+        } finally {
+            if (series instanceof PagedTimeSeries) {
+                ((PagedTimeSeries) series).close();
+            }
+        }
+    }
+
+    /**
+     * Reads the series of an input file: a CSV file is read in memory and a
+     * series file (see {@link MappedTimeSeries}) is paged from the disk.
+     *
+     * @param file the input file.
+     * @return the time series.
+     * @throws IOException if an I/O error occurs.
+     */
+    private TimeSeries readSeries(File file) throws IOException {
+        if (file.getName().endsWith(TimeSeriesCatalogue.SPILL_EXTENSION)) {
+            return new PagedTimeSeries(file, PagedTimeSeries.DEFAULT_SEGMENT_SIZE, pageCacheBytes);
+        }
+        TimeSeriesReader reader = new TimeSeriesReader(timeUnit, true);
+        reader.setParallelism(parseThreads > 0 ? parseThreads
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / threads));
+        if (offHeap) {
+            reader.getBuilder().setSeriesFactory(OffHeapTimeSeries::new);
+        }
+        return reader.read(file.getPath());
+    }
+
+    /**
+     * Returns the name of an output file associated to an input file.
+     *
+     * @param file the input file.
+     * @param suffix the suffix of the output file (for instance,
+     * ".result.csv").
+     * @return the name of the output file.
+     */
+    private static String outputName(File file, String suffix) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return (dot > 0 ? name.substring(0, dot) : name) + suffix;
+    }
+
+    /**
+     * Writes the chart of a simulation in a PNG file named after the meter 
+     * id of the input file.
+     *
+     * @param file the input file.
+     * @param series the simulated time series.
+     * @param results the estimation, danger, tendency and adjusted values.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void writeChart(File file, TimeSeries series, double[][] results) throws IOException {
+        List<TimeSeries> charted = new ArrayList<>();
+        charted.add(series);
+        charted.add(toSeries(series, results[0]));
+        charted.add(toSeries(series, results[2]));
+        charted.add(toSeries(series, results[3]));
+        double[] l = config.getLimits();
+        float[] limits = {(float) l[0], (float) l[1], (float) l[2], (float) l[3]};
+        BufferedImage image = chartExporter.render(charted, toSeries(series, results[1]), limits, file.getName());
+        ChartExporter.write(image, new File(chartsDir, FleetCoordinator.meterId(file) + ".png"));
+    }
+
+    /**
+     * Returns a time series with the times of a series and the given values.
+     *
+     * @param series the series whose times are taken.
+     * @param values the values.
+     * @return the new time series.
+     */
+    private static TimeSeries toSeries(TimeSeries series, double[] values) {
+        TimeSeries ts = new TimeSeries();
+        ts.ensureCapacity(values.length);
+        for (int t = 0; t < values.length; t++) {
+            ts.add(new Point2D.Double(series.getTime(t), values[t]));
+        }
+        return ts;
+    }
+
+    /**
+     * Writes the results of a simulation in a CSV file.
+     *
+     * @param file the result file.
+     * @param series the simulated time series.
+     * @param results the estimation, danger, tendency and adjusted values.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static void writeResults(File file, TimeSeries series, double[][] results) throws IOException {
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8), 1 << 16)) {
+            w.write(RESULT_HEADER);
+            w.write('\n');
+            StringBuilder sb = new StringBuilder(128);
+            for (int t = 0; t < series.size(); t++) {
+                sb.setLength(0);
+                sb.append(t).append(';').append(series.getTimestamp(t)).append(';').append(series.getValue(t));
+                for (double[] r : results) {
+                    sb.append(';').append(r[t]);
+                }
+                sb.append('\n');
+                w.append(sb);
+            }
+        }
+    }
+}
@@ -0,0 +1,745 @@
+package energypeakcontrol;
+
+import java.awt.geom.Point2D;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Class representing a time series stored in a compressed form, suitable for
+ * keeping very long histories in memory.
+ * <p>
+ * The points are grouped in blocks with a fixed number of samples. The last
+ * block (the open one) is kept uncompressed; once it is full, it is
+ * compressed following the Gorilla scheme: the times are stored as
+ * delta-of-delta codes and the values as the XOR with the previous value.
+ * The times of a regular series need one bit per sample, but a decimal value
+ * (as 233.9) has no exact binary representation, so consecutive values
+ * usually differ in most of the mantissa bits: the meter files (voltages with
+ * one decimal sampled every minute) take about 6.5 bytes per sample, instead
+ * of the 16 bytes of the uncompressed times and values. Only series whose
+ * values repeat or change in a few bits get close to 1 or 2 bytes per sample.
+ * <p>
+ * The sealed blocks are read without locking. A small cache keeps the last
+ * {@link #CACHED_BLOCKS} decoded blocks, so the random accesses near a point
+ * (as the windows of the simulator, which reach back across the block
+ * boundaries) do not decode the blocks again; the sequential scans can use a
+ * {@link Cursor} instead.
+ * <p>
+ * The time coordinates must be integral, as it is the case of the series
+ * indexed by time units.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class CompressedTimeSeries extends BackedTimeSeries {
+    /**
+     * Serial version of the class.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Default number of samples per block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    /**
+     * Number of decoded blocks kept in the cache.
+     */
+    public static final int CACHED_BLOCKS = 4;
+    /**
+     * Number of samples per block.
+     */
+    private final int blockSize;
+    /**
+     * Compressed (sealed) blocks, published as a whole when a block is sealed.
+     */
+    private volatile SealedBlocks sealed = new SealedBlocks(new long[16][], 0);
+    /**
+     * Times of the open block.
+     */
+    private final long[] headTimes;
+    /**
+     * Values of the open block.
+     */
+    private final double[] headValues;
+    /**
+     * Number of samples in the open block.
+     */
+    private int headSize = 0;
+    /**
+     * Number of points (published after the point has been written).
+     */
+    private volatile int size = 0;
+    /**
+     * Decoded blocks kept in the cache.
+     */
+    private final DecodedBlock[] cache = new DecodedBlock[CACHED_BLOCKS];
+    /**
+     * Decoded block used last (null if none).
+     */
+    private DecodedBlock lastBlock = null;
+    /**
+     * Counter of the uses of the cache.
+     */
+    private long cacheClock = 0;
+    /**
+     * Size in bytes of the compressed blocks.
+     */
+    private long compressedBytes = 0;
+
+    /**
+     * Constructs an empty compressed time series with the default block size.
+     */
+    public CompressedTimeSeries() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Constructs an empty compressed time series.
+     *
+     * @param blockSize number of samples per block.
+     */
+    public CompressedTimeSeries(int blockSize) {
+        if (blockSize < 2) {
+            throw new InvalidParameterException("The block size must be greater than one.");
+        }
+        this.blockSize = blockSize;
+        this.headTimes = new long[blockSize];
+        this.headValues = new double[blockSize];
+    }
+
+    /**
+     * Constructs a compressed time series containing the points of the
+     * specified collection, in the order they are returned by the collection's
+     * iterator. If the collection is a time series, its time unit and start
+     * time are also copied.
+     *
+     * @param c the collection whose points are to be placed into this time
+     * series
+     * @throws NullPointerException if the specified collection is null
+     */
+    public CompressedTimeSeries(Collection<? extends Point2D> c) {
+        this(DEFAULT_BLOCK_SIZE);
+        if (c instanceof TimeSeries) {
+            setTimeUnit(((TimeSeries) c).getTimeUnit());
+            setStartTime(((TimeSeries) c).getStartTime());
+        }
+        addAll(c);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double getTime(int index) {
+        checkIndex(index);
+        int block = index / blockSize;
+        SealedBlocks s = sealed;
+        if (block < s.count) {
+            return decodeBlock(s.blocks[block]).times[index - block * blockSize];
+        }
+        synchronized (this) {
+            return getOpenTime(index);
+        }
+    }
+
+    @Override
+    public double getValue(int index) {
+        checkIndex(index);
+        int block = index / blockSize;
+        SealedBlocks s = sealed;
+        if (block < s.count) {
+            return decodeBlock(s.blocks[block]).values[index - block * blockSize];
+        }
+        synchronized (this) {
+            return getOpenValue(index);
+        }
+    }
+
+    @Override
+    public synchronized Point2D get(int index) {
+        return new Point2D.Double(getTime(index), getValue(index));
+    }
+
+    /**
+     * Returns the time of a point that was in the open block when the sealed
+     * blocks were read. Must be called holding the lock of the series (the
+     * block may have been sealed, or the series cleared, meanwhile).
+     *
+     * @param index index of the point.
+     * @return the time of the point.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    private double getOpenTime(int index) {
+        checkIndex(index);
+        int block = index / blockSize;
+        if (block < sealed.count) {
+            return decodeBlock(sealed.blocks[block]).times[index - block * blockSize];
+        }
+        return headTimes[index - block * blockSize];
+    }
+
+    /**
+     * Returns the value of a point that was in the open block when the sealed
+     * blocks were read. Must be called holding the lock of the series (the
+     * block may have been sealed, or the series cleared, meanwhile).
+     *
+     * @param index index of the point.
+     * @return the value of the point.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    private double getOpenValue(int index) {
+        checkIndex(index);
+        int block = index / blockSize;
+        if (block < sealed.count) {
+            return decodeBlock(sealed.blocks[block]).values[index - block * blockSize];
+        }
+        return headValues[index - block * blockSize];
+    }
+
+    @Override
+    protected synchronized void append(double time, double value) {
+        long t = (long) time;
+        if (t != time) {
+            throw new InvalidParameterException("The time coordinates must be integral.");
+        }
+        int n = size;
+        if (n == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Time series full");
+        }
+        headTimes[headSize] = t;
+        headValues[headSize] = value;
+        headSize++;
+        if (headSize == blockSize) {
+            long[] data = encode(headTimes, headValues, blockSize);
+            SealedBlocks s = sealed;
+            long[][] b = s.count < s.blocks.length ? s.blocks : Arrays.copyOf(s.blocks, s.blocks.length * 2);
+            b[s.count] = data;
+            sealed = new SealedBlocks(b, s.count + 1);
+            compressedBytes += data.length * 8L;
+            headSize = 0;
+        }
+        size = n + 1;
+    }
+
+    @Override
+    public synchronized void clear() {
+        //The size is published first, so the readers do not reach the
+        //removed blocks
+        size = 0;
+        sealed = new SealedBlocks(new long[16][], 0);
+        headSize = 0;
+        Arrays.fill(cache, null);
+        lastBlock = null;
+        compressedBytes = 0;
+        modCount++;
+        pointsCleared();
+    }
+
+    /**
+     * Returns an iterator that decodes the points of this series
+     * sequentially, without decompressing whole blocks.
+     *
+     * @return an iterator over the points of this series.
+     */
+    @Override
+    public Iterator<Point2D> iterator() {
+        return cursor(0);
+    }
+
+    /**
+     * Returns a sequential decoder positioned at the given index.
+     *
+     * @param index index of the first point to be decoded.
+     * @return a sequential decoder.
+     */
+    public Cursor cursor(int index) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return new Cursor(index);
+    }
+
+    /**
+     * Returns the memory used by the compressed blocks and the open block, in
+     * bytes.
+     *
+     * @return the memory used by the stored samples.
+     */
+    public long getMemoryUsage() {
+        return compressedBytes + (long) blockSize * (Long.BYTES + Double.BYTES);
+    }
+
+    /**
+     * Returns the mean number of bytes per sample in the compressed blocks.
+     *
+     * @return the mean number of bytes per compressed sample, or 0 if there is
+     * no compressed block yet.
+     */
+    public double getCompressedBytesPerSample() {
+        int count = sealed.count;
+        return count == 0 ? 0.0 : (double) compressedBytes / ((long) count * blockSize);
+    }
+
+    /**
+     * Returns the given block decoded, from the cache if it is there or
+     * replacing the least recently used block otherwise. Several blocks are
+     * kept, so the accesses that reach back across a block boundary (as the
+     * windows of the simulator) do not decode the same blocks again and again.
+     * <p>
+     * The cache is read and updated without locking: its entries are
+     * immutable, so a reader sees either a whole decoded block or another
+     * entry, and at worst a block is decoded twice.
+     *
+     * @param data the compressed block.
+     * @return the decoded block.
+     */
+    private DecodedBlock decodeBlock(long[] data) {
+        DecodedBlock last = lastBlock;
+        if (last != null && last.data == data) {
+            return last;
+        }
+        int slot = 0;
+        for (int i = 0; i < CACHED_BLOCKS; i++) {
+            DecodedBlock d = cache[i];
+            if (d == null) {
+                slot = i;
+                break;
+            }
+            if (d.data == data) {
+                d.lastUse = ++cacheClock;
+                lastBlock = d;
+                return d;
+            }
+            if (d.lastUse < cache[slot].lastUse) {
+                slot = i;
+            }
+        }
+        DecodedBlock d = new DecodedBlock(data, blockSize);
+        d.lastUse = ++cacheClock;
+        cache[slot] = d;
+        lastBlock = d;
+        return d;
+    }
+
+    /**
+     * Compresses the given samples.
+     *
+     * @param times times of the samples.
+     * @param values values of the samples.
+     * @param n number of samples.
+     * @return the compressed block.
+     */
+    private static long[] encode(long[] times, double[] values, int n) {
+        BitWriter w = new BitWriter(n);
+        long prevTime = times[0];
+        long prevDelta = 0;
+        long prevBits = Double.doubleToRawLongBits(values[0]);
+        int prevLeading = -1, prevTrailing = 0;
+        w.write(prevTime, 64);
+        w.write(prevBits, 64);
+        for (int i = 1; i < n; i++) {
+            //Time: delta-of-delta code
+            long delta = times[i] - prevTime;
+            long dod = delta - prevDelta;
+            if (dod == 0) {
+                w.write(0, 1);
+            } else if (dod >= -64 && dod <= 63) {
+                w.write(0b10, 2);
+                w.write(dod, 7);
+            } else if (dod >= -256 && dod <= 255) {
+                w.write(0b110, 3);
+                w.write(dod, 9);
+            } else if (dod >= -2048 && dod <= 2047) {
+                w.write(0b1110, 4);
+                w.write(dod, 12);
+            } else {
+                w.write(0b1111, 4);
+                w.write(dod, 64);
+            }
+            prevTime = times[i];
+            prevDelta = delta;
+
+            //Value: XOR with the previous value
+            long bits = Double.doubleToRawLongBits(values[i]);
+            long xor = bits ^ prevBits;
+            if (xor == 0) {
+                w.write(0, 1);
+            } else {
+                int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+                int trailing = Long.numberOfTrailingZeros(xor);
+                if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+                    //The meaningful bits fit in the previous window
+                    w.write(0b10, 2);
+                    w.write(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+                } else {
+                    int significant = 64 - leading - trailing;
+                    w.write(0b11, 2);
+                    w.write(leading, 5);
+                    w.write(significant == 64 ? 0 : significant, 6);
+                    w.write(xor >>> trailing, significant);
+                    prevLeading = leading;
+                    prevTrailing = trailing;
+                }
+            }
+            prevBits = bits;
+        }
+        return w.toArray();
+    }
+
+    /**
+     * Sequential decoder of a compressed time series. Besides the iterator
+     * methods, it provides primitive access to the last decoded point.
+     */
+    public class Cursor implements Iterator<Point2D> {
+        /**
+         * Index of the next point to be decoded.
+         */
+        private int index;
+        /**
+         * Decoder of the current block (null if the cursor has not entered a
+         * compressed block yet).
+         */
+        private BlockDecoder decoder = null;
+        /**
+         * Index of the block associated to the decoder.
+         */
+        private int decoderBlock = -1;
+        /**
+         * Time of the last decoded point.
+         */
+        private double time;
+        /**
+         * Value of the last decoded point.
+         */
+        private double value;
+
+        /**
+         * Constructs a cursor positioned at the given index.
+         *
+         * @param index index of the first point to be decoded.
+         */
+        Cursor(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < size();
+        }
+
+        /**
+         * Decodes the next point of the series.
+         *
+         * @throws NoSuchElementException if there are no more points.
+         */
+        public void advance() {
+            if (index >= size()) {
+                throw new NoSuchElementException();
+            }
+            int block = index / blockSize;
+            int offset = index % blockSize;
+            synchronized (CompressedTimeSeries.this) {
+                SealedBlocks s = sealed;
+                if (block < s.count) {
+                    if (decoderBlock != block) {
+                        //Skip the points of the block before the cursor
+                        decoder = new BlockDecoder(s.blocks[block]);
+                        decoderBlock = block;
+                        for (int i = 0; i < offset; i++) {
+                            decoder.next();
+                        }
+                    }
+                    decoder.next();
+                    time = decoder.time;
+                    value = decoder.value;
+                } else {
+                    time = headTimes[offset];
+                    value = headValues[offset];
+                }
+            }
+            index++;
+        }
+
+        @Override
+        public Point2D next() {
+            advance();
+            return new Point2D.Double(time, value);
+        }
+
+        /**
+         * Returns the time of the last decoded point.
+         *
+         * @return the time of the last decoded point.
+         */
+        public double time() {
+            return time;
+        }
+
+        /**
+         * Returns the value of the last decoded point.
+         *
+         * @return the value of the last decoded point.
+         */
+        public double value() {
+            return value;
+        }
+
+        /**
+         * Returns the index of the next point to be decoded.
+         *
+         * @return the index of the next point.
+         */
+        public int nextIndex() {
+            return index;
+        }
+    }
+
+    /**
+     * Immutable list of the sealed blocks. The array may be shared with newer
+     * lists, but its first <code>count</code> entries are never changed.
+     */
+    private static class SealedBlocks {
+        /**
+         * Compressed blocks.
+         */
+        final long[][] blocks;
+        /**
+         * Number of blocks.
+         */
+        final int count;
+
+        SealedBlocks(long[][] blocks, int count) {
+            this.blocks = blocks;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Decoded samples of a compressed block.
+     */
+    private static class DecodedBlock {
+        /**
+         * Compressed block (identifies the entry of the cache).
+         */
+        final long[] data;
+        /**
+         * Decoded times.
+         */
+        final long[] times;
+        /**
+         * Decoded values.
+         */
+        final double[] values;
+        /**
+         * Last use of the entry (updated without locking, so it is only a
+         * hint for the replacement).
+         */
+        long lastUse;
+
+        DecodedBlock(long[] data, int samples) {
+            this.data = data;
+            this.times = new long[samples];
+            this.values = new double[samples];
+            BlockDecoder decoder = new BlockDecoder(data);
+            for (int i = 0; i < samples; i++) {
+                decoder.next();
+                times[i] = decoder.time;
+                values[i] = decoder.value;
+            }
+        }
+    }
+
+    /**
+     * Decoder of the samples of a compressed block.
+     */
+    private static class BlockDecoder {
+        /**
+         * Reader of the block bits.
+         */
+        private final BitReader r;
+        /**
+         * Number of decoded samples.
+         */
+        private int count = 0;
+        /**
+         * Last decoded time.
+         */
+        private long time;
+        /**
+         * Last time delta.
+         */
+        private long delta = 0;
+        /**
+         * Raw bits of the last decoded value.
+         */
+        private long bits;
+        /**
+         * Last decoded value.
+         */
+        private double value;
+        /**
+         * Leading zeros of the current XOR window.
+         */
+        private int leading = 0;
+        /**
+         * Trailing zeros of the current XOR window.
+         */
+        private int trailing = 0;
+
+        BlockDecoder(long[] data) {
+            this.r = new BitReader(data);
+        }
+
+        /**
+         * Decodes the next sample of the block.
+         */
+        void next() {
+            if (count == 0) {
+                time = r.read(64);
+                bits = r.read(64);
+            } else {
+                //Time
+                long dod;
+                if (r.read(1) == 0) {
+                    dod = 0;
+                } else if (r.read(1) == 0) {
+                    dod = r.readSigned(7);
+                } else if (r.read(1) == 0) {
+                    dod = r.readSigned(9);
+                } else if (r.read(1) == 0) {
+                    dod = r.readSigned(12);
+                } else {
+                    dod = r.read(64);
+                }
+                delta += dod;
+                time += delta;
+                //Value
+                if (r.read(1) == 1) {
+                    if (r.read(1) == 1) {
+                        leading = (int) r.read(5);
+                        int significant = (int) r.read(6);
+                        if (significant == 0) {
+                            significant = 64;
+                        }
+                        trailing = 64 - leading - significant;
+                    }
+                    bits ^= r.read(64 - leading - trailing) << trailing;
+                }
+            }
+            value = Double.longBitsToDouble(bits);
+            count++;
+        }
+    }
+
+    /**
+     * Writer of a sequence of bits.
+     */
+    private static class BitWriter {
+        /**
+         * Words where the bits are stored (most significant bit first).
+         */
+        private long[] words;
+        /**
+         * Number of written bits.
+         */
+        private int position = 0;
+
+        BitWriter(int samples) {
+            words = new long[Math.max(4, samples)];
+        }
+
+        /**
+         * Writes the lowest <code>n</code> bits of the given value.
+         *
+         * @param value the value to be written.
+         * @param n number of bits (between 0 and 64).
+         */
+        void write(long value, int n) {
+            if (n == 0) {
+                return;
+            }
+            if (n < 64) {
+                value &= (1L << n) - 1;
+            }
+            int w = position >>> 6;
+            if (w + 1 >= words.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            int free = 64 - (position & 63);
+            if (n <= free) {
+                words[w] |= value << (free - n);
+            } else {
+                words[w] |= value >>> (n - free);
+                words[w + 1] |= value << (64 - (n - free));
+            }
+            position += n;
+        }
+
+        /**
+         * Returns the written words.
+         *
+         * @return the written words.
+         */
+        long[] toArray() {
+            return Arrays.copyOf(words, (position + 63) >>> 6);
+        }
+    }
+
+    /**
+     * Reader of a sequence of bits.
+     */
+    private static class BitReader {
+        /**
+         * Words where the bits are stored (most significant bit first).
+         */
+        private final long[] words;
+        /**
+         * Number of read bits.
+         */
+        private int position = 0;
+
+        BitReader(long[] words) {
+            this.words = words;
+        }
+
+        /**
+         * Reads <code>n</code> bits as an unsigned value.
+         *
+         * @param n number of bits (between 0 and 64).
+         * @return the read value.
+         */
+        long read(int n) {
+            if (n == 0) {
+                return 0;
+            }
+            int w = position >>> 6;
+            int available = 64 - (position & 63);
+            long result;
+            if (n <= available) {
+                result = (words[w] >>> (available - n)) & mask(n);
+            } else {
+                int rest = n - available;
+                result = ((words[w] & mask(available)) << rest) | (words[w + 1] >>> (64 - rest));
+            }
+            position += n;
+            return result;
+        }
+
+        /**
+         * Reads <code>n</code> bits as a two's complement value.
+         *
+         * @param n number of bits (between 1 and 64).
+         * @return the read value.
+         */
+        long readSigned(int n) {
+            return (read(n) << (64 - n)) >> (64 - n);
+        }
+
+        private static long mask(int n) {
+            return n == 64 ? -1L : (1L << n) - 1;
+        }
+    }
+}
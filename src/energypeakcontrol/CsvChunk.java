@@ -0,0 +1,306 @@
+package energypeakcontrol;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Class representing the samples of a chunk of a CSV file (a range of
+ * complete lines), parsed from its bytes into primitive arrays. It is used by
+ * the {@link TimeSeriesReader} to parse several chunks of a large file
+ * concurrently; the chunks are then passed to the builder in order.
+ * <p>
+ * The lines are parsed with the same rules as the sequential reading: the
+ * empty lines are skipped, the date-time is parsed with
+ * {@link TimeSeriesReader#parseDateTime(CharSequence, int)} and the numbers
+ * are parsed as by <code>Double.parseDouble</code> and
+ * <code>Integer.parseInt</code> (the usual plain decimals are converted
+ * without creating strings). The parsing stops at the first invalid line,
+ * whose number and error are kept in the chunk.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+final class CsvChunk {
+    /**
+     * Powers of ten that are exactly representable as a double.
+     */
+    private static final double POWERS_OF_TEN[] = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    /**
+     * Maximum number of digits of a decimal converted without strings (so
+     * the digits are exactly representable as a double).
+     */
+    private static final int MAX_FAST_DIGITS = 15;
+    /**
+     * Timestamps of the samples (in epoch milliseconds).
+     */
+    long timestamps[];
+    /**
+     * Values of the samples.
+     */
+    double values[];
+    /**
+     * Labels of the samples (null if the annotations are not read).
+     */
+    int labels[];
+    /**
+     * Truth values of the samples (null if the annotations are not read).
+     */
+    double truth[];
+    /**
+     * Number of samples.
+     */
+    int size = 0;
+    /**
+     * Number of lines of the chunk (up to the invalid one, if any).
+     */
+    int lines = 0;
+    /**
+     * Error of the invalid line (null if all the lines are valid).
+     */
+    RuntimeException error = null;
+    /**
+     * Characters of the line being parsed.
+     */
+    private final Line line = new Line();
+
+    /**
+     * Creates an empty chunk.
+     *
+     * @param capacity the initial capacity of the arrays.
+     * @param annotated <tt>true</tt> if the annotations are read.
+     */
+    private CsvChunk(int capacity, boolean annotated) {
+        capacity = Math.max(capacity, 16);
+        timestamps = new long[capacity];
+        values = new double[capacity];
+        if (annotated) {
+            labels = new int[capacity];
+            truth = new double[capacity];
+        }
+    }
+
+    /**
+     * Parses the lines of a chunk. The parsing stops if the thread is
+     * interrupted.
+     *
+     * @param bytes the bytes of the chunk, from its position to its limit
+     * (the chunk starts at the beginning of a line).
+     * @param fields the positions of the date-time, voltage, label and truth
+     * fields.
+     * @param annotated <tt>true</tt> if the annotations are read.
+     * @return the parsed chunk.
+     */
+    static CsvChunk parse(ByteBuffer bytes, int fields[], boolean annotated) {
+        CsvChunk chunk = new CsvChunk(bytes.remaining() / 32, annotated);
+        Line line = chunk.line;
+        int position = bytes.position(), end = bytes.limit();
+        while (position < end) {
+            // The line, without its terminator ("\n", "\r\n" or "\r")
+            line.length = 0;
+            int b = 0;
+            while (position < end && (b = bytes.get(position++)) != '\n' && b != '\r') {
+                line.append((char) (b & 0xFF));
+            }
+            if (b == '\r' && position < end && bytes.get(position) == '\n') {
+                position++;
+            }
+            chunk.lines++;
+            if ((chunk.lines & (TimeSeriesReader.PROGRESS_CHUNK - 1)) == 0
+                    && Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            if (line.length == 0) {
+                continue;
+            }
+            try {
+                chunk.parseLine(fields, annotated);
+            } catch (RuntimeException ex) {
+                chunk.error = ex;
+                break;
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Parses the current line and appends its sample.
+     *
+     * @param fields the positions of the date-time, voltage, label and truth
+     * fields.
+     * @param annotated <tt>true</tt> if the annotations are read.
+     */
+    private void parseLine(int fields[], boolean annotated) {
+        if (size == timestamps.length) {
+            int capacity = size * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            values = Arrays.copyOf(values, capacity);
+            if (annotated) {
+                labels = Arrays.copyOf(labels, capacity);
+                truth = Arrays.copyOf(truth, capacity);
+            }
+        }
+        timestamps[size] = TimeSeriesReader.parseDateTime(line, line.fieldStart(fields[0]));
+        int from = line.fieldStart(fields[1]);
+        values[size] = parseDouble(line.chars, from, line.fieldEnd(from));
+        if (annotated) {
+            from = line.fieldStart(fields[2]);
+            labels[size] = parseInt(line.chars, from, line.fieldEnd(from));
+            from = line.fieldStart(fields[3]);
+            truth[size] = parseDouble(line.chars, from, line.fieldEnd(from));
+        }
+        size++;
+    }
+
+    /**
+     * Parses a double as <code>Double.parseDouble</code>. A plain decimal
+     * with up to {@link #MAX_FAST_DIGITS} digits is converted with a single
+     * (correctly rounded) division of two exact doubles, which gives the same
+     * result; any other text is passed on to <code>Double.parseDouble</code>.
+     *
+     * @param c the characters.
+     * @param from the offset of the first character.
+     * @param to the offset after the last character.
+     * @return the parsed value.
+     * @throws NumberFormatException if the text is not a valid number.
+     */
+    static double parseDouble(char c[], int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (c[i] == '-' || c[i] == '+')) {
+            negative = c[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0, decimals = -1;
+        for (; i < to; i++) {
+            char ch = c[i];
+            if (ch >= '0' && ch <= '9') {
+                mantissa = mantissa * 10 + (ch - '0');
+                digits++;
+                if (decimals >= 0) {
+                    decimals++;
+                }
+            } else if (ch == '.' && decimals < 0) {
+                decimals = 0;
+            } else {
+                break;
+            }
+        }
+        if (i < to || digits == 0 || digits > MAX_FAST_DIGITS) {
+            return Double.parseDouble(new String(c, from, to - from));
+        }
+        double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses an integer as <code>Integer.parseInt</code>, ignoring the
+     * leading and trailing blanks.
+     *
+     * @param c the characters.
+     * @param from the offset of the first character.
+     * @param to the offset after the last character.
+     * @return the parsed value.
+     * @throws NumberFormatException if the text is not a valid integer.
+     */
+    static int parseInt(char c[], int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (c[i] == '-' || c[i] == '+')) {
+            negative = c[i] == '-';
+            i++;
+        }
+        int digits = 0, value = 0;
+        for (; i < to && c[i] >= '0' && c[i] <= '9'; i++) {
+            value = value * 10 + (c[i] - '0');
+            digits++;
+        }
+        if (i < to || digits == 0 || digits > 9) {
+            return Integer.parseInt(new String(c, from, to - from).trim());
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Characters of a line, reused between lines.
+     */
+    private static final class Line implements CharSequence {
+        /**
+         * Characters of the line.
+         */
+        char chars[] = new char[128];
+        /**
+         * Number of characters of the line.
+         */
+        int length = 0;
+
+        /**
+         * Appends a character to the line.
+         *
+         * @param ch the character.
+         */
+        void append(char ch) {
+            if (length == chars.length) {
+                chars = Arrays.copyOf(chars, length * 2);
+            }
+            chars[length++] = ch;
+        }
+
+        /**
+         * Returns the offset of the given field in the line.
+         *
+         * @param index the position of the field.
+         * @return the offset of the first character of the field.
+         * @throws NumberFormatException if the line has not so many fields.
+         */
+        int fieldStart(int index) {
+            int from = 0;
+            for (int i = 0; i < index; i++) {
+                from = fieldEnd(from) + 1;
+                if (from > length) {
+                    throw new NumberFormatException("Missing field " + index);
+                }
+            }
+            return from;
+        }
+
+        /**
+         * Returns the end of the field that starts at the given offset.
+         *
+         * @param from the offset of the first character of the field.
+         * @return the offset of the following separator (or the length of
+         * the line).
+         */
+        int fieldEnd(int from) {
+            int i = from;
+            while (i < length && chars[i] != TimeSeriesReader.SEPARATOR) {
+                i++;
+            }
+            return i;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index >= length) {
+                throw new StringIndexOutOfBoundsException(index);
+            }
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
+}
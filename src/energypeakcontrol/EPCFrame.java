@@ -1,20 +1,27 @@
 package energypeakcontrol;
 
-import com.opencsv.CSVParser;
-import com.opencsv.CSVParserBuilder;
-import com.opencsv.CSVReader;
-import com.opencsv.CSVReaderBuilder;
 import energypeakcontrol.TimeSeriesPanel.AffineTransformInfo;
 import events.TimeEvent;
 import events.TimeListener;
 import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.swing.ImageIcon;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
+import javax.swing.JProgressBar;
+import javax.swing.SwingWorker;
+import metrics.SimulatorMetrics;
 
 /**
  * Class representing the main frame of this application.
@@ -30,6 +37,22 @@ public class EPCFrame extends javax.swing.JFrame {
      * Simulator associated to this frame.
      */
     private Simulator simulator = null;
+    /**
+     * Metrics of the simulators of this frame (published as a JMX MBean).
+     */
+    private final SimulatorMetrics metrics = new SimulatorMetrics();
+    /**
+     * Overview of the whole series, with the range shown in the series panel.
+     */
+    private OverviewPanel overview;
+    /**
+     * Progress of the file being opened (hidden if none).
+     */
+    private JProgressBar progressOpen;
+    /**
+     * Task that opens a file in background (null if none).
+     */
+    private SeriesLoader loader = null;
     /**
      * Default index for the 'alpha' time series.
      */
@@ -50,41 +73,149 @@ public class EPCFrame extends javax.swing.JFrame {
      * Test file.
      */
     private static final String TEST_FILE = "cnt_501.csv";
+    /**
+     * Format of the date-time shown in the time label.
+     */
+    private static final DateTimeFormatter TIME_LABEL_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    /**
+     * Initial (and maximum) time scale of the series panel, in pixels per
+     * point.
+     */
+    private static final double MAX_TIME_SCALE = 10;
+    /**
+     * Factor applied to the time scale by each notch of the mouse wheel.
+     */
+    private static final double TIME_ZOOM_FACTOR = 1.5;
             
     /**
      * Creates a new frame.
      */
     public EPCFrame() {
         initComponents();
+        initOverview();
+        initTimeZoom();
+        initProgress();
         setSize(1000,700);
+        metrics.register("gui");
         setIconImage((new ImageIcon(getClass().getResource("/icons/logoTT.png"))).getImage());                
         //A default time series is loaded   
         openDefaultSeries();        
     }
 
     /**
-     * 
+     * Adds the overview of the series above the series panel. It shares the
+     * model of the time slider, so both move the current time.
+     */
+    private void initOverview() {
+        overview = new OverviewPanel(deslizador_time.getModel());
+        overview.setBorder(javax.swing.BorderFactory.createBevelBorder(javax.swing.border.BevelBorder.LOWERED));
+        panelCentral.add(overview, java.awt.BorderLayout.NORTH);
+        timeSeriePanel.addComponentListener(new java.awt.event.ComponentAdapter() {
+            @Override
+            public void componentResized(java.awt.event.ComponentEvent evt) {
+                updateOverviewExtent();
+            }
+        });
+    }
+    
+    /**
+     * Zooms the time axis of the series panel with the mouse wheel. Zooming
+     * out is bounded by the whole series fitting the panel, and zooming in by
+     * the initial scale.
+     */
+    private void initTimeZoom() {
+        timeSeriePanel.addMouseWheelListener(new java.awt.event.MouseWheelListener() {
+            @Override
+            public void mouseWheelMoved(java.awt.event.MouseWheelEvent evt) {
+                int n = series == null ? 0 : series.size();
+                double minScale = n > 0 ? Math.min((double) timeSeriePanel.getWidth() / n, MAX_TIME_SCALE)
+                        : MAX_TIME_SCALE;
+                double scale = timeSeriePanel.getTimeScale()
+                        * Math.pow(TIME_ZOOM_FACTOR, -evt.getPreciseWheelRotation());
+                timeSeriePanel.setTimeScale(Math.max(minScale, Math.min(MAX_TIME_SCALE, scale)));
+                updateOverviewExtent();
+                timeSeriePanel.repaint();
+            }
+        });
+    }
+    
+    /**
+     * Adds the progress of the file opening to the status bar.
+     */
+    private void initProgress() {
+        progressOpen = new JProgressBar(0, 100);
+        progressOpen.setStringPainted(true);
+        progressOpen.setVisible(false);
+        barraEstado.add(progressOpen, java.awt.BorderLayout.CENTER);
+    }
+    
+    /**
+     * Updates the range of the overview with the number of points shown in
+     * the series panel.
+     */
+    private void updateOverviewExtent() {
+        overview.setDetailExtent((int) (timeSeriePanel.getWidth() / timeSeriePanel.getTimeScale()));
+    }
+    
+    /**
+     * Opens the test file, if it exists, at the start of the application.
      */
     private void openDefaultSeries(){
-        series = readSeries(TEST_FILE);
-        if (series != null) {
-            //System.out.println(series);
-            timeSeriePanel.setTimeScale(10);
-            timeSeriePanel.addTimeSeries(series, 0, GlobalSettings.getYAxisPosition(), 1, GlobalSettings.getZoom());
-            timeSeriePanel.setLimitLines(GlobalSettings.getHighA(), GlobalSettings.getHighB(),
-                    GlobalSettings.getHighC(), GlobalSettings.getHighD());
-            
-            deslizador_time.setMinimum(0);
-            deslizador_time.setMaximum(series.size() - 1);
-            deslizador_time.setValue(0);
-            
-            simulator = new Simulator(series, GlobalSettings.getHighA(),
-                    GlobalSettings.getHighB(), GlobalSettings.getHighC(), GlobalSettings.getHighD());            
-            simulator.addTimeListener(new TimeHandler());
-            botonPlay.setEnabled(true);
+        TimeSeries test = readSeries(TEST_FILE);
+        if (test != null) {
+            openSeries(test);
         }
     }
     
+    /**
+     * Sets the series of the application: it is shown and a new simulator is
+     * associated to it.
+     * 
+     * @param series the time series.
+     */
+    private void openSeries(TimeSeries series) {
+        if (this.series instanceof PagedTimeSeries && this.series != series) {
+            try {
+                ((PagedTimeSeries) this.series).close();
+            } catch (IOException ex) {
+                Logger.getLogger(EPCFrame.class.getName()).log(Level.WARNING, "Series file not closed", ex);
+            }
+        }
+        this.series = series;
+        showSeries(series);
+        series.getRollups().setLimits(GlobalSettings.getHighA(), GlobalSettings.getHighD());
+        overview.repaint();
+        // Creamos simulador asociado
+        simulator = new Simulator(series, GlobalSettings.getSimulatorConfig());
+        simulator.setMetrics(metrics);
+        simulator.addTimeListener(new TimeHandler());
+        // Activamos botones del interfaz
+        this.botonPlay.setEnabled(true);
+        this.botonPause.setEnabled(false);
+        this.botonRefresh.setEnabled(false);
+    }
+    
+    /**
+     * Shows a series (alone) in the series panel and the overview, at the
+     * time 0.
+     * 
+     * @param series the time series.
+     */
+    private void showSeries(TimeSeries series) {
+        timeSeriePanel.clear();
+        timeSeriePanel.setTimeScale(MAX_TIME_SCALE);
+        timeSeriePanel.addTimeSeries(series, 0, GlobalSettings.getYAxisPosition(), 1, GlobalSettings.getZoom());
+        timeSeriePanel.setLimitLines(GlobalSettings.getHighA(), GlobalSettings.getHighB(),
+                GlobalSettings.getHighC(), GlobalSettings.getHighD());
+        // Actualizamos deslizador
+        deslizador_time.setMinimum(0);
+        deslizador_time.setMaximum(Math.max(series.size() - 1, 0));
+        deslizador_time.setValue(0);
+        overview.setTimeSeries(series);
+        updateOverviewExtent();
+        timeSeriePanel.repaint();
+    }
+    
     /**
      * For testing: random time series.
      * 
@@ -106,40 +237,40 @@ public class EPCFrame extends javax.swing.JFrame {
     
     /**
      * Reads a time series from a file. The file must be a CSV format file with 
-     * a 'voltage' field, a header line and ';' as line separator.
+     * a 'datetime' and a 'voltage' fields, a header line and ';' as line 
+     * separator. The series is resampled onto a regular grid (one point per 
+     * minute), so gaps and duplicates in the file do not skew the simulation.
      * 
      * @param file the file where the time series is stored.
      * @return a time series with the data stored in the file.
      */
     private TimeSeries readSeries(String file) {
-        TimeSeries series = new TimeSeries();
-        CSVReader reader = null;
+        TimeSeries series;
         try {
-            char SEPARATOR = ';';
-            int VOLTAGE_INDEX = 1;
-            FileReader fr = new FileReader(file);
-            CSVParser parser = new CSVParserBuilder().withSeparator(SEPARATOR).build();
-            reader = new CSVReaderBuilder(fr).withCSVParser(parser).withSkipLines(1).build();
-            String[] nextLine = null;
-            int t = 0;
-            Point2D p;
-            while ((nextLine = reader.readNext()) != null) {
-                p = new Point2D.Float(t++, Float.valueOf(nextLine[VOLTAGE_INDEX]));
-                series.add(p);
-            }
+            series = new TimeSeriesReader(TimeUnit.MINUTES, true).read(file);
         } catch (Exception e) {
             series = null;
-        } finally {
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (IOException ex) {
-                }
-            }
         }
         return series;
     }
     
+    /**
+     * Returns the text shown for the given time: the time itself and, if it
+     * is in the series, the associated date-time.
+     * 
+     * @param time the time (position in the series).
+     * @return the text of the time label.
+     */
+    private String timeLabel(int time) {
+        TimeSeries shown = overview.getTimeSeries();
+        if (shown == null || time < 0 || time >= shown.size()) {
+            return String.valueOf(time);
+        }
+        LocalDateTime datetime = LocalDateTime.ofEpochSecond(
+                Math.floorDiv(shown.getTimestamp(time), 1000L), 0, ZoneOffset.UTC);
+        return time + "  " + datetime.format(TIME_LABEL_FORMAT);
+    }
+    
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
@@ -397,42 +528,44 @@ public class EPCFrame extends javax.swing.JFrame {
         PreferencesDialog dlg = new PreferencesDialog(this);
         int resp = dlg.showDialog();
         if (resp == PreferencesDialog.APPROVE_OPTION) {
-            this.simulator.setVoltageMargins(GlobalSettings.getHighA(), GlobalSettings.getHighB(),
-                    GlobalSettings.getHighC(), GlobalSettings.getHighD());
+            this.simulator.setConfig(GlobalSettings.getSimulatorConfig());
             this.timeSeriePanel.setLimitLines(GlobalSettings.getHighA(), GlobalSettings.getHighB(),
                     GlobalSettings.getHighC(), GlobalSettings.getHighD());
+            this.series.getRollups().setLimits(GlobalSettings.getHighA(), GlobalSettings.getHighD());
+            this.overview.repaint();
         }
     }//GEN-LAST:event_botonPreferenciasActionPerformed
 
     private void botonAbrirActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_botonAbrirActionPerformed
+        if (loader != null) {
+            // The button cancels the opening in progress
+            loader.cancel(true);
+            return;
+        }
         JFileChooser dlg = new JFileChooser();        
         int resp = dlg.showOpenDialog(this);
         if (resp == JFileChooser.APPROVE_OPTION) {
-            try {
-                File file = dlg.getSelectedFile();                
-                // Leemos CSV
-                series = readSeries(file.getAbsolutePath());
-                // Actualizamos panle de series
-                timeSeriePanel.clear();
-                this.timeSeriePanel.setTimeScale(10);
-                this.timeSeriePanel.addTimeSeries(series, 0, GlobalSettings.getYAxisPosition(), 1, GlobalSettings.getZoom());
-                timeSeriePanel.setLimitLines(GlobalSettings.getHighA(), GlobalSettings.getHighB(),
-                        GlobalSettings.getHighC(), GlobalSettings.getHighD());
-                // Actualizamos deslizador
-                this.deslizador_time.setMinimum(0);
-                this.deslizador_time.setMaximum(series.size() - 1);
-                this.deslizador_time.setValue(0);
-                // Creamos simulador asociado
-                simulator = new Simulator(series, GlobalSettings.getHighA(),
-                        GlobalSettings.getHighB(), GlobalSettings.getHighC(), GlobalSettings.getHighD());
-                simulator.addTimeListener(new TimeHandler());
-                // Activamos botones del interfaz
-                this.botonPlay.setEnabled(true);
-                this.botonPause.setEnabled(false);
-                this.botonRefresh.setEnabled(false);
-            } catch (Exception ex) {
-                JOptionPane.showInternalMessageDialog(this, "Error in time series opening", "Time series", JOptionPane.INFORMATION_MESSAGE);
+            File file = dlg.getSelectedFile();
+            // A paused simulation is discarded (its series are removed from the panel)
+            if (simulator != null && simulator.isRunning()) {
+                simulator.resetSimulation();
             }
+            this.botonPlay.setEnabled(false);
+            this.botonPause.setEnabled(false);
+            this.botonRefresh.setEnabled(false);
+            this.botonAbrir.setToolTipText("Cancel the opening of " + file.getName());
+            progressOpen.setValue(0);
+            progressOpen.setString(file.getName());
+            progressOpen.setVisible(true);
+            barraEstado.revalidate();
+            loader = new SeriesLoader(file);
+            loader.addPropertyChangeListener(e -> {
+                if ("progress".equals(e.getPropertyName())) {
+                    progressOpen.setValue((Integer) e.getNewValue());
+                }
+            });
+            showSeries(loader.preview);
+            loader.execute();
         }
     }//GEN-LAST:event_botonAbrirActionPerformed
 
@@ -467,7 +600,7 @@ public class EPCFrame extends javax.swing.JFrame {
 
     private void deslizador_timeStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_deslizador_timeStateChanged
         timeSeriePanel.setCurrentTime(deslizador_time.getValue());
-        labelTime.setText((String.valueOf(deslizador_time.getValue())));
+        labelTime.setText(timeLabel(deslizador_time.getValue()));
         timeSeriePanel.repaint();
     }//GEN-LAST:event_deslizador_timeStateChanged
 
@@ -565,6 +698,127 @@ public class EPCFrame extends javax.swing.JFrame {
         }
     }//GEN-LAST:event_botonRefreshActionPerformed
     
+    /**
+     * Task that reads a time series file in background. The points are
+     * shown, chunk by chunk, in a preview series as they are read, and the
+     * read series is opened once the whole file has been read. The task is
+     * cancelled by interrupting the reading.
+     */
+    private class SeriesLoader extends SwingWorker<TimeSeries, SeriesLoader.Chunk> {
+        /**
+         * File being read.
+         */
+        private final File file;
+        /**
+         * Series shown while the file is read (only used in the Event
+         * Dispatch Thread).
+         */
+        private final TimeSeries preview = new TimeSeries();
+
+        /**
+         * Creates a task that reads the given file.
+         * 
+         * @param file the file.
+         */
+        SeriesLoader(File file) {
+            this.file = file;
+        }
+
+        @Override
+        protected TimeSeries doInBackground() throws IOException {
+            if (file.getName().endsWith(TimeSeriesCatalogue.SPILL_EXTENSION)) {
+                // The series files are paged from the disk
+                return new PagedTimeSeries(file);
+            }
+            TimeSeriesReader reader = new TimeSeriesReader(TimeUnit.MINUTES, true);
+            reader.setParallelism(Runtime.getRuntime().availableProcessors());
+            reader.setProgressListener((partial, from, to, bytesRead, totalBytes) -> {
+                if (to > from) {
+                    Chunk chunk = new Chunk(to - from);
+                    for (int i = from; i < to; i++) {
+                        chunk.timestamps[i - from] = partial.getTimestamp(i);
+                        chunk.values[i - from] = partial.getValue(i);
+                    }
+                    publish(chunk);
+                }
+                if (totalBytes > 0 && bytesRead >= 0) {
+                    setProgress((int) Math.min(100, 100 * bytesRead / totalBytes));
+                }
+            });
+            return reader.read(file.getAbsolutePath());
+        }
+
+        @Override
+        protected void process(List<Chunk> chunks) {
+            if (isCancelled()) {
+                return;
+            }
+            for (Chunk chunk : chunks) {
+                for (int i = 0; i < chunk.values.length; i++) {
+                    preview.addSample(chunk.timestamps[i], chunk.values[i]);
+                }
+            }
+            deslizador_time.setMaximum(Math.max(preview.size() - 1, 0));
+            overview.repaint();
+            timeSeriePanel.repaint();
+        }
+
+        @Override
+        protected void done() {
+            loader = null;
+            botonAbrir.setToolTipText("Open");
+            progressOpen.setVisible(false);
+            barraEstado.revalidate();
+            try {
+                openSeries(get());
+            } catch (CancellationException ex) {
+                restoreSeries();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                restoreSeries();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                restoreSeries();
+                JOptionPane.showMessageDialog(EPCFrame.this, "Error opening " + file.getName() + ":\n"
+                        + cause.getMessage(), "Time series", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+        
+        /**
+         * Points read since the previous chunk, copied from the series being
+         * built.
+         */
+        private class Chunk {
+            /**
+             * Timestamps of the points.
+             */
+            final long timestamps[];
+            /**
+             * Values of the points.
+             */
+            final double values[];
+
+            Chunk(int size) {
+                timestamps = new long[size];
+                values = new double[size];
+            }
+        }
+        
+        /**
+         * Shows again the series opened before this task.
+         */
+        private void restoreSeries() {
+            if (series != null) {
+                showSeries(series);
+                botonPlay.setEnabled(true);
+            } else {
+                timeSeriePanel.clear();
+                overview.setTimeSeries(null);
+                timeSeriePanel.repaint();
+            }
+        }
+    }
+    
     /**
      *
      */
@@ -581,7 +835,7 @@ public class EPCFrame extends javax.swing.JFrame {
             //timeSeriePanel.repaint(); //No necesario, llamado implícitamente 
                                         //al cambiar el valor del deslizador   
             //Actaulizamos deslizador y etiqueta
-            labelTime.setText((String.valueOf(evt.getTime())));
+            labelTime.setText(timeLabel((int)evt.getTime()));
             deslizador_time.setValue((int)evt.getTime());              
         }
 
@@ -16,9 +16,24 @@ import javax.swing.UIManager;
 public class EnergyPeakControl {
 
     /**
+     * Starts the application. Without arguments, the graphical interface is
+     * shown; otherwise, the arguments are passed to the command-line runner
+     * (see {@link CommandLineRunner}), so no Swing class is loaded.
+     * 
      * @param args the command line arguments
      */
     public static void main(String args[]) {
+        if (args.length > 0) {
+            CommandLineRunner.main(args);
+        } else {
+            startGUI();
+        }
+    }
+    
+    /**
+     * Shows the main frame of the application.
+     */
+    private static void startGUI() {
         //<editor-fold defaultstate="collapsed" desc=" Look and feel setting code (optional) ">       
         //setNimbusLF();
         //</editor-fold>        
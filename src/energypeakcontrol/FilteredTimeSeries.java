@@ -0,0 +1,176 @@
+package energypeakcontrol;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Class representing a read-only view of a time series whose values are
+ * filtered by a {@link SpikeFilter}. The view keeps the times and timestamps
+ * of the original series; its values are those of the original series except
+ * for the outliers, which are replaced by the filter.
+ * <p>
+ * The values are filtered on demand, in the order of the series, as the
+ * points are accessed (so a simulation filters each point once, just before
+ * it is processed). Only the outliers are stored: a bit per point flags them
+ * and their replacements are kept in arrays sorted by index. The view may be
+ * read from several threads (the accessors are synchronized) and follows the
+ * original series if it grows.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class FilteredTimeSeries extends BackedTimeSeries {
+    /**
+     * Serial version of the class.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Original time series.
+     */
+    private final TimeSeries parent;
+    /**
+     * Filter of the values (owned by this view).
+     */
+    private final SpikeFilter filter;
+    /**
+     * Number of points already filtered.
+     */
+    private int filtered = 0;
+    /**
+     * Flags of the outliers.
+     */
+    private final BitSet outliers = new BitSet();
+    /**
+     * Indexes of the outliers, in increasing order.
+     */
+    private int outlierIndexes[] = new int[16];
+    /**
+     * Replacements of the outliers.
+     */
+    private double outlierValues[] = new double[16];
+    /**
+     * Number of outliers.
+     */
+    private int outlierCount = 0;
+
+    /**
+     * Constructs a filtered view of a time series. The filter is reset and
+     * used only by this view.
+     *
+     * @param parent the original time series.
+     * @param filter the filter of the values.
+     */
+    public FilteredTimeSeries(TimeSeries parent, SpikeFilter filter) {
+        this.parent = parent;
+        this.filter = filter;
+        filter.reset();
+        setTimeUnit(parent.getTimeUnit());
+        setStartTime(parent.getStartTime());
+        setEpoch(parent.getEpoch());
+    }
+
+    /**
+     * Returns the original time series.
+     *
+     * @return the original time series.
+     */
+    public TimeSeries getParent() {
+        return parent;
+    }
+
+    /**
+     * Returns the filter of the values.
+     *
+     * @return the filter.
+     */
+    public SpikeFilter getFilter() {
+        return filter;
+    }
+
+    @Override
+    public int size() {
+        return parent.size();
+    }
+
+    @Override
+    public double getTime(int index) {
+        return parent.getTime(index);
+    }
+
+    @Override
+    public synchronized double getValue(int index) {
+        if (index >= filtered) {
+            filterUpTo(index);
+        }
+        if (outliers.get(index)) {
+            return outlierValues[Arrays.binarySearch(outlierIndexes, 0, outlierCount, index)];
+        }
+        return parent.getValue(index);
+    }
+
+    @Override
+    public boolean isRegular() {
+        return parent.isRegular();
+    }
+
+    @Override
+    public long getTimestamp(int index) {
+        return parent.getTimestamp(index);
+    }
+
+    /**
+     * Returns <tt>true</tt> if the value of a point has been replaced by the
+     * filter.
+     *
+     * @param index the index of the point.
+     * @return <tt>true</tt> if the point is an outlier.
+     */
+    public synchronized boolean isOutlier(int index) {
+        if (index >= filtered) {
+            filterUpTo(index);
+        }
+        return outliers.get(index);
+    }
+
+    /**
+     * Returns the number of points filtered so far.
+     *
+     * @return the number of filtered points.
+     */
+    public synchronized int getFilteredCount() {
+        return filtered;
+    }
+
+    /**
+     * Returns the number of outliers among the points filtered so far.
+     *
+     * @return the number of outliers.
+     */
+    public synchronized int getOutlierCount() {
+        return outlierCount;
+    }
+
+    /**
+     * Filters the points up to the given one. Must be called holding the lock
+     * of the series.
+     *
+     * @param index the index of the last point to be filtered.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    private void filterUpTo(int index) {
+        checkIndex(index);
+        for (int i = filtered; i <= index; i++) {
+            double value = filter.filter(parent.getValue(i));
+            if (filter.isOutlier()) {
+                if (outlierCount == outlierIndexes.length) {
+                    outlierIndexes = Arrays.copyOf(outlierIndexes, outlierCount * 2);
+                    outlierValues = Arrays.copyOf(outlierValues, outlierCount * 2);
+                }
+                outlierIndexes[outlierCount] = i;
+                outlierValues[outlierCount] = value;
+                outlierCount++;
+                outliers.set(i);
+            }
+        }
+        filtered = index + 1;
+    }
+}
@@ -0,0 +1,581 @@
+package energypeakcontrol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.InvalidParameterException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class that spreads the simulation of many input files across worker
+ * processes (see {@link FleetWorker}) on the same machine, so the throughput
+ * scales with the number of processes.
+ * <p>
+ * The workers are launched as JVMs with the same class path as this one and
+ * connect back to the coordinator through a loopback socket. The files are
+ * partitioned by meter id (the file name without extension, for example
+ * <code>cnt_501</code>), so each meter is processed by the same worker; a
+ * worker that runs out of files takes them from the longest queue of the
+ * others. The summary line of each file is streamed back as soon as it is
+ * completed, while the result files are written by the workers in the output
+ * directory.
+ * <p>
+ * If a worker is lost (its process ends or its connection is closed), its
+ * files are partitioned again among the remaining workers. A file being
+ * processed when its worker is lost is retried up to {@link #MAX_ATTEMPTS}
+ * times.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class FleetCoordinator {
+    /**
+     * Maximum number of times a file is sent to a worker.
+     */
+    public static final int MAX_ATTEMPTS = 2;
+    /**
+     * Message posted when a worker is lost.
+     */
+    private static final byte LOST = 0;
+    /**
+     * Time (in seconds) the workers are given to end once stopped.
+     */
+    private static final long STOP_TIMEOUT = 10;
+    /**
+     * Options passed on to the workers.
+     */
+    private final List<String> options;
+    /**
+     * Workers of the fleet.
+     */
+    private final WorkerLink[] workers;
+    /**
+     * Token that identifies the workers launched by this coordinator.
+     */
+    private final String token = Long.toHexString(new SecureRandom().nextLong());
+    /**
+     * Messages from the workers, handled by the thread that runs the fleet.
+     */
+    private final BlockingQueue<Message> inbox = new LinkedBlockingQueue<>();
+    /**
+     * Number of files neither completed nor failed.
+     */
+    private int pending;
+    /**
+     * Number of failed files.
+     */
+    private int failed;
+    /**
+     * Number of workers not lost.
+     */
+    private int alive;
+
+    /**
+     * Constructs a coordinator.
+     *
+     * @param workers the number of worker processes.
+     * @param options the command line options of the workers (see
+     * {@link CommandLineRunner}).
+     */
+    public FleetCoordinator(int workers, List<String> options) {
+        if (workers < 1) {
+            throw new InvalidParameterException("At least one worker is needed.");
+        }
+        this.options = new ArrayList<>(options);
+        this.workers = new WorkerLink[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = new WorkerLink(i);
+        }
+    }
+
+    /**
+     * Processes the given files in the worker processes. The results and
+     * failures are notified in the calling thread as they are received.
+     *
+     * @param files the input files (a file given more than once, even with
+     * different paths, is processed once).
+     * @param results the consumer of the summary lines of the completed
+     * files.
+     * @param failures the consumer of the failed files and their error
+     * messages.
+     * @return the number of failed files.
+     * @throws IOException if the coordinator socket can not be opened or the
+     * processing is interrupted.
+     */
+    public synchronized int run(List<File> files, Consumer<String> results, BiConsumer<File, String> failures)
+            throws IOException {
+        failed = 0;
+        alive = workers.length;
+        //The running tasks of a worker are keyed by path, so the files are
+        //deduplicated (otherwise a result would be lost and never counted)
+        Map<String, Task> tasks = new LinkedHashMap<>();
+        for (File f : files) {
+            Task task = new Task(f);
+            tasks.putIfAbsent(task.path, task);
+        }
+        pending = tasks.size();
+        for (Task task : tasks.values()) {
+            workers[partition(task.file, workers.length)].queue.add(task);
+        }
+        try (ServerSocket server = new ServerSocket(0, workers.length, InetAddress.getLoopbackAddress())) {
+            startAcceptor(server);
+            for (WorkerLink w : workers) {
+                launch(w, server);
+            }
+            while (pending > 0) {
+                if (alive == 0) {
+                    for (WorkerLink w : workers) {
+                        failAll(w.queue, "no worker available", failures);
+                    }
+                    break;
+                }
+                handle(inbox.take(), results, failures);
+                dispatch();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Fleet processing interrupted");
+        } finally {
+            stop();
+        }
+        return failed;
+    }
+
+    /**
+     * Returns the meter id of an input file: its name without extension.
+     *
+     * @param file the input file.
+     * @return the meter id.
+     */
+    public static String meterId(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Returns the partition of an input file.
+     *
+     * @param file the input file.
+     * @param partitions the number of partitions.
+     * @return the partition (from 0 to <code>partitions-1</code>).
+     */
+    static int partition(File file, int partitions) {
+        return Math.floorMod(meterId(file).hashCode(), partitions);
+    }
+
+    /**
+     * Launches the process of a worker.
+     *
+     * @param worker the worker.
+     * @param server the socket where the worker connects.
+     * @throws IOException if the process can not be launched.
+     */
+    private void launch(WorkerLink worker, ServerSocket server) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(FleetWorker.class.getName());
+        command.add(server.getInetAddress().getHostAddress());
+        command.add(Integer.toString(server.getLocalPort()));
+        command.add(Integer.toString(worker.id));
+        command.add(token);
+        command.addAll(options);
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        worker.process = process;
+        Thread watcher = new Thread(() -> {
+            try {
+                process.waitFor();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            inbox.add(new Message(worker.id, LOST, null, "process ended with status " + process.exitValue()));
+        }, "fleet-watcher-" + worker.id);
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Starts the thread that accepts the connections of the workers.
+     *
+     * @param server the socket where the workers connect.
+     */
+    private void startAcceptor(ServerSocket server) {
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = server.accept();
+                    Thread reader = new Thread(() -> read(socket), "fleet-reader");
+                    reader.setDaemon(true);
+                    reader.start();
+                }
+            } catch (IOException ex) {
+                //The coordinator socket has been closed
+            }
+        }, "fleet-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Reads the messages of a worker and posts them to the inbox.
+     *
+     * @param socket the connection with the worker.
+     */
+    private void read(Socket socket) {
+        int id = -1;
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            if (in.readByte() != FleetWorker.HELLO) {
+                throw new IOException("Handshake expected");
+            }
+            int worker = in.readInt();
+            if (!in.readUTF().equals(token) || worker < 0 || worker >= workers.length) {
+                throw new IOException("Unknown worker");
+            }
+            id = worker;
+            Message hello = new Message(id, FleetWorker.HELLO, null, null);
+            hello.slots = in.readInt();
+            hello.socket = socket;
+            inbox.add(hello);
+            while (true) {
+                byte type = in.readByte();
+                inbox.add(new Message(id, type, in.readUTF(), in.readUTF()));
+            }
+        } catch (IOException ex) {
+            if (id >= 0) {
+                inbox.add(new Message(id, LOST, null, "connection lost"));
+            } else {
+                close(socket);
+            }
+        }
+    }
+
+    /**
+     * Handles a message of a worker.
+     *
+     * @param m the message.
+     * @param results the consumer of the summary lines.
+     * @param failures the consumer of the failed files.
+     */
+    private void handle(Message m, Consumer<String> results, BiConsumer<File, String> failures) {
+        WorkerLink w = workers[m.worker];
+        if (w.lost) {
+            if (m.socket != null) {
+                close(m.socket);
+            }
+            return;
+        }
+        Task task;
+        switch (m.type) {
+            case FleetWorker.HELLO:
+                try {
+                    w.socket = m.socket;
+                    w.out = new DataOutputStream(new BufferedOutputStream(m.socket.getOutputStream()));
+                    w.slots = Math.max(1, m.slots);
+                } catch (IOException ex) {
+                    lose(w, "connection lost", failures);
+                }
+                break;
+            case FleetWorker.RESULT:
+                task = w.running.remove(m.path);
+                if (task != null) {
+                    pending--;
+                    results.accept(m.text);
+                }
+                break;
+            case FleetWorker.FAILED:
+                task = w.running.remove(m.path);
+                if (task != null) {
+                    fail(task, m.text, failures);
+                }
+                break;
+            case LOST:
+                lose(w, m.text, failures);
+                break;
+            default:
+                lose(w, "unknown message " + m.type, failures);
+        }
+    }
+
+    /**
+     * Sends files to the connected workers until all of them are busy or no
+     * file is left.
+     */
+    private void dispatch() {
+        for (WorkerLink w : workers) {
+            while (!w.lost && w.out != null && w.running.size() < w.slots) {
+                Task task = w.queue.poll();
+                if (task == null) {
+                    task = steal();
+                    if (task == null) {
+                        return;
+                    }
+                }
+                task.attempts++;
+                w.running.put(task.path, task);
+                try {
+                    w.out.writeByte(FleetWorker.RUN);
+                    w.out.writeUTF(task.path);
+                    w.out.flush();
+                } catch (IOException ex) {
+                    //The reader of the worker posts its loss
+                    close(w.socket);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes a file from the end of the longest queue.
+     *
+     * @return the file, or null if all the queues are empty.
+     */
+    private Task steal() {
+        WorkerLink longest = null;
+        for (WorkerLink w : workers) {
+            if (!w.queue.isEmpty() && (longest == null || w.queue.size() > longest.queue.size())) {
+                longest = w;
+            }
+        }
+        return longest != null ? longest.queue.pollLast() : null;
+    }
+
+    /**
+     * Discards a lost worker and partitions its files among the remaining
+     * ones.
+     *
+     * @param w the lost worker.
+     * @param reason the reason of the loss.
+     * @param failures the consumer of the failed files.
+     */
+    private void lose(WorkerLink w, String reason, BiConsumer<File, String> failures) {
+        w.lost = true;
+        alive--;
+        if (w.socket != null) {
+            close(w.socket);
+        }
+        Logger.getLogger(FleetCoordinator.class.getName()).warning("Worker " + w.id + " lost: " + reason
+                + " (" + w.running.size() + " running, " + w.queue.size() + " queued files)");
+        List<WorkerLink> remaining = new ArrayList<>();
+        for (WorkerLink r : workers) {
+            if (!r.lost) {
+                remaining.add(r);
+            }
+        }
+        Deque<Task> orphans = new ArrayDeque<>(w.running.values());
+        orphans.addAll(w.queue);
+        w.running.clear();
+        w.queue.clear();
+        if (remaining.isEmpty()) {
+            failAll(orphans, "no worker available", failures);
+            return;
+        }
+        for (Task task : orphans) {
+            if (task.attempts >= MAX_ATTEMPTS) {
+                fail(task, "worker lost " + task.attempts + " times while processing the file", failures);
+            } else {
+                remaining.get(partition(task.file, remaining.size())).queue.add(task);
+            }
+        }
+    }
+
+    /**
+     * Marks a file as failed.
+     *
+     * @param task the failed file.
+     * @param message the error message.
+     * @param failures the consumer of the failed files.
+     */
+    private void fail(Task task, String message, BiConsumer<File, String> failures) {
+        pending--;
+        failed++;
+        failures.accept(task.file, message);
+    }
+
+    /**
+     * Marks all the files of a queue as failed.
+     *
+     * @param tasks the failed files.
+     * @param message the error message.
+     * @param failures the consumer of the failed files.
+     */
+    private void failAll(Deque<Task> tasks, String message, BiConsumer<File, String> failures) {
+        for (Task task : tasks) {
+            fail(task, message, failures);
+        }
+        tasks.clear();
+    }
+
+    /**
+     * Stops the workers and waits for their processes to end (they are
+     * destroyed if they do not end in {@link #STOP_TIMEOUT} seconds).
+     */
+    private void stop() {
+        for (WorkerLink w : workers) {
+            if (!w.lost && w.out != null) {
+                try {
+                    w.out.writeByte(FleetWorker.STOP);
+                    w.out.flush();
+                } catch (IOException ex) {
+                    Logger.getLogger(FleetCoordinator.class.getName()).log(Level.FINE, "Worker not stopped", ex);
+                }
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STOP_TIMEOUT);
+        for (WorkerLink w : workers) {
+            if (w.process == null) {
+                continue;
+            }
+            try {
+                long wait = deadline - System.nanoTime();
+                if (wait <= 0 || !w.process.waitFor(wait, TimeUnit.NANOSECONDS)) {
+                    w.process.destroyForcibly();
+                }
+            } catch (InterruptedException ex) {
+                w.process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+            if (w.socket != null) {
+                close(w.socket);
+            }
+        }
+    }
+
+    /**
+     * Closes a socket, ignoring the errors.
+     *
+     * @param socket the socket.
+     */
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+        }
+    }
+
+    /**
+     * File to be processed by the fleet.
+     */
+    private static final class Task {
+        /**
+         * Input file.
+         */
+        private final File file;
+        /**
+         * Absolute and normalized path of the file (as sent to the workers).
+         */
+        private final String path;
+        /**
+         * Number of times the file has been sent to a worker.
+         */
+        private int attempts = 0;
+
+        Task(File file) {
+            this.file = file;
+            this.path = file.getAbsoluteFile().toPath().normalize().toString();
+        }
+    }
+
+    /**
+     * State of a worker, only accessed by the thread that runs the fleet.
+     */
+    private static final class WorkerLink {
+        /**
+         * Id of the worker (its partition).
+         */
+        private final int id;
+        /**
+         * Process of the worker.
+         */
+        private Process process;
+        /**
+         * Connection with the worker (null until it connects).
+         */
+        private Socket socket;
+        /**
+         * Stream to the worker (null until it connects).
+         */
+        private DataOutputStream out;
+        /**
+         * Number of files the worker processes at once.
+         */
+        private int slots = 1;
+        /**
+         * Files of the partition of the worker not yet sent.
+         */
+        private final Deque<Task> queue = new ArrayDeque<>();
+        /**
+         * Files being processed by the worker, by path.
+         */
+        private final Map<String, Task> running = new HashMap<>();
+        /**
+         * Flag that indicates whether the worker has been lost.
+         */
+        private boolean lost = false;
+
+        WorkerLink(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Message of a worker.
+     */
+    private static final class Message {
+        /**
+         * Id of the worker.
+         */
+        private final int worker;
+        /**
+         * Type of the message.
+         */
+        private final byte type;
+        /**
+         * Path of the file (RESULT and FAILED messages).
+         */
+        private final String path;
+        /**
+         * Summary line, error message or reason of the loss.
+         */
+        private final String text;
+        /**
+         * Number of files the worker processes at once (HELLO message).
+         */
+        private int slots;
+        /**
+         * Connection with the worker (HELLO message).
+         */
+        private Socket socket;
+
+        Message(int worker, byte type, String path, String text) {
+            this.worker = worker;
+            this.type = type;
+            this.path = path;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package energypeakcontrol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import metrics.MetricsReporter;
+
+/**
+ * Worker process of a fleet (see {@link FleetCoordinator}). It connects to
+ * the coordinator through a local socket, simulates the files it is sent
+ * (as many at once as the <code>--threads</code> option) and streams back
+ * the summary line of each one as soon as it is completed. The worker ends
+ * when the coordinator stops it or the connection is lost.
+ * <p>
+ * Usage: <code>FleetWorker host port id token [options]</code>, where the
+ * options are those of the {@link CommandLineRunner}.
+ * <p>
+ * The messages are framed with <code>DataOutputStream</code>: a type byte
+ * followed by its fields.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class FleetWorker {
+    /**
+     * Message sent by a worker once connected: id, token and number of
+     * files it processes at once.
+     */
+    static final byte HELLO = 1;
+    /**
+     * Message sent by a worker when a file is completed: path and summary
+     * line.
+     */
+    static final byte RESULT = 2;
+    /**
+     * Message sent by a worker when a file fails: path and error message.
+     */
+    static final byte FAILED = 3;
+    /**
+     * Message sent to a worker with a file to be processed: path.
+     */
+    static final byte RUN = 4;
+    /**
+     * Message sent to a worker to end it.
+     */
+    static final byte STOP = 5;
+
+    /**
+     * Runs a worker process.
+     *
+     * @param args the host and port of the coordinator, the id and token of
+     * the worker and the command line options.
+     */
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Runs a worker with the given arguments.
+     *
+     * @param args the host and port of the coordinator, the id and token of
+     * the worker and the command line options.
+     * @return the exit status: 0 if the worker has been stopped by the
+     * coordinator, 1 if the connection has been lost and 2 if the arguments
+     * are not valid.
+     */
+    static int run(String[] args) {
+        Logger logger = Logger.getLogger(FleetWorker.class.getName());
+        CommandLineRunner runner = new CommandLineRunner();
+        int id;
+        try {
+            id = Integer.parseInt(args[2]);
+            runner.parseArguments(Arrays.copyOfRange(args, 4, args.length));
+        } catch (IOException | RuntimeException ex) {
+            logger.log(Level.SEVERE, "Invalid worker arguments", ex);
+            return 2;
+        }
+        File metricsFile = runner.getMetricsFile();
+        MetricsReporter reporter = runner.startMetrics("worker-" + id,
+                metricsFile != null ? new File(metricsFile.getPath() + ".worker-" + id) : null);
+        int slots = runner.getThreads();
+        ExecutorService executor = Executors.newFixedThreadPool(slots);
+        try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            synchronized (out) {
+                out.writeByte(HELLO);
+                out.writeInt(id);
+                out.writeUTF(args[3]);
+                out.writeInt(slots);
+                out.flush();
+            }
+            while (true) {
+                byte type = in.readByte();
+                if (type == STOP) {
+                    return 0;
+                } else if (type == RUN) {
+                    String path = in.readUTF();
+                    executor.execute(() -> process(runner, path, out));
+                } else {
+                    throw new IOException("Unknown message " + type);
+                }
+            }
+        } catch (EOFException ex) {
+            logger.warning("Worker " + id + ": coordinator lost");
+            return 1;
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Worker " + id + ": connection lost", ex);
+            return 1;
+        } finally {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            runner.stopMetrics(reporter);
+        }
+    }
+
+    /**
+     * Processes a file and sends its result to the coordinator.
+     *
+     * @param runner the runner that processes the file.
+     * @param path the path of the file.
+     * @param out the stream to the coordinator.
+     */
+    private static void process(CommandLineRunner runner, String path, DataOutputStream out) {
+        byte type;
+        String text;
+        try {
+            text = runner.runFile(new File(path));
+            type = RESULT;
+        } catch (IOException | RuntimeException ex) {
+            text = String.valueOf(ex.getMessage());
+            type = FAILED;
+        }
+        try {
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeUTF(path);
+                out.writeUTF(text);
+                out.flush();
+            }
+        } catch (IOException ex) {
+            //The coordinator is lost: the file will be processed by another worker
+            Logger.getLogger(FleetWorker.class.getName()).log(Level.FINE, "Result not sent", ex);
+        }
+    }
+}
@@ -8,10 +8,12 @@ public class GlobalSettings {
     static private double zoom = 1.0;
     static private int pause_time = 500; //in milliseconds
     static private int y_axis_position = 230;
-    static private float mfHighA = 220.0f;
-    static private float mfHighB = 225.0f;
-    static private float mfHighC = 235.0f;
-    static private float mfHighD = 240.0f;
+    /**
+     * Configuration used by the simulators created from the interface. It is
+     * immutable and replaced as a whole, so the limits are always read
+     * consistently from any thread.
+     */
+    static private volatile SimulatorConfig simulator_config = SimulatorConfig.DEFAULT;
     
     
     static public double getZoom(){
@@ -42,36 +44,54 @@ public class GlobalSettings {
         GlobalSettings.y_axis_position = position;
     }
 
-    public static float getHighA() {
-        return mfHighA;
+    /**
+     * Returns the configuration used by the simulators created from the
+     * interface.
+     * 
+     * @return the simulator configuration.
+     */
+    public static SimulatorConfig getSimulatorConfig() {
+        return simulator_config;
     }
 
-    public static void setHighA(float a) {
-        GlobalSettings.mfHighA = a;
+    /**
+     * Set the configuration used by the simulators created from the
+     * interface.
+     * 
+     * @param config the simulator configuration.
+     */
+    public static void setSimulatorConfig(SimulatorConfig config) {
+        if (config != null) {
+            GlobalSettings.simulator_config = config;
+        }
+    }
+
+    public static float getHighA() {
+        return (float) simulator_config.getLimits()[0];
     }
     
     public static float getHighB() {
-        return mfHighB;
-    }
-
-    public static void setHighB(float b) {
-        GlobalSettings.mfHighB = b;
+        return (float) simulator_config.getLimits()[1];
     }
     
     public static float getHighC() {
-        return mfHighC;
-    }
-
-    public static void setHighC(float c) {
-        GlobalSettings.mfHighC = c;
+        return (float) simulator_config.getLimits()[2];
     }
     
     public static float getHighD() {
-        return mfHighD;
+        return (float) simulator_config.getLimits()[3];
     }
 
-    public static void setHighD(float d) {
-        GlobalSettings.mfHighD = d;
+    /**
+     * Set the four desired voltage limits at once.
+     * 
+     * @param a the desired voltage upper limit.
+     * @param b the desired voltage upper-intermediate limit.
+     * @param c the desired voltage bellow-intermediate limit.
+     * @param d the desired voltage below limit.
+     */
+    public static synchronized void setLimits(float a, float b, float c, float d) {
+        GlobalSettings.simulator_config = simulator_config.withLimits(a, b, c, d);
     }
     
 }
@@ -0,0 +1,349 @@
+package energypeakcontrol;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class representing a read-only time series stored in a binary file that is
+ * mapped in memory, so its points are not kept in the Java heap: the
+ * operating system loads the pages of the file on demand and can reclaim
+ * them when the memory is needed.
+ * <p>
+ * The file has a header of {@link #HEADER_SIZE} bytes followed by the
+ * values of the points and, if needed, their times (when they are not the
+ * indexes of the points) and their timestamps (for irregular series). All
+ * the numbers are little-endian:
+ * <pre>
+ * int    magic number ("EPCS")
+ * int    version
+ * int    flags (1: times stored, 2: timestamps stored)
+ * int    ordinal of the time unit
+ * long   epoch (in milliseconds)
+ * int    start time
+ * int    number of points
+ * double values[n]
+ * double times[n]        (if stored)
+ * long   timestamps[n]   (if stored)
+ * </pre>
+ * The files are written with {@link #write(TimeSeries, File)}.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class MappedTimeSeries extends BackedTimeSeries {
+    /**
+     * Serial version of the class.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Size in bytes of the header of the files.
+     */
+    public static final int HEADER_SIZE = 64;
+    /**
+     * Maximum number of points of a series (each array of the file is mapped
+     * in a single buffer).
+     */
+    public static final int MAX_POINTS = Integer.MAX_VALUE / Long.BYTES;
+    /**
+     * Magic number of the files ("EPCS").
+     */
+    private static final int MAGIC = 0x45504353;
+    /**
+     * Version of the file format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Flag of the files that store the times of the points.
+     */
+    private static final int TIMES_FLAG = 1;
+    /**
+     * Flag of the files that store the timestamps of the points.
+     */
+    private static final int TIMESTAMPS_FLAG = 2;
+    /**
+     * File where the series is stored.
+     */
+    private final File file;
+    /**
+     * Number of points.
+     */
+    private final int size;
+    /**
+     * Values of the points.
+     */
+    private final DoubleBuffer values;
+    /**
+     * Times of the points (null if they are the indexes).
+     */
+    private final DoubleBuffer times;
+    /**
+     * Timestamps of the points (null for regular series).
+     */
+    private final LongBuffer timestamps;
+
+    /**
+     * Maps a series stored in a file.
+     *
+     * @param file the file where the series is stored.
+     * @throws IOException if an I/O error occurs or the file is not a valid
+     * series file.
+     */
+    public MappedTimeSeries(File file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Header header = Header.read(channel, file);
+            header.apply(this);
+            size = header.size;
+            long length = (long) size * Double.BYTES;
+            values = map(channel, header.valuesOffset(), length).asDoubleBuffer();
+            times = header.hasTimes() ? map(channel, header.timesOffset(), length).asDoubleBuffer() : null;
+            timestamps = header.hasTimestamps() ? map(channel, header.timestampsOffset(), length).asLongBuffer() : null;
+        }
+    }
+
+    /**
+     * Maps a region of a file.
+     *
+     * @param channel the channel of the file.
+     * @param position the start of the region.
+     * @param length the length of the region.
+     * @return the mapped region (little-endian).
+     * @throws IOException if an I/O error occurs.
+     */
+    private static ByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns the file where the series is stored.
+     *
+     * @return the file where the series is stored.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double getTime(int index) {
+        return times != null ? times.get(index) : index;
+    }
+
+    @Override
+    public double getValue(int index) {
+        return values.get(index);
+    }
+
+    @Override
+    public boolean isRegular() {
+        return timestamps == null;
+    }
+
+    @Override
+    public long getTimestamp(int index) {
+        return timestamps != null ? timestamps.get(index) : super.getTimestamp(index);
+    }
+
+    /**
+     * Writes a series in a file with the format of the mapped series. The
+     * file is first written with a temporary name and then renamed, so a
+     * partially written file is never found with the final name.
+     *
+     * @param series the time series.
+     * @param file the file.
+     * @throws IOException if an I/O error occurs or the series is too large.
+     */
+    public static void write(TimeSeries series, File file) throws IOException {
+        int n = series.size();
+        if (n > MAX_POINTS) {
+            throw new IOException("Too many points for a series file: " + n);
+        }
+        boolean storeTimes = false;
+        for (int i = 0; i < n && !storeTimes; i++) {
+            storeTimes = series.getTime(i) != i;
+        }
+        boolean storeTimestamps = !series.isRegular();
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp), 1 << 16)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION)
+                    .putInt((storeTimes ? TIMES_FLAG : 0) | (storeTimestamps ? TIMESTAMPS_FLAG : 0))
+                    .putInt(series.getTimeUnit().ordinal()).putLong(series.getEpoch())
+                    .putInt(series.getStartTime()).putInt(n);
+            buffer.position(HEADER_SIZE);
+            for (int i = 0; i < n; i++) {
+                buffer = flushIfFull(buffer, out).putDouble(series.getValue(i));
+            }
+            for (int i = 0; storeTimes && i < n; i++) {
+                buffer = flushIfFull(buffer, out).putDouble(series.getTime(i));
+            }
+            for (int i = 0; storeTimestamps && i < n; i++) {
+                buffer = flushIfFull(buffer, out).putLong(series.getTimestamp(i));
+            }
+            out.write(buffer.array(), 0, buffer.position());
+        } catch (IOException ex) {
+            Files.deleteIfExists(temp.toPath());
+            throw ex;
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes the content of a buffer if it has no room for a number.
+     *
+     * @param buffer the buffer.
+     * @param out the output stream.
+     * @return the buffer, ready to put a number.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static ByteBuffer flushIfFull(ByteBuffer buffer, OutputStream out) throws IOException {
+        if (buffer.remaining() < Long.BYTES) {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    /**
+     * Header of a series file.
+     */
+    static final class Header {
+        /**
+         * Flags of the file.
+         */
+        final int flags;
+        /**
+         * Time unit of the series.
+         */
+        final TimeUnit timeUnit;
+        /**
+         * Epoch of the series (in milliseconds).
+         */
+        final long epoch;
+        /**
+         * Start time of the series.
+         */
+        final int startTime;
+        /**
+         * Number of points.
+         */
+        final int size;
+
+        private Header(int flags, TimeUnit timeUnit, long epoch, int startTime, int size) {
+            this.flags = flags;
+            this.timeUnit = timeUnit;
+            this.epoch = epoch;
+            this.startTime = startTime;
+            this.size = size;
+        }
+
+        /**
+         * Reads and checks the header of a series file.
+         *
+         * @param channel the channel of the file.
+         * @param file the file (for the error messages).
+         * @return the header.
+         * @throws IOException if an I/O error occurs or the file is not a
+         * valid series file.
+         */
+        static Header read(FileChannel channel, File file) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) <= 0) {
+                    throw new IOException(file + ": truncated header");
+                }
+            }
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException(file + ": not a series file");
+            }
+            int unit = buffer.getInt(12);
+            int size = buffer.getInt(28);
+            if (unit < 0 || unit >= TimeUnit.values().length || size < 0 || size > MAX_POINTS) {
+                throw new IOException(file + ": invalid header");
+            }
+            Header header = new Header(buffer.getInt(8), TimeUnit.values()[unit], buffer.getLong(16),
+                    buffer.getInt(24), size);
+            long arrays = 1 + (header.hasTimes() ? 1 : 0) + (header.hasTimestamps() ? 1 : 0);
+            if (channel.size() < HEADER_SIZE + arrays * size * Double.BYTES) {
+                throw new IOException(file + ": truncated data");
+            }
+            return header;
+        }
+
+        /**
+         * Set the time unit, epoch and start time of a series.
+         *
+         * @param series the series.
+         */
+        void apply(TimeSeries series) {
+            series.setTimeUnit(timeUnit);
+            series.setEpoch(epoch);
+            series.setStartTime(startTime);
+        }
+
+        /**
+         * Returns <tt>true</tt> if the times of the points are stored.
+         *
+         * @return <tt>true</tt> if the times are stored.
+         */
+        boolean hasTimes() {
+            return (flags & TIMES_FLAG) != 0;
+        }
+
+        /**
+         * Returns <tt>true</tt> if the timestamps of the points are stored.
+         *
+         * @return <tt>true</tt> if the timestamps are stored.
+         */
+        boolean hasTimestamps() {
+            return (flags & TIMESTAMPS_FLAG) != 0;
+        }
+
+        /**
+         * Returns the offset of the values in the file.
+         *
+         * @return the offset of the values.
+         */
+        long valuesOffset() {
+            return HEADER_SIZE;
+        }
+
+        /**
+         * Returns the offset of the times in the file.
+         *
+         * @return the offset of the times.
+         */
+        long timesOffset() {
+            return valuesOffset() + (long) size * Double.BYTES;
+        }
+
+        /**
+         * Returns the offset of the timestamps in the file.
+         *
+         * @return the offset of the timestamps.
+         */
+        long timestampsOffset() {
+            return timesOffset() + (hasTimes() ? (long) size * Double.BYTES : 0);
+        }
+    }
+}
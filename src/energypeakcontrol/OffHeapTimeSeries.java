@@ -0,0 +1,274 @@
+package energypeakcontrol;
+
+import java.awt.geom.Point2D;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Class representing a time series whose points are stored out of the Java
+ * heap, in direct buffers, so the garbage collector does not have to trace
+ * or copy them: its cost does not grow with the history kept in memory.
+ * <p>
+ * The points are stored in chunks of {@link #CHUNK_POINTS} points, allocated
+ * as the series grows (a chunk is never copied). The values are always
+ * stored; the times only if some of them is not the index of its point, and
+ * the timestamps only if the series is irregular (see
+ * {@link #addSample(long, double)}). The accessors check the index, so an
+ * access out of the series throws an <code>IndexOutOfBoundsException</code>
+ * instead of reading the memory of another point.
+ * <p>
+ * The points are appended by one thread at a time and can be read, without
+ * locking, from any other thread: the size is published after the point has
+ * been written. The memory of the buffers is released when the series is
+ * garbage collected (clearing the series keeps the chunks of the values for
+ * the new points).
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class OffHeapTimeSeries extends BackedTimeSeries {
+    /**
+     * Serial version of the class.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Number of points per chunk.
+     */
+    public static final int CHUNK_POINTS = 1 << 16;
+    /**
+     * Shift of the index of a point to get its chunk.
+     */
+    private static final int CHUNK_SHIFT = 16;
+    /**
+     * Mask of the index of a point to get its position in the chunk.
+     */
+    private static final int CHUNK_MASK = CHUNK_POINTS - 1;
+    /**
+     * Chunks of the values.
+     */
+    private volatile ByteBuffer values[] = new ByteBuffer[0];
+    /**
+     * Chunks of the times (null while the times are the indexes).
+     */
+    private volatile ByteBuffer times[] = null;
+    /**
+     * Chunks of the timestamps (null for regular series).
+     */
+    private volatile ByteBuffer timestamps[] = null;
+    /**
+     * Number of points.
+     */
+    private volatile int size = 0;
+
+    /**
+     * Constructs an empty off-heap time series.
+     */
+    public OffHeapTimeSeries() {
+        super();
+    }
+
+    /**
+     * Constructs an off-heap time series containing the points of the
+     * specified collection, in the order they are returned by the
+     * collection's iterator. If the collection is a time series, its time
+     * unit, start time, epoch and timestamps are also copied.
+     *
+     * @param c the collection whose points are to be placed into this time
+     * series
+     * @throws NullPointerException if the specified collection is null
+     */
+    public OffHeapTimeSeries(Collection<? extends Point2D> c) {
+        this();
+        if (c instanceof TimeSeries) {
+            TimeSeries ts = (TimeSeries) c;
+            setTimeUnit(ts.getTimeUnit());
+            setStartTime(ts.getStartTime());
+            setEpoch(ts.getEpoch());
+            if (!ts.isRegular()) {
+                for (int i = 0; i < ts.size(); i++) {
+                    appendPoint(ts.getTime(i), ts.getValue(i), ts.getTimestamp(i));
+                }
+                modCount++;
+                pointAppended();
+                return;
+            }
+        }
+        addAll(c);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double getTime(int index) {
+        checkIndex(index);
+        ByteBuffer t[] = times;
+        return t == null ? index : t[index >>> CHUNK_SHIFT].getDouble((index & CHUNK_MASK) * Double.BYTES);
+    }
+
+    @Override
+    public double getValue(int index) {
+        checkIndex(index);
+        return values[index >>> CHUNK_SHIFT].getDouble((index & CHUNK_MASK) * Double.BYTES);
+    }
+
+    @Override
+    public boolean isRegular() {
+        return timestamps == null;
+    }
+
+    @Override
+    public long getTimestamp(int index) {
+        ByteBuffer t[] = timestamps;
+        if (t == null) {
+            return super.getTimestamp(index);
+        }
+        checkIndex(index);
+        return t[index >>> CHUNK_SHIFT].getLong((index & CHUNK_MASK) * Long.BYTES);
+    }
+
+    @Override
+    protected synchronized void append(double time, double value) {
+        appendPoint(time, value, Long.MIN_VALUE);
+    }
+
+    /**
+     * Appends a new sample with an explicit timestamp. The point is added
+     * with the index of the sample as time, and the timestamp is stored apart
+     * (out of the heap too), so the series becomes irregular.
+     *
+     * @param timestamp the timestamp of the sample (in epoch milliseconds).
+     * @param value the value of the sample.
+     */
+    @Override
+    public synchronized void addSample(long timestamp, double value) {
+        appendPoint(size, value, timestamp);
+        modCount++;
+        pointAppended();
+    }
+
+    /**
+     * Writes a point after the last one and publishes it. Must be called
+     * holding the lock of the series.
+     *
+     * @param time the time of the point.
+     * @param value the value of the point.
+     * @param timestamp the timestamp of the point (<code>Long.MIN_VALUE</code>
+     * if it is calculated from the epoch).
+     */
+    private void appendPoint(double time, double value, long timestamp) {
+        int n = size;
+        if (n == Integer.MAX_VALUE) {
+            throw new IllegalStateException("Time series full");
+        }
+        int chunk = n >>> CHUNK_SHIFT, position = n & CHUNK_MASK;
+        if (chunk == values.length) {
+            values = grow(values, Double.BYTES);
+            if (times != null) {
+                times = grow(times, Double.BYTES);
+            }
+            if (timestamps != null) {
+                timestamps = grow(timestamps, Long.BYTES);
+            }
+        }
+        if (times == null && time != n) {
+            times = newChunks(values.length, Double.BYTES);
+            for (int i = 0; i < n; i++) {
+                times[i >>> CHUNK_SHIFT].putDouble((i & CHUNK_MASK) * Double.BYTES, i);
+            }
+        }
+        if (timestamps == null && timestamp != Long.MIN_VALUE) {
+            timestamps = newChunks(values.length, Long.BYTES);
+            for (int i = 0; i < n; i++) {
+                timestamps[i >>> CHUNK_SHIFT].putLong((i & CHUNK_MASK) * Long.BYTES, regularTimestamp(getTime(i)));
+            }
+        }
+        values[chunk].putDouble(position * Double.BYTES, value);
+        if (times != null) {
+            times[chunk].putDouble(position * Double.BYTES, time);
+        }
+        if (timestamps != null) {
+            timestamps[chunk].putLong(position * Long.BYTES,
+                    timestamp != Long.MIN_VALUE ? timestamp : regularTimestamp(time));
+        }
+        size = n + 1;
+    }
+
+    /**
+     * Returns the timestamp of a time calculated from the epoch and the time
+     * unit (as in a regular series).
+     *
+     * @param time the time.
+     * @return the timestamp (in epoch milliseconds).
+     */
+    private long regularTimestamp(double time) {
+        return getEpoch() + (long) Math.floor(time * getTimeUnit().toNanos(1) / 1e6);
+    }
+
+    /**
+     * Returns a copy of an array of chunks with a new chunk at the end.
+     *
+     * @param chunks the array of chunks.
+     * @param bytes the bytes per point.
+     * @return the new array of chunks.
+     */
+    private static ByteBuffer[] grow(ByteBuffer chunks[], int bytes) {
+        ByteBuffer grown[] = Arrays.copyOf(chunks, chunks.length + 1);
+        grown[chunks.length] = newChunk(bytes);
+        return grown;
+    }
+
+    /**
+     * Returns an array of new chunks.
+     *
+     * @param count the number of chunks.
+     * @param bytes the bytes per point.
+     * @return the array of chunks.
+     */
+    private static ByteBuffer[] newChunks(int count, int bytes) {
+        ByteBuffer chunks[] = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            chunks[i] = newChunk(bytes);
+        }
+        return chunks;
+    }
+
+    /**
+     * Allocates a chunk out of the heap.
+     *
+     * @param bytes the bytes per point.
+     * @return the chunk.
+     */
+    private static ByteBuffer newChunk(int bytes) {
+        return ByteBuffer.allocateDirect(CHUNK_POINTS * bytes).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Removes all the points of this series. The chunks of the values are
+     * kept and reused by the points appended afterwards, so a thread that is
+     * reading the series meanwhile never indexes a removed chunk: the size is
+     * published first, and a reader gets either an old point or an
+     * <code>IndexOutOfBoundsException</code>.
+     */
+    @Override
+    public synchronized void clear() {
+        size = 0;
+        times = null;
+        timestamps = null;
+        modCount++;
+        pointsCleared();
+    }
+
+    /**
+     * Returns the memory allocated out of the heap, in bytes.
+     *
+     * @return the memory used by the chunks.
+     */
+    public long getMemoryUsage() {
+        long chunks = values.length + (times != null ? times.length : 0) + (timestamps != null ? timestamps.length : 0);
+        return chunks * CHUNK_POINTS * Double.BYTES;
+    }
+}
@@ -0,0 +1,278 @@
+package energypeakcontrol;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.Arrays;
+import javax.swing.BoundedRangeModel;
+import javax.swing.JPanel;
+
+/**
+ * Class representing a strip where a whole time series is shown, with the
+ * range shown in detail (for example, in a {@link TimeSeriesPanel})
+ * highlighted. Pressing or dragging the mouse on the strip moves the detail
+ * range there, so any part of a large history can be reached at once.
+ * <p>
+ * The strip is drawn from the precomputed aggregates of the series (see
+ * {@link Rollups}): the coarsest resolution with at least one bucket per
+ * pixel column is folded into the minimum and maximum of each column, and
+ * the columns with points outside the limits of the rollups are highlighted.
+ * The columns are recalculated only when the size of the strip or of the
+ * series changes, so the cost of a painting does not depend on the length
+ * of the series.
+ * <p>
+ * The current time is the value of a <code>BoundedRangeModel</code>, which
+ * is usually shared with the slider of the detail view.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class OverviewPanel extends JPanel {
+    /**
+     * Serial version of the class.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Color of the values inside the limits.
+     */
+    private static final Color VALUES_COLOR = Color.GRAY;
+    /**
+     * Color of the columns with values outside the limits.
+     */
+    private static final Color OUTSIDE_COLOR = Color.RED;
+    /**
+     * Color of the detail range.
+     */
+    private static final Color DETAIL_COLOR = new Color(0, 0, 255, 48);
+    /**
+     * Model whose value is the current time.
+     */
+    private final BoundedRangeModel model;
+    /**
+     * Time series shown in this panel (null if none).
+     */
+    private TimeSeries series = null;
+    /**
+     * Number of points shown in the detail view.
+     */
+    private int detailExtent = 0;
+    /**
+     * Top and bottom Y coordinates of each column (bottom smaller than top
+     * if the column is empty).
+     */
+    private int columnTop[] = new int[0], columnBottom[] = new int[0];
+    /**
+     * Flags that indicate whether each column has values outside the limits.
+     */
+    private boolean columnOutside[] = new boolean[0];
+    /**
+     * Size of the series, limits of the rollups and size of the panel when the
+     * columns were calculated.
+     */
+    private int columnsSeriesSize = -1, columnsWidth = -1, columnsHeight = -1;
+    /**
+     * Limits of the rollups when the columns were calculated.
+     */
+    private double columnsLow = Double.NaN, columnsHigh = Double.NaN;
+
+    /**
+     * Creates a new overview panel.
+     *
+     * @param model the model whose value is the current time.
+     */
+    public OverviewPanel(BoundedRangeModel model) {
+        this.model = model;
+        setPreferredSize(new Dimension(400, 50));
+        setBackground(Color.WHITE);
+        setToolTipText("Click or drag to move the detail view");
+        model.addChangeListener(evt -> repaint());
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent evt) {
+                moveTo(evt.getX());
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent evt) {
+                moveTo(evt.getX());
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+    }
+
+    /**
+     * Set the time series shown in this panel.
+     *
+     * @param series the time series (null for none).
+     */
+    public void setTimeSeries(TimeSeries series) {
+        this.series = series;
+        this.columnsSeriesSize = -1;
+        repaint();
+    }
+
+    /**
+     * Returns the time series shown in this panel.
+     *
+     * @return the time series (null if none).
+     */
+    public TimeSeries getTimeSeries() {
+        return series;
+    }
+
+    /**
+     * Set the number of points shown in the detail view, centered at the
+     * current time.
+     *
+     * @param extent the number of points shown in the detail view.
+     */
+    public void setDetailExtent(int extent) {
+        this.detailExtent = Math.max(0, extent);
+        repaint();
+    }
+
+    /**
+     * Returns the number of points shown in the detail view.
+     *
+     * @return the number of points shown in the detail view.
+     */
+    public int getDetailExtent() {
+        return detailExtent;
+    }
+
+    /**
+     * Moves the current time to the point shown at the given X coordinate.
+     *
+     * @param x the X coordinate.
+     */
+    private void moveTo(int x) {
+        TimeSeries ts = series;
+        if (ts == null || ts.isEmpty()) {
+            return;
+        }
+        int n = ts.size();
+        long t0 = ts.getTimestamp(0);
+        double span = Math.max(ts.getTimestamp(n - 1) - t0, 1);
+        double fraction = Math.max(0, Math.min(1, x / (double) Math.max(getWidth() - 1, 1)));
+        model.setValue(Math.min(ts.seek(t0 + Math.round(fraction * span)), n - 1));
+    }
+
+    /**
+     * Returns the X coordinate of a point of the series.
+     *
+     * @param ts the time series.
+     * @param index the index of the point.
+     * @param width the width of the panel.
+     * @return the X coordinate.
+     */
+    private static int toX(TimeSeries ts, int index, int width) {
+        int n = ts.size();
+        index = Math.max(0, Math.min(n - 1, index));
+        long t0 = ts.getTimestamp(0);
+        double span = Math.max(ts.getTimestamp(n - 1) - t0, 1);
+        return (int) Math.round((ts.getTimestamp(index) - t0) * (width - 1) / span);
+    }
+
+    /**
+     * Calculates the minimum and maximum of each column from the rollups of
+     * the series, if the series, the limits or the size have changed.
+     *
+     * @param ts the time series.
+     * @param width the width of the panel.
+     * @param height the height of the panel.
+     */
+    private void updateColumns(TimeSeries ts, int width, int height) {
+        Rollups rollups = ts.getRollups();
+        rollups.update();
+        int n = ts.size();
+        double low = rollups.getLowLimit(), high = rollups.getHighLimit();
+        if (n == columnsSeriesSize && width == columnsWidth && height == columnsHeight
+                && Double.compare(low, columnsLow) == 0 && Double.compare(high, columnsHigh) == 0) {
+            return;
+        }
+        // The coarsest resolution with at least one bucket per column
+        Rollups.Rollup rollup = rollups.getLevel(0);
+        for (int level = rollups.getLevelCount() - 1; level > 0; level--) {
+            if (rollups.getLevel(level).size() >= width) {
+                rollup = rollups.getLevel(level);
+                break;
+            }
+        }
+        double min[] = new double[width], max[] = new double[width];
+        boolean outside[] = new boolean[width];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        double lowest = Double.POSITIVE_INFINITY, highest = Double.NEGATIVE_INFINITY;
+        long t0 = ts.getTimestamp(0);
+        double span = Math.max(ts.getTimestamp(n - 1) - t0, 1);
+        int buckets = rollup.size();
+        for (int i = 0; i < buckets; i++) {
+            int c = (int) Math.round((rollup.getStart(i) - t0) * (width - 1) / span);
+            c = Math.max(0, Math.min(width - 1, c));
+            double bmin = rollup.getMin(i), bmax = rollup.getMax(i);
+            if (Double.isNaN(bmin) || Double.isNaN(bmax)) {
+                continue;
+            }
+            min[c] = Math.min(min[c], bmin);
+            max[c] = Math.max(max[c], bmax);
+            outside[c] |= rollup.getOutsideCount(i) > 0;
+            lowest = Math.min(lowest, bmin);
+            highest = Math.max(highest, bmax);
+        }
+        // Value scale: the whole range fits the height (with a margin of 2 pixels)
+        double scale = highest > lowest ? (height - 4) / (highest - lowest) : 0;
+        columnTop = new int[width];
+        columnBottom = new int[width];
+        for (int c = 0; c < width; c++) {
+            if (min[c] > max[c]) {
+                columnTop[c] = 0;
+                columnBottom[c] = -1;
+            } else {
+                columnTop[c] = height - 2 - (int) Math.round((max[c] - lowest) * scale);
+                columnBottom[c] = height - 2 - (int) Math.round((min[c] - lowest) * scale);
+            }
+        }
+        columnOutside = outside;
+        columnsSeriesSize = n;
+        columnsWidth = width;
+        columnsHeight = height;
+        columnsLow = low;
+        columnsHigh = high;
+    }
+
+    /**
+     * Invoked by Swing to draw the panel.
+     *
+     * @param g the <code>Graphics</code> context in which to paint
+     */
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        TimeSeries ts = series;
+        int width = getWidth(), height = getHeight();
+        if (ts == null || ts.isEmpty() || width <= 1 || height <= 4) {
+            return;
+        }
+        updateColumns(ts, width, height);
+        //The values of each column
+        for (int c = 0; c < width; c++) {
+            if (columnBottom[c] >= columnTop[c]) {
+                g.setColor(columnOutside[c] ? OUTSIDE_COLOR : VALUES_COLOR);
+                g.drawLine(c, columnTop[c], c, columnBottom[c]);
+            }
+        }
+        //The detail range and the current time
+        int time = model.getValue();
+        int from = toX(ts, time - detailExtent / 2, width);
+        int to = toX(ts, time + detailExtent / 2, width);
+        g.setColor(DETAIL_COLOR);
+        g.fillRect(from, 0, Math.max(to - from, 1), height);
+        g.setColor(Color.BLUE);
+        g.drawRect(from, 0, Math.max(to - from, 1), height - 1);
+        g.setColor(Color.RED);
+        int x = toX(ts, time, width);
+        g.drawLine(x, 0, x, height);
+    }
+}
@@ -0,0 +1,198 @@
+package energypeakcontrol;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Class that paces the processed times of a simulation against absolute
+ * deadlines, so the time spent in the processing and in the listeners does
+ * not accumulate as drift.
+ * <p>
+ * The deadline of each time is the deadline of the previous one plus its
+ * period: the pause time of the configuration or, if a replay speed is set,
+ * the time elapsed in the series between both points divided by the speed.
+ * If a deadline has already passed when it is reached, the time is processed
+ * at once (catching up) and counted as missed; if the lag exceeds
+ * {@link #MAX_LAG_NANOS}, the schedule is reset to the current instant
+ * instead of processing a burst of times.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+final class Pacer {
+    /**
+     * Maximum lag (in nanoseconds) recovered by catching up.
+     */
+    static final long MAX_LAG_NANOS = 1_000_000_000L;
+    /**
+     * Paced time series.
+     */
+    private final TimeSeries series;
+    /**
+     * Deadline (in <code>System.nanoTime</code> units) of the last time.
+     */
+    private long deadline;
+    /**
+     * Time whose deadline has been calculated (-1 if none).
+     */
+    private int pendingTime = -1;
+    /**
+     * Deadline of the time whose deadline has been calculated.
+     */
+    private long pendingDeadline;
+    /**
+     * Number of times processed after their deadline.
+     */
+    private volatile long missed = 0;
+    /**
+     * Number of schedule resets.
+     */
+    private volatile long resets = 0;
+    /**
+     * Maximum lag (in nanoseconds) of a time behind its deadline.
+     */
+    private volatile long maxLag = 0;
+
+    /**
+     * Constructs a pacer whose first deadline is the current instant.
+     *
+     * @param series the paced time series.
+     */
+    Pacer(TimeSeries series) {
+        this.series = series;
+        this.deadline = System.nanoTime();
+    }
+
+    /**
+     * Waits until the deadline of the given time. The wait is interrupted
+     * (without consuming the deadline) as soon as the given condition becomes
+     * <code>true</code>.
+     *
+     * @param time the time to be processed (greater than the previous one).
+     * @param config the configuration with the pause time and replay speed.
+     * @param interrupted condition that interrupts the wait.
+     * @return <code>true</code> if the deadline has been reached,
+     * <code>false</code> if the wait has been interrupted.
+     */
+    boolean awaitDeadline(int time, SimulatorConfig config, BooleanSupplier interrupted) {
+        long target = deadlineOf(time, config);
+        long now = System.nanoTime();
+        while (now - target < 0) {
+            if (interrupted.getAsBoolean()) {
+                return false;
+            }
+            LockSupport.parkNanos(this, target - now);
+            now = System.nanoTime();
+        }
+        deadline = target;
+        return true;
+    }
+
+    /**
+     * Returns the time remaining until the deadline of the given time,
+     * without waiting. If it is zero, the deadline is considered reached.
+     *
+     * @param time the time to be processed (greater than the previous one).
+     * @param config the configuration with the pause time and replay speed.
+     * @return the remaining time (in nanoseconds, 0 if the deadline has been
+     * reached).
+     */
+    long remaining(int time, SimulatorConfig config) {
+        long target = deadlineOf(time, config);
+        long wait = target - System.nanoTime();
+        if (wait > 0) {
+            return wait;
+        }
+        deadline = target;
+        return 0;
+    }
+
+    /**
+     * Returns the deadline of the given time. It is calculated (and the
+     * missed deadlines counted) only once per time.
+     *
+     * @param time the time to be processed (greater than the previous one).
+     * @param config the configuration with the pause time and replay speed.
+     * @return the deadline (in <code>System.nanoTime</code> units).
+     */
+    private long deadlineOf(int time, SimulatorConfig config) {
+        if (time == pendingTime) {
+            return pendingDeadline;
+        }
+        long period = period(time, config);
+        long now = System.nanoTime();
+        long target;
+        if (period == 0) {
+            //No pacing: the time is processed at once
+            target = now;
+        } else {
+            target = deadline + period;
+            if (now - target > 0) {
+                long lag = now - target;
+                missed++;
+                maxLag = Math.max(maxLag, lag);
+                if (lag > MAX_LAG_NANOS) {
+                    resets++;
+                    target = now;
+                }
+            }
+        }
+        pendingTime = time;
+        pendingDeadline = target;
+        return target;
+    }
+
+    /**
+     * Returns the period between a time and the previous one.
+     *
+     * @param time the time.
+     * @param config the configuration with the pause time and replay speed.
+     * @return the period (in nanoseconds).
+     */
+    private long period(int time, SimulatorConfig config) {
+        double speed = config.getReplaySpeed();
+        if (speed > 0 && time > 0) {
+            long elapsed = series.getTimestamp(time) - series.getTimestamp(time - 1);
+            return (long) (Math.max(elapsed, 0) * 1e6 / speed);
+        }
+        return config.getPauseTime() * 1_000_000L;
+    }
+
+    /**
+     * Shifts the schedule forward (for example, after a pause), so the
+     * elapsed time is not caught up.
+     *
+     * @param nanos the shift (in nanoseconds).
+     */
+    void shift(long nanos) {
+        deadline += nanos;
+        pendingDeadline += nanos;
+    }
+
+    /**
+     * Returns the number of times processed after their deadline.
+     *
+     * @return the number of missed deadlines.
+     */
+    long getMissedDeadlines() {
+        return missed;
+    }
+
+    /**
+     * Returns the number of times the schedule has been reset because the
+     * lag was too large to be caught up.
+     *
+     * @return the number of schedule resets.
+     */
+    long getScheduleResets() {
+        return resets;
+    }
+
+    /**
+     * Returns the maximum lag of a time behind its deadline.
+     *
+     * @return the maximum lag (in nanoseconds).
+     */
+    long getMaxLag() {
+        return maxLag;
+    }
+}
@@ -0,0 +1,328 @@
+package energypeakcontrol;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class representing a read-only time series stored in a series file (see
+ * {@link MappedTimeSeries}) whose points are loaded on demand, by segments
+ * of a fixed number of points. Only the most recently used segments are kept
+ * in memory, within a budget of bytes; the others are read from the file
+ * again when they are accessed. So a series larger than the available memory
+ * can be simulated or drawn, as their accesses are mostly sequential or
+ * local.
+ * <p>
+ * The segments are read with positional reads of the file, so there is no
+ * limit on the size of the mapped regions and the memory is bounded by the
+ * budget (plus a single segment, which is always kept). The accesses are
+ * synchronized, as the simulator and the graphical interface read the series
+ * from different threads. An I/O error while a segment is read is thrown as
+ * an <code>UncheckedIOException</code>.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class PagedTimeSeries extends BackedTimeSeries implements Closeable {
+    /**
+     * Serial version of the class.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Default number of points per segment.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 16384;
+    /**
+     * Default budget of the segments kept in memory (in bytes).
+     */
+    public static final long DEFAULT_CACHE_BYTES = 64L << 20;
+    /**
+     * File where the series is stored.
+     */
+    private final File file;
+    /**
+     * Channel of the file.
+     */
+    private final FileChannel channel;
+    /**
+     * Header of the file.
+     */
+    private final MappedTimeSeries.Header header;
+    /**
+     * Number of points per segment.
+     */
+    private final int segmentSize;
+    /**
+     * Budget of the segments kept in memory (in bytes).
+     */
+    private final long cacheBytes;
+    /**
+     * Segments in memory, from the least to the most recently used.
+     */
+    private final LinkedHashMap<Integer, Segment> segments = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Last segment used (null if none), checked before the map.
+     */
+    private Segment last = null;
+    /**
+     * Bytes of the segments in memory.
+     */
+    private long residentBytes = 0;
+    /**
+     * Number of segments read from the file.
+     */
+    private long segmentReads = 0;
+
+    /**
+     * Opens a series file with the default segment size and budget.
+     *
+     * @param file the file where the series is stored.
+     * @throws IOException if an I/O error occurs or the file is not a valid
+     * series file.
+     */
+    public PagedTimeSeries(File file) throws IOException {
+        this(file, DEFAULT_SEGMENT_SIZE, DEFAULT_CACHE_BYTES);
+    }
+
+    /**
+     * Opens a series file.
+     *
+     * @param file the file where the series is stored.
+     * @param segmentSize the number of points per segment.
+     * @param cacheBytes the budget of the segments kept in memory (in bytes).
+     * @throws IOException if an I/O error occurs or the file is not a valid
+     * series file.
+     */
+    public PagedTimeSeries(File file, int segmentSize, long cacheBytes) throws IOException {
+        if (segmentSize < 1) {
+            throw new InvalidParameterException("The segment size must be positive.");
+        }
+        if (cacheBytes < 0) {
+            throw new InvalidParameterException("The cache budget can not be negative.");
+        }
+        this.file = file;
+        this.segmentSize = segmentSize;
+        this.cacheBytes = cacheBytes;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            this.header = MappedTimeSeries.Header.read(channel, file);
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        header.apply(this);
+    }
+
+    /**
+     * Returns the file where the series is stored.
+     *
+     * @return the file where the series is stored.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the number of points per segment.
+     *
+     * @return the number of points per segment.
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Returns the budget of the segments kept in memory.
+     *
+     * @return the budget (in bytes).
+     */
+    public long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    /**
+     * Returns the bytes of the segments currently in memory.
+     *
+     * @return the bytes of the segments in memory.
+     */
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * Returns the number of segments read from the file so far.
+     *
+     * @return the number of segment reads.
+     */
+    public synchronized long getSegmentReads() {
+        return segmentReads;
+    }
+
+    @Override
+    public int size() {
+        return header.size;
+    }
+
+    @Override
+    public synchronized double getTime(int index) {
+        Segment s = segment(index);
+        return s.times != null ? s.times[index - s.offset] : index;
+    }
+
+    @Override
+    public synchronized double getValue(int index) {
+        Segment s = segment(index);
+        return s.values[index - s.offset];
+    }
+
+    @Override
+    public boolean isRegular() {
+        return !header.hasTimestamps();
+    }
+
+    @Override
+    public synchronized long getTimestamp(int index) {
+        if (!header.hasTimestamps()) {
+            return super.getTimestamp(index);
+        }
+        Segment s = segment(index);
+        return s.timestamps[index - s.offset];
+    }
+
+    /**
+     * Closes the file. The points not in memory can not be read anymore.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the segment of a point, reading it if it is not in memory. Must
+     * be called holding the lock of the series.
+     *
+     * @param index the index of the point.
+     * @return the segment.
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     * @throws UncheckedIOException if the segment can not be read.
+     */
+    private Segment segment(int index) {
+        Segment s = last;
+        if (s != null && index >= s.offset && index < s.offset + s.values.length) {
+            return s;
+        }
+        checkIndex(index);
+        int number = index / segmentSize;
+        s = segments.get(number);
+        if (s == null) {
+            try {
+                s = read(number);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Segment " + number + " of " + file, ex);
+            }
+            segmentReads++;
+            segments.put(number, s);
+            residentBytes += s.bytes();
+            // The least recently used segments are dropped (the new one is always kept)
+            Iterator<Map.Entry<Integer, Segment>> it = segments.entrySet().iterator();
+            while (residentBytes > cacheBytes && segments.size() > 1) {
+                Segment eldest = it.next().getValue();
+                it.remove();
+                residentBytes -= eldest.bytes();
+            }
+        }
+        last = s;
+        return s;
+    }
+
+    /**
+     * Reads a segment from the file.
+     *
+     * @param number the number of the segment.
+     * @return the segment.
+     * @throws IOException if an I/O error occurs.
+     */
+    private Segment read(int number) throws IOException {
+        int offset = number * segmentSize;
+        int length = Math.min(segmentSize, header.size - offset);
+        ByteBuffer buffer = ByteBuffer.allocate(length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        Segment s = new Segment(offset);
+        s.values = new double[length];
+        readArray(buffer, header.valuesOffset() + (long) offset * Double.BYTES);
+        buffer.asDoubleBuffer().get(s.values);
+        if (header.hasTimes()) {
+            s.times = new double[length];
+            readArray(buffer, header.timesOffset() + (long) offset * Double.BYTES);
+            buffer.asDoubleBuffer().get(s.times);
+        }
+        if (header.hasTimestamps()) {
+            s.timestamps = new long[length];
+            readArray(buffer, header.timestampsOffset() + (long) offset * Long.BYTES);
+            buffer.asLongBuffer().get(s.timestamps);
+        }
+        return s;
+    }
+
+    /**
+     * Fills a buffer with the bytes of the file from the given position.
+     *
+     * @param buffer the buffer (it is cleared and flipped).
+     * @param position the position in the file.
+     * @throws IOException if an I/O error occurs or the file is truncated.
+     */
+    private void readArray(ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new IOException(file + ": truncated data");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Points of a segment.
+     */
+    private static class Segment {
+        /**
+         * Index of the first point of the segment.
+         */
+        final int offset;
+        /**
+         * Values of the points.
+         */
+        double values[];
+        /**
+         * Times of the points (null if they are the indexes).
+         */
+        double times[];
+        /**
+         * Timestamps of the points (null for regular series).
+         */
+        long timestamps[];
+
+        Segment(int offset) {
+            this.offset = offset;
+        }
+
+        /**
+         * Returns the bytes of the arrays of the segment.
+         *
+         * @return the bytes of the segment.
+         */
+        long bytes() {
+            return (long) values.length * Double.BYTES * (1 + (times != null ? 1 : 0) + (timestamps != null ? 1 : 0));
+        }
+    }
+}
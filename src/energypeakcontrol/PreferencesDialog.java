@@ -49,10 +49,7 @@ public class PreferencesDialog extends javax.swing.JDialog {
         float b = ((Number) this.mfHighB.getValue()).floatValue();
         float c = ((Number) this.mfHighC.getValue()).floatValue();
         float d = ((Number) this.mfHighD.getValue()).floatValue();
-        GlobalSettings.setHighA(a);
-        GlobalSettings.setHighB(b);
-        GlobalSettings.setHighC(c);
-        GlobalSettings.setHighD(d);
+        GlobalSettings.setLimits(a, b, c, d);
     }
     
     
@@ -0,0 +1,403 @@
+package energypeakcontrol;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class representing a set of precomputed aggregates (rollups) of a time
+ * series at several resolutions. For each resolution, the series is divided in
+ * buckets aligned to the epoch (so, for instance, the daily buckets start at
+ * 00:00 UTC), and the minimum, maximum, mean, number of points and number of
+ * points outside the limits of each bucket are stored.
+ * <p>
+ * The rollups are updated incrementally with the points appended to the
+ * series, so summaries and zoomed-out views can be obtained from small
+ * aggregate arrays instead of the raw data. The appended points are
+ * aggregated in batches of {@link #UPDATE_BATCH} (so appending a point does
+ * not take the lock of the rollups) and the readers aggregate the rest before
+ * returning a level. They assume that the points are appended in
+ * chronological order and not replaced; if the series shrinks, the rollups
+ * are rebuilt.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class Rollups {
+    /**
+     * Default resolutions (in milliseconds): 1 minute, 15 minutes, 1 hour and
+     * 1 day.
+     */
+    public static final long[] DEFAULT_RESOLUTIONS = {
+        TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(15),
+        TimeUnit.HOURS.toMillis(1), TimeUnit.DAYS.toMillis(1)};
+    /**
+     * Number of appended points aggregated at once.
+     */
+    public static final int UPDATE_BATCH = 1024;
+    /**
+     * Aggregated time series.
+     */
+    private final TimeSeries series;
+    /**
+     * Rollup of each resolution (from the finest to the coarsest).
+     */
+    private final Rollup[] levels;
+    /**
+     * Lower limit (values below it are counted as outside).
+     */
+    private double lowLimit = Double.NEGATIVE_INFINITY;
+    /**
+     * Upper limit (values above it are counted as outside).
+     */
+    private double highLimit = Double.POSITIVE_INFINITY;
+    /**
+     * Number of aggregated points (read without the lock when a point is
+     * appended).
+     */
+    private volatile int aggregated = 0;
+
+    /**
+     * Constructs the rollups of a time series with the default resolutions.
+     *
+     * @param series the time series to be aggregated.
+     */
+    public Rollups(TimeSeries series) {
+        this(series, DEFAULT_RESOLUTIONS);
+    }
+
+    /**
+     * Constructs the rollups of a time series.
+     *
+     * @param series the time series to be aggregated.
+     * @param resolutions the resolutions (in milliseconds), from the finest to
+     * the coarsest.
+     */
+    public Rollups(TimeSeries series, long[] resolutions) {
+        this.series = series;
+        this.levels = new Rollup[resolutions.length];
+        for (int i = 0; i < resolutions.length; i++) {
+            if (resolutions[i] <= 0 || (i > 0 && resolutions[i] < resolutions[i - 1])) {
+                throw new InvalidParameterException("The resolutions must be positive and in ascending order.");
+            }
+            levels[i] = new Rollup(resolutions[i]);
+        }
+    }
+
+    /**
+     * Set the limits used to count the points outside the desired range. The
+     * rollups are rebuilt.
+     *
+     * @param low the lower limit.
+     * @param high the upper limit.
+     */
+    public synchronized void setLimits(double low, double high) {
+        if (low > high) {
+            throw new InvalidParameterException("The lower limit must be less or equal than the upper one");
+        }
+        if (low != lowLimit || high != highLimit) {
+            this.lowLimit = low;
+            this.highLimit = high;
+            reset();
+        }
+    }
+
+    /**
+     * Returns the lower limit.
+     *
+     * @return the lower limit.
+     */
+    public synchronized double getLowLimit() {
+        return lowLimit;
+    }
+
+    /**
+     * Returns the upper limit.
+     *
+     * @return the upper limit.
+     */
+    public synchronized double getHighLimit() {
+        return highLimit;
+    }
+
+    /**
+     * Removes all the aggregates, so they are rebuilt in the next update (for
+     * instance, when the points of the series have been replaced).
+     */
+    public synchronized void reset() {
+        for (Rollup level : levels) {
+            level.clear();
+        }
+        aggregated = 0;
+    }
+
+    /**
+     * Updates the rollups with the points appended to the series since the
+     * last update.
+     */
+    public synchronized void update() {
+        int n = series.size();
+        if (n < aggregated) {
+            reset();
+        }
+        for (int i = aggregated; i < n; i++) {
+            long timestamp = series.getTimestamp(i);
+            double value = series.getValue(i);
+            boolean outside = value < lowLimit || value > highLimit;
+            for (Rollup level : levels) {
+                level.add(timestamp, value, outside);
+            }
+        }
+        aggregated = n;
+    }
+
+    /**
+     * Called when a point has been appended to the series: the rollups are
+     * updated only if a batch of points is pending, so the lock is not taken
+     * for every point.
+     */
+    public void pointAppended() {
+        if (series.size() - aggregated >= UPDATE_BATCH) {
+            update();
+        }
+    }
+
+    /**
+     * Returns the number of resolutions.
+     *
+     * @return the number of resolutions.
+     */
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * Returns the (updated) rollup of the given level.
+     *
+     * @param level the level (0 for the finest resolution).
+     * @return the rollup of the given level.
+     */
+    public synchronized Rollup getLevel(int level) {
+        update();
+        return levels[level];
+    }
+
+    /**
+     * Returns the (updated) rollup with the coarsest resolution not greater
+     * than the given one, or the finest rollup if all of them are coarser.
+     *
+     * @param resolution the maximum resolution (in milliseconds).
+     * @return the rollup for the given resolution.
+     */
+    public synchronized Rollup getLevelFor(long resolution) {
+        int level = 0;
+        while (level + 1 < levels.length && levels[level + 1].resolution <= resolution) {
+            level++;
+        }
+        return getLevel(level);
+    }
+
+    /**
+     * Class representing the aggregates of a time series at a given
+     * resolution. The accessors are consistent with the last update of the
+     * rollups.
+     */
+    public class Rollup {
+        /**
+         * Resolution (bucket length in milliseconds).
+         */
+        private final long resolution;
+        /**
+         * Number of buckets.
+         */
+        private int size = 0;
+        /**
+         * Index (timestamp divided by the resolution) of each bucket.
+         */
+        private long[] bucket = new long[16];
+        /**
+         * Minimum value of each bucket.
+         */
+        private double[] min = new double[16];
+        /**
+         * Maximum value of each bucket.
+         */
+        private double[] max = new double[16];
+        /**
+         * Sum of the values of each bucket.
+         */
+        private double[] sum = new double[16];
+        /**
+         * Number of points of each bucket.
+         */
+        private int[] count = new int[16];
+        /**
+         * Number of points outside the limits of each bucket.
+         */
+        private int[] outside = new int[16];
+
+        /**
+         * Constructs an empty rollup.
+         *
+         * @param resolution the bucket length in milliseconds.
+         */
+        private Rollup(long resolution) {
+            this.resolution = resolution;
+        }
+
+        /**
+         * Removes all the buckets.
+         */
+        private void clear() {
+            size = 0;
+        }
+
+        /**
+         * Aggregates a point.
+         *
+         * @param timestamp the timestamp of the point.
+         * @param value the value of the point.
+         * @param out <tt>true</tt> if the value is outside the limits.
+         */
+        private void add(long timestamp, double value, boolean out) {
+            long b = Math.floorDiv(timestamp, resolution);
+            int i = size - 1;
+            if (size == 0 || bucket[i] < b) {
+                //New bucket
+                if (size == bucket.length) {
+                    int capacity = size * 2;
+                    bucket = Arrays.copyOf(bucket, capacity);
+                    min = Arrays.copyOf(min, capacity);
+                    max = Arrays.copyOf(max, capacity);
+                    sum = Arrays.copyOf(sum, capacity);
+                    count = Arrays.copyOf(count, capacity);
+                    outside = Arrays.copyOf(outside, capacity);
+                }
+                i = size++;
+                bucket[i] = b;
+                min[i] = value;
+                max[i] = value;
+                sum[i] = 0;
+                count[i] = 0;
+                outside[i] = 0;
+            } else if (bucket[i] > b) {
+                //Point out of order: it is aggregated in its own bucket (if any)
+                i = Arrays.binarySearch(bucket, 0, size, b);
+                if (i < 0) {
+                    return;
+                }
+            }
+            min[i] = Math.min(min[i], value);
+            max[i] = Math.max(max[i], value);
+            sum[i] += value;
+            count[i]++;
+            if (out) {
+                outside[i]++;
+            }
+        }
+
+        /**
+         * Returns the resolution (bucket length in milliseconds).
+         *
+         * @return the resolution.
+         */
+        public long getResolution() {
+            return resolution;
+        }
+
+        /**
+         * Returns the number of buckets.
+         *
+         * @return the number of buckets.
+         */
+        public int size() {
+            synchronized (Rollups.this) {
+                return size;
+            }
+        }
+
+        /**
+         * Returns the position of the bucket containing the given timestamp.
+         *
+         * @param timestamp the timestamp (in epoch milliseconds).
+         * @return the position of the bucket, or <tt>(-(insertion point) -
+         * 1)</tt> if there is no bucket for the given timestamp.
+         */
+        public int find(long timestamp) {
+            synchronized (Rollups.this) {
+                return Arrays.binarySearch(bucket, 0, size, Math.floorDiv(timestamp, resolution));
+            }
+        }
+
+        /**
+         * Returns the start timestamp of the i-th bucket.
+         *
+         * @param i the position of the bucket.
+         * @return the start timestamp of the bucket (in epoch milliseconds).
+         */
+        public long getStart(int i) {
+            synchronized (Rollups.this) {
+                return bucket[i] * resolution;
+            }
+        }
+
+        /**
+         * Returns the minimum value of the i-th bucket.
+         *
+         * @param i the position of the bucket.
+         * @return the minimum value of the bucket.
+         */
+        public double getMin(int i) {
+            synchronized (Rollups.this) {
+                return min[i];
+            }
+        }
+
+        /**
+         * Returns the maximum value of the i-th bucket.
+         *
+         * @param i the position of the bucket.
+         * @return the maximum value of the bucket.
+         */
+        public double getMax(int i) {
+            synchronized (Rollups.this) {
+                return max[i];
+            }
+        }
+
+        /**
+         * Returns the mean value of the i-th bucket.
+         *
+         * @param i the position of the bucket.
+         * @return the mean value of the bucket.
+         */
+        public double getMean(int i) {
+            synchronized (Rollups.this) {
+                return sum[i] / count[i];
+            }
+        }
+
+        /**
+         * Returns the number of points of the i-th bucket.
+         *
+         * @param i the position of the bucket.
+         * @return the number of points of the bucket.
+         */
+        public int getCount(int i) {
+            synchronized (Rollups.this) {
+                return count[i];
+            }
+        }
+
+        /**
+         * Returns the number of points outside the limits in the i-th bucket.
+         *
+         * @param i the position of the bucket.
+         * @return the number of points outside the limits.
+         */
+        public int getOutsideCount(int i) {
+            synchronized (Rollups.this) {
+                return outside[i];
+            }
+        }
+    }
+}
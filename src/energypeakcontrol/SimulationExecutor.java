@@ -0,0 +1,244 @@
+package energypeakcontrol;
+
+import java.lang.reflect.InvocationTargetException;
+import java.security.InvalidParameterException;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class representing the way the paced simulations (see
+ * {@link Simulator#startSimulation(long)}) are executed:
+ * <ul>
+ * <li>A platform thread per simulation (the default), which limits the number
+ * of concurrent simulations to a few thousands.</li>
+ * <li>A virtual thread per simulation, so tens of thousands of mostly idle
+ * simulations can be supervised with the same blocking-style loop and little
+ * memory per simulation. Virtual threads are created by reflection, so they
+ * are used only if the JVM supports them.</li>
+ * <li>A small pool of carrier threads where each simulation advances as a
+ * sequence of scheduled steps (one per deadline), without blocking any
+ * thread between its times. It is the fallback when virtual threads are not
+ * available.</li>
+ * </ul>
+ * The default execution of the simulators can be chosen with the system
+ * property {@value #EXECUTOR_PROPERTY} (<code>platform</code>,
+ * <code>virtual</code> or <code>pool</code>).
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public final class SimulationExecutor {
+    /**
+     * System property with the default execution of the simulators.
+     */
+    public static final String EXECUTOR_PROPERTY = "energypeakcontrol.executor";
+    /**
+     * Factory of the threads where the simulations run (null if they run on
+     * a carrier pool).
+     */
+    private final ThreadFactory threads;
+    /**
+     * Pool of carrier threads where the simulations advance (null if they run
+     * on their own threads).
+     */
+    private final ScheduledExecutorService carriers;
+    /**
+     * Name of this execution.
+     */
+    private final String name;
+    /**
+     * Execution with a platform thread per simulation.
+     */
+    private static final SimulationExecutor PLATFORM_THREADS = new SimulationExecutor(Thread::new, null, "platform");
+    /**
+     * Default execution of the simulators.
+     */
+    private static volatile SimulationExecutor default_executor = null;
+
+    /**
+     * Constructs an execution.
+     *
+     * @param threads the factory of the simulation threads.
+     * @param carriers the pool of carrier threads.
+     * @param name the name of the execution.
+     */
+    private SimulationExecutor(ThreadFactory threads, ScheduledExecutorService carriers, String name) {
+        this.threads = threads;
+        this.carriers = carriers;
+        this.name = name;
+    }
+
+    /**
+     * Returns the execution with a platform thread per simulation.
+     *
+     * @return the execution with platform threads.
+     */
+    public static SimulationExecutor platformThreads() {
+        return PLATFORM_THREADS;
+    }
+
+    /**
+     * Returns an execution with a virtual thread per simulation or, if the
+     * JVM does not support virtual threads, with a carrier pool of as many
+     * threads as processors.
+     *
+     * @return the execution with virtual threads.
+     */
+    public static SimulationExecutor virtualThreads() {
+        ThreadFactory factory = virtualThreadFactory();
+        if (factory != null) {
+            return new SimulationExecutor(factory, null, "virtual");
+        }
+        Logger.getLogger(SimulationExecutor.class.getName()).info("Virtual threads not available, using a carrier pool");
+        return carrierPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns an execution where the simulations advance as scheduled steps
+     * on a pool of carrier threads (daemon threads).
+     *
+     * @param size the number of carrier threads.
+     * @return the execution with a carrier pool.
+     */
+    public static SimulationExecutor carrierPool(int size) {
+        if (size < 1) {
+            throw new InvalidParameterException("At least one carrier thread is needed.");
+        }
+        AtomicInteger count = new AtomicInteger();
+        ScheduledExecutorService pool = Executors.newScheduledThreadPool(size, (Runnable r) -> {
+            Thread t = new Thread(r, "simulation-carrier-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        return new SimulationExecutor(null, pool, "pool");
+    }
+
+    /**
+     * Returns <code>true</code> if the JVM supports virtual threads.
+     *
+     * @return <code>true</code> if virtual threads are available.
+     */
+    public static boolean isVirtualThreadAvailable() {
+        return virtualThreadFactory() != null;
+    }
+
+    /**
+     * Returns the default execution of the simulators: the one given by the
+     * system property {@value #EXECUTOR_PROPERTY} or, if it is not set, the
+     * execution with platform threads.
+     *
+     * @return the default execution.
+     */
+    public static SimulationExecutor getDefault() {
+        SimulationExecutor e = default_executor;
+        if (e == null) {
+            synchronized (SimulationExecutor.class) {
+                if (default_executor == null) {
+                    String value = System.getProperty(EXECUTOR_PROPERTY);
+                    default_executor = value != null ? forName(value) : PLATFORM_THREADS;
+                }
+                e = default_executor;
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Set the default execution of the simulators created from now on.
+     *
+     * @param executor the default execution.
+     */
+    public static void setDefault(SimulationExecutor executor) {
+        if (executor == null) {
+            throw new InvalidParameterException("The executor can not be null.");
+        }
+        default_executor = executor;
+    }
+
+    /**
+     * Returns the execution with the given name: <code>platform</code>,
+     * <code>virtual</code> or <code>pool</code> (optionally followed by
+     * <code>:n</code>, the number of carrier threads).
+     *
+     * @param name the name of the execution.
+     * @return the execution.
+     */
+    public static SimulationExecutor forName(String name) {
+        String n = name.trim().toLowerCase(Locale.ROOT);
+        if (n.equals("platform")) {
+            return PLATFORM_THREADS;
+        } else if (n.equals("virtual")) {
+            return virtualThreads();
+        } else if (n.equals("pool")) {
+            return carrierPool(Runtime.getRuntime().availableProcessors());
+        } else if (n.startsWith("pool:")) {
+            return carrierPool(Integer.parseInt(n.substring(5)));
+        }
+        throw new InvalidParameterException("Unknown executor: " + name);
+    }
+
+    /**
+     * Returns a factory of virtual threads, created by reflection
+     * (<code>Thread.ofVirtual().name("simulation-", 0).factory()</code>).
+     *
+     * @return the factory, or null if virtual threads are not available.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "simulation-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException | ClassNotFoundException ex) {
+            return null;
+        } catch (IllegalAccessException | InvocationTargetException | RuntimeException ex) {
+            //For example, if virtual threads are a preview feature not enabled
+            Logger.getLogger(SimulationExecutor.class.getName()).log(Level.FINE, "Virtual threads not available", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the factory of the simulation threads.
+     *
+     * @return the factory of the simulation threads, or null if the
+     * simulations advance on a carrier pool.
+     */
+    ThreadFactory getThreadFactory() {
+        return threads;
+    }
+
+    /**
+     * Returns the pool of carrier threads.
+     *
+     * @return the pool of carrier threads, or null if the simulations run on
+     * their own threads.
+     */
+    ScheduledExecutorService getCarriers() {
+        return carriers;
+    }
+
+    /**
+     * Stops the carrier threads of this execution (if any). The simulations
+     * in progress on them do not advance anymore.
+     */
+    public void shutdown() {
+        if (carriers != null) {
+            carriers.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns a string representation of this execution.
+     *
+     * @return a string representation of this execution.
+     */
+    @Override
+    public String toString() {
+        return "SimulationExecutor: [" + name + "]";
+    }
+}
@@ -2,11 +2,31 @@ package energypeakcontrol;
 
 import events.TimeEvent;
 import events.TimeListener;
-import fuzzy.TrapezoidalFunction;
-import java.awt.geom.Point2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.InvalidParameterException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import metrics.FlightRecorderProbe;
+import metrics.SimulatorMetrics;
 import org.apache.commons.math3.stat.regression.SimpleRegression;
 
 /**
@@ -20,26 +40,79 @@ public class Simulator {
      */
     private final TimeSeries main_series;    
     /**
-     * 'Danger' time series used for inner calculations. It is not needed to
-     * save the whole series, only the last DEFAULT_MEANBEHIND_NUMBER_POINTS.
+     * Series analysed by the simulation (to estimate the voltage, the danger
+     * degree and the tendency): the main series, or a filtered view of it if
+     * a spike filter is set. The adjusted values are always calculated on
+     * the main series.
      */
-    private TimeSeries danger_series = null;
+    private volatile TimeSeries input_series;
     /**
-     * Trapezoidal membership function of the fuzzy set "desired voltage"
+     * History of the 'danger' degrees used for inner calculations. Only the
+     * test 'danger degree equals to zero' is needed (for the calculation of
+     * the mean behind a given time), so a flag per time is stored: the bit
+     * <code>t</code> is set if the danger degree at time <code>t</code> is
+     * zero.
      */
-    TrapezoidalFunction mfDesired = null;
+    private final BitSet safe_history = new BitSet();
     /**
-     * Thread where the simulation runs
+     * Next time to be processed.
      */
-    private Thread simulation_thread = null;
+    private int current_time = 0;
+    /**
+     * Lock that guards the simulation state (current time, danger history and
+     * last injection).
+     */
+    private final Object state_lock = new Object();
+    /**
+     * File where the checkpoints are periodically saved (null if disabled).
+     */
+    private File checkpoint_file = null;
+    /**
+     * Number of processed times between checkpoints.
+     */
+    private int checkpoint_interval = 0;
+    /**
+     * Configuration of the simulator. It is immutable and replaced as a
+     * whole, so each processed time reads a consistent set of parameters.
+     */
+    private volatile SimulatorConfig config;
+    /**
+     * Metrics of the simulation (null if disabled).
+     */
+    private volatile SimulatorMetrics metrics = null;
+    /**
+     * Probe emitting the Flight Recorder events of the simulation (null if 
+     * disabled).
+     */
+    private volatile FlightRecorderProbe flight_probe = null;
+    /**
+     * System property that enables the Flight Recorder events by default.
+     */
+    public static final String FLIGHT_RECORDING_PROPERTY = "energypeakcontrol.jfr";
+    /**
+     * Paced simulation in progress (null if it is not running). A run 
+     * processes times only while it is the active one, so the simulation is
+     * stopped by clearing it.
+     */
+    private volatile PacedRun active_run = null;
+    /**
+     * Execution of the paced simulations (thread per simulation or carrier
+     * pool).
+     */
+    private volatile SimulationExecutor executor = SimulationExecutor.getDefault();
+    /**
+     * Maximum number of times processed in a step on a carrier pool before 
+     * yielding the carrier thread to other simulations.
+     */
+    private static final int STEP_BATCH = 64;
     /**
      * Flag that indicates whether the thread is suspended or not
      */
-    private boolean suspended = false; 
+    private volatile boolean suspended = false; 
     /**
-     * Waiting time (in simulation time units) between timedata processing.
+     * Pacer of the last paced simulation (null if there is none).
      */
-    private int wait_time = 10;
+    private volatile Pacer pacer = null;
     /**
      * List of time event listeners.
      */
@@ -51,12 +124,24 @@ public class Simulator {
     /**
      * Default window size used in the time series analisys.
      */
-    private static final int DEFAULT_WINDOW_SIZE = 4;
+    public static final int DEFAULT_WINDOW_SIZE = 4;
     /**
      * Default number of points used to calculate the mean of the time series 
      * behind a given time.
      */
-    private static final int DEFAULT_MEANBEHIND_NUMBER_POINTS = 40;
+    public static final int DEFAULT_MEANBEHIND_NUMBER_POINTS = 40;
+    /**
+     * Regression reused in the processing of each time.
+     */
+    private final SimpleRegression regression = new SimpleRegression();
+    /**
+     * Magic number of the checkpoints ('EPCK').
+     */
+    private static final int CHECKPOINT_MAGIC = 0x4550434B;
+    /**
+     * Version of the checkpoint format.
+     */
+    private static final short CHECKPOINT_VERSION = 1;
     
  
     
@@ -70,8 +155,49 @@ public class Simulator {
      * @param d the desired voltage below limit.
      */
     public Simulator(TimeSeries series,float a, float b, float c, float d){
+        this(series, new SimulatorConfig(a, b, c, d));
+    }
+    
+    /**
+     * Constructs a simulator associated to the given time series with the
+     * given configuration.
+     * 
+     * @param series the time series associated to this simulator
+     * @param config the configuration of the simulator.
+     */
+    public Simulator(TimeSeries series, SimulatorConfig config){
+        if (config == null) {
+            throw new InvalidParameterException("The configuration can not be null.");
+        }
         this.main_series = series;
-        mfDesired = new TrapezoidalFunction(a,b,c,d);
+        this.input_series = series;
+        this.config = config;
+        if (Boolean.getBoolean(FLIGHT_RECORDING_PROPERTY)) {
+            setFlightRecording(true);
+        }
+    }
+    
+    /**
+     * Returns the configuration of this simulator.
+     * 
+     * @return the configuration of this simulator.
+     */
+    public SimulatorConfig getConfig() {
+        return config;
+    }
+    
+    /**
+     * Set the configuration of this simulator. It can be changed while the
+     * simulation is running: the new configuration is applied from the next
+     * processed time.
+     * 
+     * @param config the new configuration.
+     */
+    public void setConfig(SimulatorConfig config) {
+        if (config == null) {
+            throw new InvalidParameterException("The configuration can not be null.");
+        }
+        this.config = config;
     }
     
     /**
@@ -82,8 +208,8 @@ public class Simulator {
      * @param c the desired voltage bellow-intermediate limit.
      * @param d the desired voltage below limit.
      */
-    public void setVoltageMargins(float a, float b, float c, float d){
-        mfDesired.setParameters(a,b,c,d);
+    public synchronized void setVoltageMargins(float a, float b, float c, float d){
+        config = config.withLimits(a, b, c, d);
     }
     
     /**
@@ -93,98 +219,547 @@ public class Simulator {
      * upper-intermediate, bellow-intermediate, below).
      */
     public double[] getVoltageMargins() {       
-        return mfDesired.getParameters();
+        return config.getLimits();
     }
 
     /**
-     * Resturns the pause time (in simulation time units) between time-data 
+     * Resturns the pause time (in milliseconds) between time-data 
      * processing.
      * 
      * @return the pause time.
      */
     public int getPauseTime() {
-        return wait_time;
+        return config.getPauseTime();
     }
 
     /**
-     * Set the pause time (in simulation time units) between time-data
-     * processing.
+     * Set the pause time (in milliseconds) between time-data processing. It
+     * is used when no replay speed is set.
      *
-     * @param time pause time in simulation time units.
+     * @param time pause time in milliseconds.
+     */
+    public synchronized void setPauseTime(int time) {
+        if (time > 0) {
+            config = config.withPauseTime(time);
+        }
+    }
+    
+    /**
+     * Returns the spike filter applied to the main series before its
+     * analysis.
+     * 
+     * @return the spike filter (null if the series is not filtered).
+     */
+    public SpikeFilter getSpikeFilter() {
+        TimeSeries input = input_series;
+        return input instanceof FilteredTimeSeries ? ((FilteredTimeSeries) input).getFilter() : null;
+    }
+    
+    /**
+     * Set a filter of the spikes of the main series (see 
+     * {@link SpikeFilter}), so the glitches of the meter do not produce
+     * spurious danger degrees and injections. The values are filtered once,
+     * in order, just before they are analysed; the outliers are replaced in
+     * the estimation, danger degree and tendency, but not in the adjusted
+     * values. The filter is used only by this simulator.
+     * 
+     * @param filter the spike filter (null to analyse the raw values).
+     * @throws IllegalStateException if the simulation is running.
      */
-    public void setPauseTime(int time) {
-        if (wait_time > 0) {
-            this.wait_time = time;
+    public synchronized void setSpikeFilter(SpikeFilter filter) {
+        if (isRunning()) {
+            throw new IllegalStateException("The simulation is running");
         }
+        synchronized (state_lock) {
+            input_series = filter == null ? main_series : new FilteredTimeSeries(main_series, filter);
+        }
+    }
+    
+    /**
+     * Returns the series analysed by the simulation: the main series, or its
+     * filtered view if a spike filter is set.
+     * 
+     * @return the analysed series.
+     */
+    public TimeSeries getInputSeries() {
+        return input_series;
     }
     
     /**
-     * Starts the simulation of 'motion' over time.
+     * Returns the metrics of this simulator.
+     * 
+     * @return the metrics of this simulator (null if disabled).
+     */
+    public SimulatorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Set the metrics where the processing times, listener notification 
+     * times, checkpoint times, danger events and injections of this simulator
+     * are recorded. The same metrics can be shared by several simulators.
+     * 
+     * @param metrics the metrics (null to disable them).
+     */
+    public void setMetrics(SimulatorMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Returns <code>true</code> if the Flight Recorder events are enabled.
+     * 
+     * @return <code>true</code> if the Flight Recorder events are enabled.
+     */
+    public boolean isFlightRecording() {
+        return flight_probe != null;
+    }
+
+    /**
+     * Enables or disables the Flight Recorder events of this simulator: an 
+     * event per processed time (with its danger degree, injection and 
+     * duration) and an event per listener notification. They are only 
+     * recorded while a Flight Recorder recording is in progress. By default, 
+     * they are enabled if the system property 
+     * {@value #FLIGHT_RECORDING_PROPERTY} is <code>true</code>. If the Flight
+     * Recorder is not available in this JVM, they remain disabled.
+     * 
+     * @param enabled <code>true</code> to enable the events.
+     */
+    public void setFlightRecording(boolean enabled) {
+        if (!enabled) {
+            flight_probe = null;
+        } else if (flight_probe == null) {
+            if (FlightRecorderProbe.isAvailable()) {
+                flight_probe = new FlightRecorderProbe();
+            } else {
+                Logger.getLogger(Simulator.class.getName()).warning("Flight Recorder not available");
+            }
+        }
+    }
+    
+    /**
+     * Set the replay speed relative to the wall-clock time of the series, so
+     * the times are processed at the pace of their timestamps (for example, 
+     * 1 to replay in real time or 60 to replay an hour per minute).
+     * 
+     * @param speed the replay speed (0 to use the pause time instead).
+     */
+    public synchronized void setReplaySpeed(double speed) {
+        config = config.withReplaySpeed(speed);
+    }
+    
+    /**
+     * Returns the window size used in the time series analisys.
+     * 
+     * @return the window size.
+     */
+    public int getWindowSize() {
+        return config.getWindowSize();
+    }
+
+    /**
+     * Set the window size used in the time series analisys, that is, the 
+     * number of points used in the linear regression.
+     * 
+     * @param size the new window size (at least 2).
+     */
+    public synchronized void setWindowSize(int size) {
+        config = config.withWindowSize(size);
+    }
+
+    /**
+     * Returns the number of points used to calculate the mean of the time 
+     * series behind a given time.
+     * 
+     * @return the number of points used to calculate the mean behind.
+     */
+    public int getMeanBehindPoints() {
+        return config.getMeanBehindPoints();
+    }
+
+    /**
+     * Set the number of points used to calculate the mean of the time series
+     * behind a given time.
+     * 
+     * @param n the new number of points (at least 1).
+     */
+    public synchronized void setMeanBehindPoints(int n) {
+        config = config.withMeanBehindPoints(n);
+    }
+    
+    /**
+     * Returns the execution of the paced simulations of this simulator.
+     * 
+     * @return the execution of the paced simulations.
+     */
+    public SimulationExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Set the execution of the paced simulations of this simulator (by 
+     * default, {@link SimulationExecutor#getDefault()}). It is applied from 
+     * the next started simulation.
+     * 
+     * @param executor the execution of the paced simulations.
+     */
+    public void setExecutor(SimulationExecutor executor) {
+        if (executor == null) {
+            throw new InvalidParameterException("The executor can not be null.");
+        }
+        this.executor = executor;
+    }
+    
+    /**
+     * Starts the simulation of 'motion' over time. The simulation continues
+     * from the current state, that is, from the beginning of the series or
+     * from the last restored checkpoint; once finished, the state is cleared.
+     * The processed times are paced against absolute deadlines (see 
+     * {@link SimulatorConfig#getReplaySpeed()}), so the processing time does
+     * not accumulate as drift. The simulation runs on its own thread or on a
+     * carrier pool, depending on the execution of this simulator (see 
+     * {@link #setExecutor(SimulationExecutor)}).
      * 
      * @param unitTimes duration of the simulation (in unit times).
      */
-    public void startSimulation(long unitTimes) {
-        if (simulation_thread == null) {
-            // An additional time series is created to store the danger degrees
-            danger_series = new TimeSeries();
-            // A thread is created by overloading the run() method
-            simulation_thread = new Thread() {
-                @Override
-                public void run() {
-                    for (int t = 0; t < unitTimes; t++) {
-                        //The time series is processed
-                        processTimeSeries(t);
-                        try {
-                            //The thread is asleep for a while
-                            Thread.sleep(wait_time);
-                        } catch (InterruptedException ex) {
-                            Logger.getLogger(EPCFrame.class.getName()).log(Level.SEVERE, null, ex);
+    public synchronized void startSimulation(long unitTimes) {
+        if (active_run == null) {
+            SimulationExecutor e = executor;
+            PacedRun run = new PacedRun(unitTimes, e.getCarriers());
+            suspended = false;
+            pacer = run.pacer;
+            active_run = run;
+            if (run.carriers != null) {
+                run.first = run.next = getCurrentTime();
+                try {
+                    submitStep(run, 0);
+                } catch (RuntimeException ex) {
+                    active_run = null;
+                    throw new IllegalStateException("The simulation can not be started", ex);
+                }
+            } else {
+                // A thread is created for the simulation
+                Thread thread = e.getThreadFactory().newThread(() -> runPaced(run));
+                run.thread = thread;
+                thread.start(); // Thread is thrown
+            }
+        }
+    }
+    
+    /**
+     * Runs the simulation in the calling thread, pacing the processed times
+     * as {@link #startSimulation(long)} does. While it runs, the simulation
+     * can be paused or reset from other threads.
+     * 
+     * @param unitTimes duration of the simulation (in unit times).
+     */
+    public void replay(long unitTimes) {
+        PacedRun run;
+        synchronized (this) {
+            if (active_run != null) {
+                throw new IllegalStateException("The simulation is running");
+            }
+            run = new PacedRun(unitTimes, null);
+            run.thread = Thread.currentThread();
+            suspended = false;
+            pacer = run.pacer;
+            active_run = run;
+        }
+        runPaced(run);
+    }
+    
+    /**
+     * Runs a paced simulation in the calling thread. If it is not stopped, 
+     * the time out is notified once finished.
+     * 
+     * @param run the paced simulation.
+     */
+    private void runPaced(PacedRun run) {
+        boolean completed = false;
+        try {
+            completed = runSimulation(run.unit_times, run);
+        } finally {
+            completed &= release(run);
+        }
+        if (completed) {
+            notifyTimeOutEvent(null);
+        }
+    }
+    
+    /**
+     * Ends a paced simulation.
+     * 
+     * @param run the paced simulation.
+     * @return <code>true</code> if it was the active one (that is, it has
+     * not been stopped).
+     */
+    private synchronized boolean release(PacedRun run) {
+        if (active_run == run) {
+            active_run = null;
+            return true;
+        }
+        return false;
+    }
+        
+    /**
+     * Runs the simulation in the calling thread, without pauses between the
+     * processed times. As in {@link #startSimulation(long)}, the simulation 
+     * continues from the current state, which is cleared once finished, and 
+     * the listeners are notified of each processed time and of the time out.
+     * 
+     * @param unitTimes duration of the simulation (in unit times).
+     */
+    public void simulate(long unitTimes) {
+        if (isRunning()) {
+            throw new IllegalStateException("The simulation is running");
+        }
+        runSimulation(unitTimes, null);
+        notifyTimeOutEvent(null);
+    }
+    
+    /**
+     * Processes the times from the current one to the end of the simulation.
+     * 
+     * @param unitTimes duration of the simulation (in unit times).
+     * @param owner the paced simulation that owns the simulation (it stops
+     * as soon as it is no longer the active one), or null to process the 
+     * times without pauses.
+     * @return <code>true</code> if the simulation has been completed, 
+     * <code>false</code> if it has been stopped.
+     */
+    private boolean runSimulation(long unitTimes, PacedRun owner) {
+        int first = getCurrentTime();
+        for (int t = first; t < unitTimes; t++) {
+            //Waits until the deadline of the time
+            if (owner != null && t > first && !awaitTurn(t, owner)) {
+                return false;
+            }
+            //The time series is processed
+            if (!processTimeSeries(t, owner)) {
+                return false;
+            }
+            checkpointIfDue(t);
+        }
+        return finishSimulation(owner);
+    }
+    
+    /**
+     * Clears the state at the end of a simulation.
+     * 
+     * @param owner the paced simulation that owns the simulation (null if it
+     * is not paced).
+     * @return <code>false</code> if the simulation has been stopped.
+     */
+    private boolean finishSimulation(PacedRun owner) {
+        synchronized (state_lock) {
+            if (owner != null && active_run != owner) {
+                return false;
+            }
+            clearState();
+        }
+        return true;
+    }
+    
+    /**
+     * Saves a checkpoint if the given time completes a checkpoint interval.
+     * 
+     * @param time the processed time.
+     */
+    private void checkpointIfDue(int time) {
+        if (checkpoint_file != null && (time + 1) % checkpoint_interval == 0) {
+            writeCheckpoint();
+        }
+    }
+    
+    /**
+     * Waits until the given time has to be processed: while the simulation
+     * is paused and, then, until the deadline of the time. The paused time 
+     * is not caught up.
+     * 
+     * @param time the time to be processed.
+     * @param run the paced simulation.
+     * @return <code>true</code> if the time has to be processed, 
+     * <code>false</code> if the simulation has been stopped.
+     */
+    private boolean awaitTurn(int time, PacedRun run) {
+        while (active_run == run) {
+            if (suspended) {
+                LockSupport.park(this);
+            } else {
+                run.pacer.shift(run.paused_nanos.getAndSet(0));
+                if (run.pacer.awaitDeadline(time, config, run.interrupted) && !suspended) {
+                    return active_run == run;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Schedules the next step of a paced simulation on its carrier pool.
+     * 
+     * @param run the paced simulation.
+     * @param delay the delay of the step (in nanoseconds).
+     */
+    private void submitStep(PacedRun run, long delay) {
+        int generation = run.generation;
+        Runnable task = () -> step(run, generation);
+        if (delay > 0) {
+            run.carriers.schedule(task, delay, TimeUnit.NANOSECONDS);
+        } else {
+            run.carriers.execute(task);
+        }
+    }
+    
+    /**
+     * Advances a paced simulation on a carrier thread: the times whose 
+     * deadline has been reached are processed and the next step is scheduled
+     * at the deadline of the following time.
+     * 
+     * @param run the paced simulation.
+     * @param generation the generation of the step (it is discarded if the
+     * simulation has been resumed after it was scheduled).
+     */
+    private void step(PacedRun run, int generation) {
+        boolean completed = false;
+        try {
+            synchronized (run) {
+                for (int processed = 0; ; processed++) {
+                    if (active_run != run || run.generation != generation || suspended) {
+                        return;
+                    }
+                    if (run.next >= run.unit_times) {
+                        completed = finishSimulation(run);
+                        break;
+                    }
+                    if (run.next > run.first) {
+                        run.pacer.shift(run.paused_nanos.getAndSet(0));
+                        long wait = run.pacer.remaining(run.next, config);
+                        if (wait > 0) {
+                            submitStep(run, wait);
+                            return;
                         }
                     }
-                    simulation_thread = null;
-                    notifyTimeOutEvent(null);
+                    if (processed == STEP_BATCH) {
+                        //The carrier is yielded to other simulations
+                        submitStep(run, 0);
+                        return;
+                    }
+                    if (!processTimeSeries(run.next, run)) {
+                        return;
+                    }
+                    checkpointIfDue(run.next);
+                    run.next++;
                 }
-            };
-            simulation_thread.start(); // Thread is thrown
+            }
+        } catch (RuntimeException ex) {
+            Logger.getLogger(Simulator.class.getName()).log(Level.SEVERE, "Simulation aborted", ex);
+            release(run);
+            return;
+        }
+        if (completed && release(run)) {
+            notifyTimeOutEvent(null);
         }
     }
-        
+    
     /**
      * Process the time serie at the given time.
      * 
      * @param time the time to be processed. 
+     * @param owner the paced simulation that owns the simulation (null if it
+     * is not paced).
+     * @return <code>false</code> if the simulation has been stopped (and the 
+     * time has not been processed).
      */
-    private void processTimeSeries(int time) {
-        //Initialization: if time < DEFAULT_WINDOW_SIZE, that is, it is a point
+    private boolean processTimeSeries(int time, PacedRun owner) {
+        SimulatorMetrics m = metrics;
+        FlightRecorderProbe p = flight_probe;
+        if (m == null && p == null) {
+            TimeEvent evt;
+            synchronized (state_lock) {
+                if (owner != null && active_run != owner) {
+                    return false;
+                }
+                evt = updateState(time);
+            }
+            //A new time event is notified
+            notifyTimeChangeEvent(evt);
+            return true;
+        }
+        //Instrumented processing
+        long start = System.nanoTime();
+        if (p != null) {
+            p.beginTick();
+        }
+        TimeEvent evt;
+        synchronized (state_lock) {
+            if (owner != null && active_run != owner) {
+                return false;
+            }
+            evt = updateState(time);
+        }
+        long processed = System.nanoTime();
+        double injection = evt.getAdjustedValue() - main_series.getValue(time);
+        if (p != null) {
+            p.endTick(time, evt.getDangerDegree(), injection);
+            p.beginDispatch();
+        }
+        if (m != null) {
+            m.recordTick(processed - start, evt.getDangerDegree() > 0.0, injection != 0.0);
+        }
+        notifyTimeChangeEvent(evt);
+        if (p != null) {
+            p.endDispatch(time, timeEventListener.size());
+        }
+        if (m != null) {
+            m.recordListeners(System.nanoTime() - processed);
+        }
+        return true;
+    }
+    
+    /**
+     * Updates the simulation state with the processing of the given time.
+     * 
+     * @param time the time to be processed.
+     * @return the time event associated to the processed time.
+     */
+    private TimeEvent updateState(int time) {
+        //The configuration is read once, so the whole time is processed with
+        //the same parameters even if it is changed meanwhile
+        SimulatorConfig cfg = config;
+        TimeSeries input = input_series;
+        int window_size = cfg.getWindowSize();
+        //Initialization: if time < window_size, that is, it is a point
         //at the beginig of the series which can not been processed, by default
         //the calculated values are set to the time series value. In the case
         //of the danger degree, the membeship degree function is applied to the
-        //series value. For points satisfying time>=DEFAULT_WINDOW_SIZE, the
+        //series value. For points satisfying time>=window_size, the
         //values will be calculated following the formulas.
-        double estimation_time = main_series.get(time).getY();        
-        double adjusted_value = estimation_time;
+        double estimation_time = input.getValue(time);        
+        //The adjusted value is always on the raw series (the filtered value,
+        //if any, is only used for the estimation and the danger degree)
+        double adjusted_value = main_series.getValue(time);
         double mean_behind = estimation_time;
-        double danger_degree = 1.0-mfDesired.apply(estimation_time);
-        if (time >= DEFAULT_WINDOW_SIZE) {
+        double danger_degree = 1.0-cfg.desiredDegree(estimation_time);
+        if (time >= window_size) {
             //First,the membership degree to the fuzzy set 'danger' is calculated 
             //As reference set, the expected voltage (i.e., the estimation for 
             //the next time) is used
-            SimpleRegression r = new SimpleRegression();
-            Point2D p;            
-            for (int t = 0; t < DEFAULT_WINDOW_SIZE; t++) {
+            SimpleRegression r = regression;
+            r.clear();
+            for (int t = 0; t < window_size; t++) {
                 //Points used for the linear regression
-                p = main_series.get(time - t);
-                r.addData(p.getX(), p.getY());
+                r.addData(input.getTime(time - t), input.getValue(time - t));
             }            
             double estimation_next_time = r.predict(time+1); //time+1 estimation
-            danger_degree = 1.0-mfDesired.apply(estimation_next_time);
+            danger_degree = 1.0-cfg.desiredDegree(estimation_next_time);
                         
             //Second,the voltage to be injected (in time+1) is calculated as the 
             //difference between (1) the time series tendency behind 'time' and  
             //(2) the voltage estimated for time+1, weighted by the membership     
             //degree to 'danger'. The sign of the difference is taken into   
             //account to know if the injection is a positive or negative voltage
-            mean_behind = meanBehind(time); //The tendency             
+            mean_behind = meanBehind(input, time, cfg); //The tendency             
             double inject = (mean_behind-estimation_next_time)*danger_degree;
             
             //Main time series is adjusted on the basis of the injection value.
@@ -192,7 +767,7 @@ public class Simulator {
             //on the basis of the injection calculated on 'time-1'. Since this  
             //method is called when the simulation process analyzes the time 'time',  
             //we have to use the injection value calculated in the previuos time      
-            adjusted_value =  main_series.get(time).getY()+inject_previous_time;            
+            adjusted_value =  main_series.getValue(time)+inject_previous_time;            
             inject_previous_time = inject;
             
             //Only for visualization purposes: estimation of the current main  
@@ -200,37 +775,35 @@ public class Simulator {
             //is not used for processing this 'time' (only to notify the value
             //in the event)
             r.clear();
-            for (int t = 1; t < DEFAULT_WINDOW_SIZE+1; t++) {
-                p = main_series.get(time - t);
-                r.addData(p.getX(), p.getY());
+            for (int t = 1; t < window_size+1; t++) {
+                r.addData(input.getTime(time - t), input.getValue(time - t));
             }
             estimation_time = r.predict(time);
         }
-        // We store the 'danger' membeship degree in a series for use it in 
+        // We store whether the 'danger' membeship degree is zero for use it in 
         // subsequent calculations (specifically, for the calculation of the 
-        // mean series); we do not really need to save the whole series, only 
-        // the last DEFAULT_MEANBEHIND_NUMBER_POINTS, but this improvement is 
-        // left for future work
-        danger_series.add(new Point2D.Double(time,danger_degree));
-        //A new time event is notified
-        notifyTimeChangeEvent(new TimeEvent(this,time,estimation_time,danger_degree,mean_behind,adjusted_value));
+        // mean series)
+        safe_history.set(time, danger_degree < 0.00001);
+        current_time = time + 1;
+        return new TimeEvent(this,time,estimation_time,danger_degree,mean_behind,adjusted_value);
     }
     
     /**
      * Returns the tendendy of the time series calculated as the mean over the
      * values behind 'time' with a danger degree equals to zero.
      *
+     * @param input the analysed series.
      * @param time the time to be processed.
+     * @param cfg the configuration used in the processing.
      * @return the mean behind 'time'
      */
-    private double meanBehind(int time) {                 
+    private double meanBehind(TimeSeries input, int time, SimulatorConfig cfg) {                 
         double mean_behind = 0.0;
-        double danger_t;
+        int meanbehind_number_points = cfg.getMeanBehindPoints();
         int n = 0, t = 1; //The current time is not use to estimate the tendency        
-        while (n < DEFAULT_MEANBEHIND_NUMBER_POINTS && time >= t) {
-            danger_t = danger_series.get(time - t).getY();
-            if (danger_t < 0.00001) {                
-                mean_behind += main_series.get(time - t).getY();
+        while (n < meanbehind_number_points && time >= t) {
+            if (safe_history.get(time - t)) {                
+                mean_behind += input.getValue(time - t);
                 n++;
             }
             t++;
@@ -242,8 +815,9 @@ public class Simulator {
             //margins and there is no data to estimate the mean. In this 
             //case, the central point of the core of the fuzzyset 'desired 
             //voltage' is used
-            double a = mfDesired.getParameters()[0];
-            double d = mfDesired.getParameters()[3];
+            double[] limits = cfg.getLimits();
+            double a = limits[0];
+            double d = limits[3];
             mean_behind = ((d - a) / 2.0) + a;
         }
         return mean_behind;
@@ -254,29 +828,239 @@ public class Simulator {
      * @return 
      */
     public boolean isRunning(){
-        return simulation_thread!=null;
+        return active_run!=null;
     }
     
     /**
-     * Pause the simulation. 
+     * Pause the simulation, or resume it if it is paused. The simulation 
+     * thread stops before the next time (never in the middle of the 
+     * processing of a time or of the notification to the listeners).
      */
     synchronized public void pauseSimulation() {
-        //NOTE: Uses deprecated methods, need to be updated
-        if (simulation_thread != null) {
-            if(!suspended) simulation_thread.suspend();
-            else simulation_thread.resume();
+        PacedRun run = active_run;
+        if (run != null) {
             suspended = !suspended;
+            if (suspended) {
+                run.pause_start = System.nanoTime();
+            } else {
+                run.paused_nanos.addAndGet(System.nanoTime() - run.pause_start);
+            }
+            if (run.thread != null) {
+                LockSupport.unpark(run.thread);
+            } else if (!suspended) {
+                //A new step is scheduled (the pending one is discarded)
+                run.generation++;
+                submitStep(run, 0);
+            }
         }
     }
     
     /**
-     * Reset the simulation
+     * Reset the simulation. The simulation thread stops before the next time
+     * without notifying the time out.
      */
     synchronized public void resetSimulation() {
-        //NOTE: Uses deprecated methods, need to be updated
-        if (simulation_thread != null) {
-            simulation_thread.stop();
-            simulation_thread = null;
+        PacedRun run = active_run;
+        active_run = null;
+        suspended = false;
+        if (run != null && run.thread != null) {
+            LockSupport.unpark(run.thread);
+        }
+        clearState();
+    }
+    
+    /**
+     * Returns the number of times of the last paced simulation processed 
+     * after their deadline (because the processing or the listeners were 
+     * slower than the pace).
+     * 
+     * @return the number of missed deadlines.
+     */
+    public long getMissedDeadlines() {
+        Pacer p = pacer;
+        return p != null ? p.getMissedDeadlines() : 0;
+    }
+    
+    /**
+     * Returns the number of times the schedule of the last paced simulation
+     * has been reset because it was too late to catch up.
+     * 
+     * @return the number of schedule resets.
+     */
+    public long getScheduleResets() {
+        Pacer p = pacer;
+        return p != null ? p.getScheduleResets() : 0;
+    }
+    
+    /**
+     * Returns the maximum lag of a time of the last paced simulation behind
+     * its deadline.
+     * 
+     * @return the maximum lag (in nanoseconds).
+     */
+    public long getMaxLag() {
+        Pacer p = pacer;
+        return p != null ? p.getMaxLag() : 0;
+    }
+    
+    /**
+     * Clears the simulation state, so the next simulation starts from the
+     * beginning of the series.
+     */
+    private void clearState() {
+        synchronized (state_lock) {
+            current_time = 0;
+            inject_previous_time = 0;
+            safe_history.clear();
+        }
+    }
+    
+    /**
+     * Returns the next time to be processed.
+     * 
+     * @return the next time to be processed.
+     */
+    public int getCurrentTime() {
+        synchronized (state_lock) {
+            return current_time;
+        }
+    }
+    
+    /**
+     * Enables the periodic saving of checkpoints while the simulation runs.
+     * 
+     * @param file the file where the checkpoints are saved (null to disable
+     * the checkpointing).
+     * @param interval number of processed times between checkpoints.
+     */
+    public void setCheckpointing(File file, int interval) {
+        if (file != null && interval <= 0) {
+            throw new InvalidParameterException("The checkpoint interval must be positive.");
+        }
+        this.checkpoint_interval = interval;
+        this.checkpoint_file = file;
+    }
+    
+    /**
+     * Saves a checkpoint with the current simulation state in the checkpoint
+     * file. The checkpoint is written in a temporary file which then replaces
+     * the previous one, so a crash while saving does not corrupt it.
+     */
+    private void writeCheckpoint() {
+        File file = checkpoint_file;
+        File tmp = new File(file.getPath() + ".tmp");
+        SimulatorMetrics m = metrics;
+        long start = m != null ? System.nanoTime() : 0L;
+        try {
+            saveCheckpoint(tmp);
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(Simulator.class.getName()).log(Level.WARNING, "Checkpoint not saved", ex);
+        }
+        if (m != null) {
+            m.recordIO(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Saves a checkpoint with the current simulation state in a file.
+     * 
+     * @param file the file where the checkpoint is saved.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void saveCheckpoint(File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            saveCheckpoint(out);
+        }
+    }
+    
+    /**
+     * Saves a checkpoint with the current simulation state (current time, last
+     * injection, danger history and voltage margins) in a compact binary 
+     * form.
+     * 
+     * @param out the stream where the checkpoint is written.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void saveCheckpoint(OutputStream out) throws IOException {
+        DataOutputStream dout = new DataOutputStream(out);
+        SimulatorConfig cfg = config;
+        synchronized (state_lock) {
+            dout.writeInt(CHECKPOINT_MAGIC);
+            dout.writeShort(CHECKPOINT_VERSION);
+            dout.writeInt(current_time);
+            dout.writeDouble(inject_previous_time);
+            for (double p : cfg.getLimits()) {
+                dout.writeDouble(p);
+            }
+            dout.writeInt(cfg.getWindowSize());
+            dout.writeInt(cfg.getMeanBehindPoints());
+            long[] words = safe_history.toLongArray();
+            dout.writeInt(words.length);
+            for (long w : words) {
+                dout.writeLong(w);
+            }
+        }
+        dout.flush();
+    }
+    
+    /**
+     * Restores the simulation state from a checkpoint file.
+     * 
+     * @param file the file where the checkpoint is stored.
+     * @throws IOException if an I/O error occurs or the checkpoint is not 
+     * valid.
+     */
+    public void loadCheckpoint(File file) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            loadCheckpoint(in);
+        }
+    }
+    
+    /**
+     * Restores the simulation state from a checkpoint, so the next simulation
+     * resumes from the checkpoint time. The simulation must not be running.
+     * 
+     * @param in the stream where the checkpoint is read.
+     * @throws IOException if an I/O error occurs or the checkpoint is not 
+     * valid.
+     */
+    public void loadCheckpoint(InputStream in) throws IOException {
+        if (isRunning()) {
+            throw new IllegalStateException("The simulation is running");
+        }
+        DataInputStream din = new DataInputStream(in);
+        if (din.readInt() != CHECKPOINT_MAGIC || din.readShort() != CHECKPOINT_VERSION) {
+            throw new IOException("Not a valid checkpoint");
+        }
+        int time = din.readInt();
+        double inject = din.readDouble();
+        double a = din.readDouble(), b = din.readDouble(), c = din.readDouble(), d = din.readDouble();
+        SimulatorConfig cfg = config;
+        if (din.readInt() != cfg.getWindowSize() || din.readInt() != cfg.getMeanBehindPoints()) {
+            throw new IOException("Checkpoint saved with a different configuration");
+        }
+        int n = din.readInt();
+        if (time < 0 || time > main_series.size() || n < 0 || n > (time + 63) / 64) {
+            throw new IOException("Checkpoint not compatible with the time series");
+        }
+        long[] words = new long[n];
+        for (int i = 0; i < n; i++) {
+            words[i] = din.readLong();
+        }
+        if (a > b || b > c || c > d) {
+            throw new IOException("Not a valid checkpoint");
+        }
+        synchronized (state_lock) {
+            config = cfg.withLimits((float) a, (float) b, (float) c, (float) d);
+            current_time = time;
+            inject_previous_time = inject;
+            safe_history.clear();
+            safe_history.or(BitSet.valueOf(words));
         }
     }
     
@@ -318,4 +1102,55 @@ public class Simulator {
         }
     }
     
+    /**
+     * Paced simulation in progress.
+     */
+    private final class PacedRun {
+        /**
+         * Duration of the simulation (in unit times).
+         */
+        private final long unit_times;
+        /**
+         * Pacer of the simulation.
+         */
+        private final Pacer pacer = new Pacer(main_series);
+        /**
+         * Condition that interrupts the wait for a deadline: the simulation 
+         * is paused or stopped.
+         */
+        private final BooleanSupplier interrupted = () -> suspended || active_run != this;
+        /**
+         * Carrier pool where the simulation advances (null if it runs on its
+         * own thread).
+         */
+        private final ScheduledExecutorService carriers;
+        /**
+         * Thread where the simulation runs (null if it advances on a carrier
+         * pool).
+         */
+        private volatile Thread thread = null;
+        /**
+         * First and next times to be processed (on a carrier pool).
+         */
+        private int first, next;
+        /**
+         * Instant when the current pause started.
+         */
+        private long pause_start;
+        /**
+         * Paused time (in nanoseconds) not yet shifted in the schedule.
+         */
+        private final AtomicLong paused_nanos = new AtomicLong();
+        /**
+         * Generation of the steps (on a carrier pool); the steps of previous
+         * generations are discarded.
+         */
+        private volatile int generation = 0;
+
+        PacedRun(long unitTimes, ScheduledExecutorService carriers) {
+            this.unit_times = unitTimes;
+            this.carriers = carriers;
+        }
+    }
+    
 }
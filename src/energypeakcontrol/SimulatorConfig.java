@@ -0,0 +1,397 @@
+package energypeakcontrol;
+
+import fuzzy.TrapezoidalFunction;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidParameterException;
+import java.util.Properties;
+
+/**
+ * Class representing the configuration of a simulator: the four limits of the
+ * desired voltage, the window size used in the time series analisys, the
+ * number of points of the mean behind, the pause time between processed
+ * times and the replay speed.
+ * <p>
+ * A configuration is immutable, so it can be shared by many simulators and
+ * read from any thread without synchronization. To change the configuration
+ * of a running simulator, a new one is created (see the <code>with</code>
+ * methods) and swapped in as a whole (see
+ * {@link Simulator#setConfig(SimulatorConfig)}), so a processed time never
+ * sees a mix of the old and new parameters.
+ * <p>
+ * A configuration can be loaded from a properties file with the following
+ * keys (the missing ones take their default values):
+ * <pre>
+ * limits.a = 220
+ * limits.b = 225
+ * limits.c = 235
+ * limits.d = 240
+ * window.size = 4
+ * meanbehind.points = 40
+ * pause.time = 10
+ * replay.speed = 0
+ * </pre>
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public final class SimulatorConfig {
+    /**
+     * Key of the 'a' limit.
+     */
+    public static final String LIMIT_A_KEY = "limits.a";
+    /**
+     * Key of the 'b' limit.
+     */
+    public static final String LIMIT_B_KEY = "limits.b";
+    /**
+     * Key of the 'c' limit.
+     */
+    public static final String LIMIT_C_KEY = "limits.c";
+    /**
+     * Key of the 'd' limit.
+     */
+    public static final String LIMIT_D_KEY = "limits.d";
+    /**
+     * Key of the window size.
+     */
+    public static final String WINDOW_SIZE_KEY = "window.size";
+    /**
+     * Key of the number of points of the mean behind.
+     */
+    public static final String MEANBEHIND_POINTS_KEY = "meanbehind.points";
+    /**
+     * Key of the pause time.
+     */
+    public static final String PAUSE_TIME_KEY = "pause.time";
+    /**
+     * Key of the replay speed.
+     */
+    public static final String REPLAY_SPEED_KEY = "replay.speed";
+    /**
+     * Default pause time (in milliseconds) between processed times.
+     */
+    public static final int DEFAULT_PAUSE_TIME = 10;
+    /**
+     * Default configuration.
+     */
+    public static final SimulatorConfig DEFAULT = new SimulatorConfig(220.0f, 225.0f, 235.0f, 240.0f);
+    /**
+     * The four limits (a, b, c, d) of the desired voltage.
+     */
+    private final float a, b, c, d;
+    /**
+     * Window size used in the time series analisys.
+     */
+    private final int windowSize;
+    /**
+     * Number of points used to calculate the mean of the time series behind a
+     * given time.
+     */
+    private final int meanBehindPoints;
+    /**
+     * Pause time (in milliseconds) between processed times.
+     */
+    private final int pauseTime;
+    /**
+     * Replay speed relative to the wall-clock time of the series (0 to use
+     * the pause time).
+     */
+    private final double replaySpeed;
+    /**
+     * Trapezoidal membership function of the fuzzy set "desired voltage"
+     * (never modified once created).
+     */
+    private final TrapezoidalFunction<Double> desired;
+
+    /**
+     * Constructs a configuration with the given limits and the default window
+     * size, number of points of the mean behind and pause time.
+     *
+     * @param a the desired voltage upper limit.
+     * @param b the desired voltage upper-intermediate limit.
+     * @param c the desired voltage bellow-intermediate limit.
+     * @param d the desired voltage below limit.
+     */
+    public SimulatorConfig(float a, float b, float c, float d) {
+        this(a, b, c, d, Simulator.DEFAULT_WINDOW_SIZE, Simulator.DEFAULT_MEANBEHIND_NUMBER_POINTS, DEFAULT_PAUSE_TIME);
+    }
+
+    /**
+     * Constructs a configuration.
+     *
+     * @param a the desired voltage upper limit.
+     * @param b the desired voltage upper-intermediate limit.
+     * @param c the desired voltage bellow-intermediate limit.
+     * @param d the desired voltage below limit.
+     * @param windowSize the window size (at least 2).
+     * @param meanBehindPoints the number of points of the mean behind (at
+     * least 1).
+     * @param pauseTime the pause time in milliseconds (non negative).
+     */
+    public SimulatorConfig(float a, float b, float c, float d, int windowSize, int meanBehindPoints, int pauseTime) {
+        this(a, b, c, d, windowSize, meanBehindPoints, pauseTime, 0.0);
+    }
+
+    /**
+     * Constructs a configuration.
+     *
+     * @param a the desired voltage upper limit.
+     * @param b the desired voltage upper-intermediate limit.
+     * @param c the desired voltage bellow-intermediate limit.
+     * @param d the desired voltage below limit.
+     * @param windowSize the window size (at least 2).
+     * @param meanBehindPoints the number of points of the mean behind (at
+     * least 1).
+     * @param pauseTime the pause time in milliseconds (non negative).
+     * @param replaySpeed the replay speed relative to the wall-clock time of
+     * the series (0 to use the pause time instead).
+     */
+    public SimulatorConfig(float a, float b, float c, float d, int windowSize, int meanBehindPoints, int pauseTime,
+            double replaySpeed) {
+        if (windowSize < 2) {
+            throw new InvalidParameterException("The window size must be at least 2.");
+        }
+        if (meanBehindPoints < 1) {
+            throw new InvalidParameterException("The number of points must be positive.");
+        }
+        if (pauseTime < 0) {
+            throw new InvalidParameterException("The pause time must be non negative.");
+        }
+        if (!(replaySpeed >= 0) || Double.isInfinite(replaySpeed)) {
+            throw new InvalidParameterException("The replay speed must be a non negative number.");
+        }
+        this.desired = new TrapezoidalFunction<>(a, b, c, d);
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.d = d;
+        this.windowSize = windowSize;
+        this.meanBehindPoints = meanBehindPoints;
+        this.pauseTime = pauseTime;
+        this.replaySpeed = replaySpeed;
+    }
+
+    /**
+     * Loads a configuration from a properties file.
+     *
+     * @param file the properties file.
+     * @return the loaded configuration.
+     * @throws IOException if an I/O error occurs or a value is not valid.
+     */
+    public static SimulatorConfig load(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            Properties properties = new Properties();
+            properties.load(in);
+            try {
+                return fromProperties(properties, DEFAULT);
+            } catch (InvalidParameterException | NumberFormatException ex) {
+                throw new IOException(file + ": " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * Creates a configuration from a set of properties.
+     *
+     * @param properties the properties.
+     * @param defaults the configuration from which the missing properties are
+     * taken.
+     * @return the configuration.
+     * @throws NumberFormatException if a value is not a number.
+     */
+    public static SimulatorConfig fromProperties(Properties properties, SimulatorConfig defaults) {
+        return new SimulatorConfig(
+                floatProperty(properties, LIMIT_A_KEY, defaults.a),
+                floatProperty(properties, LIMIT_B_KEY, defaults.b),
+                floatProperty(properties, LIMIT_C_KEY, defaults.c),
+                floatProperty(properties, LIMIT_D_KEY, defaults.d),
+                intProperty(properties, WINDOW_SIZE_KEY, defaults.windowSize),
+                intProperty(properties, MEANBEHIND_POINTS_KEY, defaults.meanBehindPoints),
+                intProperty(properties, PAUSE_TIME_KEY, defaults.pauseTime),
+                doubleProperty(properties, REPLAY_SPEED_KEY, defaults.replaySpeed));
+    }
+
+    /**
+     * Returns this configuration as a set of properties.
+     *
+     * @return the properties of this configuration.
+     */
+    public Properties toProperties() {
+        Properties properties = new Properties();
+        properties.setProperty(LIMIT_A_KEY, Float.toString(a));
+        properties.setProperty(LIMIT_B_KEY, Float.toString(b));
+        properties.setProperty(LIMIT_C_KEY, Float.toString(c));
+        properties.setProperty(LIMIT_D_KEY, Float.toString(d));
+        properties.setProperty(WINDOW_SIZE_KEY, Integer.toString(windowSize));
+        properties.setProperty(MEANBEHIND_POINTS_KEY, Integer.toString(meanBehindPoints));
+        properties.setProperty(PAUSE_TIME_KEY, Integer.toString(pauseTime));
+        properties.setProperty(REPLAY_SPEED_KEY, Double.toString(replaySpeed));
+        return properties;
+    }
+
+    /**
+     * Returns the float value of a property.
+     *
+     * @param properties the properties.
+     * @param key the key of the property.
+     * @param defaultValue the value returned if the property is missing.
+     * @return the value of the property.
+     */
+    private static float floatProperty(Properties properties, String key, float defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Float.parseFloat(value.trim());
+    }
+
+    /**
+     * Returns the double value of a property.
+     *
+     * @param properties the properties.
+     * @param key the key of the property.
+     * @param defaultValue the value returned if the property is missing.
+     * @return the value of the property.
+     */
+    private static double doubleProperty(Properties properties, String key, double defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    /**
+     * Returns the integer value of a property.
+     *
+     * @param properties the properties.
+     * @param key the key of the property.
+     * @param defaultValue the value returned if the property is missing.
+     * @return the value of the property.
+     */
+    private static int intProperty(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Returns a copy of this configuration with other limits.
+     *
+     * @param a the desired voltage upper limit.
+     * @param b the desired voltage upper-intermediate limit.
+     * @param c the desired voltage bellow-intermediate limit.
+     * @param d the desired voltage below limit.
+     * @return the new configuration.
+     */
+    public SimulatorConfig withLimits(float a, float b, float c, float d) {
+        return new SimulatorConfig(a, b, c, d, windowSize, meanBehindPoints, pauseTime, replaySpeed);
+    }
+
+    /**
+     * Returns a copy of this configuration with other window size.
+     *
+     * @param size the window size.
+     * @return the new configuration.
+     */
+    public SimulatorConfig withWindowSize(int size) {
+        return new SimulatorConfig(a, b, c, d, size, meanBehindPoints, pauseTime, replaySpeed);
+    }
+
+    /**
+     * Returns a copy of this configuration with other number of points of the
+     * mean behind.
+     *
+     * @param n the number of points.
+     * @return the new configuration.
+     */
+    public SimulatorConfig withMeanBehindPoints(int n) {
+        return new SimulatorConfig(a, b, c, d, windowSize, n, pauseTime, replaySpeed);
+    }
+
+    /**
+     * Returns a copy of this configuration with other pause time.
+     *
+     * @param time the pause time (in milliseconds).
+     * @return the new configuration.
+     */
+    public SimulatorConfig withPauseTime(int time) {
+        return new SimulatorConfig(a, b, c, d, windowSize, meanBehindPoints, time, replaySpeed);
+    }
+
+    /**
+     * Returns a copy of this configuration with other replay speed.
+     *
+     * @param speed the replay speed relative to the wall-clock time of the
+     * series, for example, 1 to replay in real time or 60 to replay an hour
+     * per minute (0 to use the pause time instead).
+     * @return the new configuration.
+     */
+    public SimulatorConfig withReplaySpeed(double speed) {
+        return new SimulatorConfig(a, b, c, d, windowSize, meanBehindPoints, pauseTime, speed);
+    }
+
+    /**
+     * Returns the membership degree of a voltage to the fuzzy set "desired
+     * voltage".
+     *
+     * @param voltage the voltage.
+     * @return the membership degree.
+     */
+    public double desiredDegree(double voltage) {
+        return desired.applyAsDouble(voltage);
+    }
+
+    /**
+     * Returns the four desired voltage limits.
+     *
+     * @return a vector with the four desired voltage limits stored as (upper,
+     * upper-intermediate, bellow-intermediate, below).
+     */
+    public double[] getLimits() {
+        return new double[]{a, b, c, d};
+    }
+
+    /**
+     * Returns the window size used in the time series analisys.
+     *
+     * @return the window size.
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Returns the number of points used to calculate the mean of the time
+     * series behind a given time.
+     *
+     * @return the number of points.
+     */
+    public int getMeanBehindPoints() {
+        return meanBehindPoints;
+    }
+
+    /**
+     * Returns the pause time between processed times.
+     *
+     * @return the pause time (in milliseconds).
+     */
+    public int getPauseTime() {
+        return pauseTime;
+    }
+
+    /**
+     * Returns the replay speed relative to the wall-clock time of the series.
+     *
+     * @return the replay speed (0 if the pause time is used instead).
+     */
+    public double getReplaySpeed() {
+        return replaySpeed;
+    }
+
+    /**
+     * Returns a string representation of this configuration.
+     *
+     * @return a string representation of this configuration.
+     */
+    @Override
+    public String toString() {
+        return "SimulatorConfig: [limits=(" + a + "," + b + "," + c + "," + d + "), window=" + windowSize
+                + ", meanbehind=" + meanBehindPoints + ", pause=" + pauseTime + ", speed=" + replaySpeed + "]";
+    }
+}
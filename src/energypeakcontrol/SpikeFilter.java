@@ -0,0 +1,343 @@
+package energypeakcontrol;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/**
+ * Class representing an online filter of the spikes of a series (single or
+ * very short runs of samples far from their neighbours, as the glitches of a
+ * meter), applied sample by sample in the order of the series.
+ * <p>
+ * The filter is a causal Hampel filter: a sample is an outlier if its
+ * distance to the median of the last accepted samples is greater than the
+ * threshold times their median absolute deviation (scaled to estimate the
+ * standard deviation, and never below a minimum deviation, so a flat window
+ * does not turn every small change into an outlier). An outlier is replaced
+ * by the median and is not added to the window.
+ * <p>
+ * A level shift would also look like a run of outliers, so the filter
+ * detects the change points: when a run of outliers on the same side of the
+ * median is longer than the maximum spike length, the samples of the run are
+ * accepted as the new level (the window is restarted with them) and the
+ * following samples are passed on. So a real change of the voltage is only
+ * delayed by the maximum spike length.
+ * <p>
+ * The window is kept sorted in an array, so the cost per sample depends only
+ * on the window size (a few samples), not on the length of the series.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class SpikeFilter {
+    /**
+     * Default number of samples of the window.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 7;
+    /**
+     * Default threshold (number of deviations from the median).
+     */
+    public static final double DEFAULT_THRESHOLD = 3.0;
+    /**
+     * Default minimum deviation (in the units of the series: volts for the
+     * meter files, whose voltage often changes by one or two volts between
+     * samples).
+     */
+    public static final double DEFAULT_MIN_DEVIATION = 2.0;
+    /**
+     * Default maximum number of consecutive outliers filtered as a spike.
+     */
+    public static final int DEFAULT_MAX_SPIKE_LENGTH = 2;
+    /**
+     * Factor that scales the median absolute deviation to the standard
+     * deviation of a normal distribution.
+     */
+    private static final double MAD_SCALE = 1.4826;
+    /**
+     * Minimum number of samples in the window to detect outliers.
+     */
+    private static final int MIN_SAMPLES = 3;
+    /**
+     * Threshold (number of deviations from the median).
+     */
+    private final double threshold;
+    /**
+     * Minimum deviation (in the units of the series).
+     */
+    private final double minDeviation;
+    /**
+     * Maximum number of consecutive outliers filtered as a spike.
+     */
+    private final int maxSpikeLength;
+    /**
+     * Accepted samples of the window, in a circular buffer.
+     */
+    private final double history[];
+    /**
+     * Accepted samples of the window, sorted.
+     */
+    private final double sorted[];
+    /**
+     * Number of samples in the window.
+     */
+    private int count = 0;
+    /**
+     * Position of the circular buffer where the next sample is stored.
+     */
+    private int next = 0;
+    /**
+     * Outliers of the current run.
+     */
+    private final double run[];
+    /**
+     * Number of outliers of the current run.
+     */
+    private int runLength = 0;
+    /**
+     * Side of the median of the current run (1 above, -1 below).
+     */
+    private int runSide = 0;
+    /**
+     * Flag that indicates whether the last sample was an outlier.
+     */
+    private boolean outlier = false;
+    /**
+     * Number of outliers replaced so far.
+     */
+    private long outlierCount = 0;
+    /**
+     * Number of change points detected so far.
+     */
+    private long changePointCount = 0;
+
+    /**
+     * Constructs a filter with the default parameters.
+     */
+    public SpikeFilter() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_THRESHOLD, DEFAULT_MIN_DEVIATION, DEFAULT_MAX_SPIKE_LENGTH);
+    }
+
+    /**
+     * Constructs a filter.
+     *
+     * @param windowSize the number of samples of the window (at least 3).
+     * @param threshold the number of deviations from the median above which
+     * a sample is an outlier (positive).
+     * @param minDeviation the minimum deviation, in the units of the series
+     * (non negative).
+     * @param maxSpikeLength the maximum number of consecutive outliers
+     * filtered as a spike (at least 1).
+     */
+    public SpikeFilter(int windowSize, double threshold, double minDeviation, int maxSpikeLength) {
+        if (windowSize < MIN_SAMPLES) {
+            throw new InvalidParameterException("The window size must be at least " + MIN_SAMPLES + ".");
+        }
+        if (!(threshold > 0) || Double.isInfinite(threshold)) {
+            throw new InvalidParameterException("The threshold must be a positive number.");
+        }
+        if (!(minDeviation >= 0) || Double.isInfinite(minDeviation)) {
+            throw new InvalidParameterException("The minimum deviation must be a non negative number.");
+        }
+        if (maxSpikeLength < 1) {
+            throw new InvalidParameterException("The maximum spike length must be positive.");
+        }
+        this.threshold = threshold;
+        this.minDeviation = minDeviation;
+        this.maxSpikeLength = maxSpikeLength;
+        this.history = new double[windowSize];
+        this.sorted = new double[windowSize];
+        this.run = new double[maxSpikeLength + 1];
+    }
+
+    /**
+     * Returns a new filter with the same parameters as this one (and an empty
+     * window).
+     *
+     * @return the new filter.
+     */
+    public SpikeFilter copy() {
+        return new SpikeFilter(history.length, threshold, minDeviation, maxSpikeLength);
+    }
+
+    /**
+     * Filters the next sample of the series. The samples that are not numbers
+     * are passed on and ignored.
+     *
+     * @param value the value of the sample.
+     * @return the filtered value: the median of the window if the sample is
+     * an outlier, or the value of the sample otherwise.
+     */
+    public double filter(double value) {
+        outlier = false;
+        if (Double.isNaN(value)) {
+            return value;
+        }
+        if (count < MIN_SAMPLES) {
+            push(value);
+            return value;
+        }
+        double median = median();
+        double deviation = Math.max(MAD_SCALE * medianDeviation(median), minDeviation);
+        if (Math.abs(value - median) <= threshold * deviation) {
+            runLength = 0;
+            push(value);
+            return value;
+        }
+        int side = value > median ? 1 : -1;
+        if (runLength > 0 && side != runSide) {
+            runLength = 0;
+        }
+        runSide = side;
+        run[runLength++] = value;
+        if (runLength > maxSpikeLength) {
+            // Change point: the run is the new level
+            count = 0;
+            next = 0;
+            for (int i = 0; i < runLength; i++) {
+                push(run[i]);
+            }
+            runLength = 0;
+            changePointCount++;
+            return value;
+        }
+        outlier = true;
+        outlierCount++;
+        return median;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the last filtered sample was an outlier (and
+     * so it was replaced).
+     *
+     * @return <tt>true</tt> if the last sample was an outlier.
+     */
+    public boolean isOutlier() {
+        return outlier;
+    }
+
+    /**
+     * Returns the number of outliers replaced so far.
+     *
+     * @return the number of outliers.
+     */
+    public long getOutlierCount() {
+        return outlierCount;
+    }
+
+    /**
+     * Returns the number of change points detected so far.
+     *
+     * @return the number of change points.
+     */
+    public long getChangePointCount() {
+        return changePointCount;
+    }
+
+    /**
+     * Returns the number of samples of the window.
+     *
+     * @return the window size.
+     */
+    public int getWindowSize() {
+        return history.length;
+    }
+
+    /**
+     * Returns the threshold (number of deviations from the median).
+     *
+     * @return the threshold.
+     */
+    public double getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns the minimum deviation.
+     *
+     * @return the minimum deviation (in the units of the series).
+     */
+    public double getMinDeviation() {
+        return minDeviation;
+    }
+
+    /**
+     * Returns the maximum number of consecutive outliers filtered as a spike.
+     *
+     * @return the maximum spike length.
+     */
+    public int getMaxSpikeLength() {
+        return maxSpikeLength;
+    }
+
+    /**
+     * Clears the state of the filter, so the next sample is the first one of
+     * a series.
+     */
+    public void reset() {
+        count = 0;
+        next = 0;
+        runLength = 0;
+        outlier = false;
+        outlierCount = 0;
+        changePointCount = 0;
+    }
+
+    /**
+     * Adds an accepted sample to the window, removing the oldest one if the
+     * window is full.
+     *
+     * @param value the value of the sample.
+     */
+    private void push(double value) {
+        if (count == history.length) {
+            int i = Arrays.binarySearch(sorted, 0, count, history[next]);
+            System.arraycopy(sorted, i + 1, sorted, i, count - i - 1);
+            count--;
+        }
+        int i = Arrays.binarySearch(sorted, 0, count, value);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        System.arraycopy(sorted, i, sorted, i + 1, count - i);
+        sorted[i] = value;
+        count++;
+        history[next] = value;
+        next = (next + 1) % history.length;
+    }
+
+    /**
+     * Returns the median of the window.
+     *
+     * @return the median.
+     */
+    private double median() {
+        int mid = count / 2;
+        return (count & 1) != 0 ? sorted[mid] : (sorted[mid - 1] + sorted[mid]) / 2;
+    }
+
+    /**
+     * Returns the median of the absolute deviations of the window from its
+     * median. The deviations of the samples below and above the median grow
+     * outwards from it in the sorted window, so they are merged in order
+     * until the middle one is reached.
+     *
+     * @param median the median of the window.
+     * @return the median absolute deviation.
+     */
+    private double medianDeviation(double median) {
+        int right = count / 2, left = right - 1;
+        if ((count & 1) != 0) {
+            // The median itself is the smallest deviation
+            right++;
+        }
+        double previous = 0.0, current = 0.0;
+        int from = (count & 1) != 0 ? 1 : 0;
+        for (int k = from; k <= count / 2; k++) {
+            previous = current;
+            if (right >= count || (left >= 0 && median - sorted[left] <= sorted[right] - median)) {
+                current = median - sorted[left--];
+            } else {
+                current = sorted[right++] - median;
+            }
+        }
+        return (count & 1) != 0 ? current : (previous + current) / 2;
+    }
+}
@@ -2,6 +2,7 @@ package energypeakcontrol;
 
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.concurrent.TimeUnit;
 
@@ -21,6 +22,33 @@ public class TimeSeries extends ArrayList<Point2D> {
      */
     private int startTime = 0;
     
+    /**
+     * Epoch time (in milliseconds) associated to the time 0 of this series.
+     */
+    private long epoch = 0;
+    
+    /**
+     * Timestamps (in epoch milliseconds) of the points of an irregular series
+     * (null for regular series, where the timestamps are calculated from the
+     * epoch and the time unit).
+     */
+    private long[] timestamps = null;
+    
+    /**
+     * Number of timestamps stored.
+     */
+    private int timestampCount = 0;
+    
+    /**
+     * Sparse block index over the values of this series (created on demand).
+     */
+    private BlockIndex blockIndex = null;
+    
+    /**
+     * Multi-resolution aggregates of this series (created on demand).
+     */
+    private volatile Rollups rollups = null;
+    
     /**
      * Constructs an empty time series.
      */
@@ -77,6 +105,265 @@ public class TimeSeries extends ArrayList<Point2D> {
         this.startTime = startTime;
     }
     
+    /**
+     * Returns the epoch time (in milliseconds) associated to the time 0 of this
+     * series.
+     *
+     * @return the epoch time of this series.
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Set the epoch time (in milliseconds) associated to the time 0 of this
+     * series.
+     *
+     * @param epoch the new epoch time.
+     */
+    public void setEpoch(long epoch) {
+        this.epoch = epoch;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the points of this series are placed on a
+     * regular grid (one point per time unit), that is, if no explicit
+     * timestamp has been stored.
+     *
+     * @return <tt>true</tt> if this series is regular.
+     */
+    public boolean isRegular() {
+        return timestamps == null;
+    }
+
+    /**
+     * Appends a new sample with an explicit timestamp. The point is added
+     * with the index of the sample as time, and the timestamp is stored
+     * apart, so the series becomes irregular. The points appended before
+     * without an explicit timestamp keep the timestamps calculated from the
+     * epoch and the time unit.
+     *
+     * @param timestamp the timestamp of the sample (in epoch milliseconds).
+     * @param value the value of the sample.
+     */
+    public void addSample(long timestamp, double value) {
+        int n = size();
+        if (timestamps == null) {
+            timestamps = new long[Math.max(16, n + 1)];
+        } else if (n >= timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, Math.max(timestamps.length * 2, n + 1));
+        }
+        //The points without an explicit timestamp are stored with the
+        //calculated one, so the timestamp of each point is at its index
+        for (; timestampCount < n; timestampCount++) {
+            timestamps[timestampCount] = regularTimestamp(timestampCount);
+        }
+        timestamps[timestampCount++] = timestamp;
+        add(new Point2D.Double(n, value));
+    }
+
+    /**
+     * Returns the timestamp (in epoch milliseconds) of the point at the
+     * specified position in this series.
+     *
+     * @param index index of the point.
+     * @return the timestamp of the point at the specified position.
+     */
+    public long getTimestamp(int index) {
+        if (index < timestampCount) {
+            return timestamps[index];
+        }
+        return regularTimestamp(index);
+    }
+
+    /**
+     * Returns the timestamp of a point calculated from the epoch and the time
+     * unit (as in a regular series).
+     *
+     * @param index index of the point.
+     * @return the calculated timestamp (in epoch milliseconds).
+     */
+    private long regularTimestamp(int index) {
+        return epoch + (long) Math.floor(getTime(index) * timeUnit.toNanos(1) / 1e6);
+    }
+    
+    /**
+     * Returns the index of the first point whose timestamp is greater than or
+     * equal to the given one (binary search). The timestamps are assumed to
+     * be in chronological order.
+     *
+     * @param timestamp the timestamp to be searched (in epoch milliseconds).
+     * @return the index of the first point not before the given timestamp, or
+     * the size of the series if all the points are before it.
+     */
+    public int seek(long timestamp) {
+        int low = 0, high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getTimestamp(mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns a read-only view of the points of this series in the given
+     * range of indexes. The points are not copied; the times of the view are
+     * relative to its first point (see {@link TimeSeriesView}).
+     *
+     * @param fromIndex index of the first point of the range (inclusive).
+     * @param toIndex index of the last point of the range (exclusive).
+     * @return a view of the given range.
+     */
+    public TimeSeries view(int fromIndex, int toIndex) {
+        return new TimeSeriesView(this, fromIndex, toIndex);
+    }
+
+    /**
+     * Returns a read-only view of the points of this series whose timestamps
+     * are in the given interval. The points are not copied.
+     *
+     * @param fromTimestamp start of the interval (inclusive, in epoch
+     * milliseconds).
+     * @param toTimestamp end of the interval (exclusive, in epoch
+     * milliseconds).
+     * @return a view of the points in the given interval.
+     */
+    public TimeSeries range(long fromTimestamp, long toTimestamp) {
+        int from = seek(fromTimestamp);
+        return view(from, Math.max(from, seek(toTimestamp)));
+    }
+
+    /**
+     * Returns the sparse block index over the values of this series, creating
+     * it if needed.
+     *
+     * @return the block index of this series.
+     */
+    public synchronized BlockIndex getBlockIndex() {
+        if (blockIndex == null) {
+            blockIndex = new BlockIndex(this);
+        }
+        return blockIndex;
+    }
+
+    /**
+     * Returns the multi-resolution aggregates (rollups) of this series,
+     * creating them if needed. Once created, they are updated in batches as
+     * the points are appended.
+     *
+     * @return the rollups of this series.
+     */
+    public synchronized Rollups getRollups() {
+        if (rollups == null) {
+            rollups = new Rollups(this);
+        }
+        return rollups;
+    }
+
+    /**
+     * Appends the specified point to the end of this series.
+     *
+     * @param p the point to be appended.
+     * @return <tt>true</tt>
+     */
+    @Override
+    public boolean add(Point2D p) {
+        boolean added = super.add(p);
+        pointAppended();
+        return added;
+    }
+
+    /**
+     * Removes all the points of this series, and their timestamps, so the
+     * series becomes regular again.
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        timestamps = null;
+        timestampCount = 0;
+        pointsCleared();
+    }
+
+    /**
+     * Called when all the points of this series have been removed; it resets
+     * the aggregates of the series, so they are rebuilt from the points added
+     * afterwards. The stores that override {@link #clear()} must call it.
+     */
+    protected void pointsCleared() {
+        BlockIndex b = blockIndex;
+        if (b != null) {
+            b.reset();
+        }
+        Rollups r = rollups;
+        if (r != null) {
+            r.reset();
+        }
+    }
+
+    /**
+     * Called when a point has been appended to this series; it updates the
+     * aggregates of the series (in batches).
+     */
+    protected void pointAppended() {
+        Rollups r = rollups;
+        if (r != null) {
+            r.pointAppended();
+        }
+    }
+
+    /**
+     * Returns the summary (minimum, maximum, mean and number of points) of the
+     * values in the given range of indexes.
+     *
+     * @param fromIndex index of the first point of the range (inclusive).
+     * @param toIndex index of the last point of the range (exclusive).
+     * @return the summary of the range.
+     */
+    public BlockIndex.Summary summarize(int fromIndex, int toIndex) {
+        return getBlockIndex().summarize(fromIndex, toIndex);
+    }
+
+    /**
+     * Returns the summary (minimum, maximum, mean and number of points) of the
+     * values whose timestamps are in the given interval.
+     *
+     * @param fromTimestamp start of the interval (inclusive, in epoch
+     * milliseconds).
+     * @param toTimestamp end of the interval (exclusive, in epoch
+     * milliseconds).
+     * @return the summary of the interval.
+     */
+    public BlockIndex.Summary summarizeBetween(long fromTimestamp, long toTimestamp) {
+        return summarize(seek(fromTimestamp), seek(toTimestamp));
+    }
+    
+    /**
+     * Returns the time (X coordinate) of the point at the specified position
+     * in this series.
+     *
+     * @param index index of the point.
+     * @return the time of the point at the specified position.
+     */
+    public double getTime(int index) {
+        return get(index).getX();
+    }
+
+    /**
+     * Returns the value (Y coordinate) of the point at the specified position
+     * in this series.
+     *
+     * @param index index of the point.
+     * @return the value of the point at the specified position.
+     */
+    public double getValue(int index) {
+        return get(index).getY();
+    }
+    
     /**
      * Returns a string representation of this time series.
      * 
@@ -0,0 +1,463 @@
+package energypeakcontrol;
+
+import java.awt.geom.Point2D;
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Class that builds a time series from a stream of timestamped samples in a
+ * single pass.
+ * <p>
+ * By default, the samples are resampled onto a regular grid with one point
+ * per time unit: samples falling in the same grid slot (duplicates) are
+ * averaged, the slots without samples (gaps) are filled by linear
+ * interpolation and the samples older than the last processed slot
+ * (out-of-order samples) are discarded. If resampling is disabled, the
+ * samples are stored with their own timestamps (as an irregular series), the
+ * gaps and duplicates are only counted and the samples older than the
+ * previous one are discarded.
+ * <p>
+ * The points are stored in a {@link TimeSeries} by default; any other
+ * appendable storage can be used (see {@link #setSeriesFactory(Supplier)}).
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class TimeSeriesBuilder {
+    /**
+     * Time series being built.
+     */
+    private TimeSeries series;
+    /**
+     * Factory of the series built.
+     */
+    private Supplier<? extends TimeSeries> seriesFactory = TimeSeries::new;
+    /**
+     * Time unit of the series.
+     */
+    private final TimeUnit timeUnit;
+    /**
+     * Grid step (in milliseconds).
+     */
+    private final long step;
+    /**
+     * Flag that indicates whether the samples are resampled or not.
+     */
+    private final boolean resampling;
+    /**
+     * Flag that indicates whether a sample has been processed.
+     */
+    private boolean started = false;
+    /**
+     * Grid origin (in epoch milliseconds).
+     */
+    private long origin;
+    /**
+     * Slot pending to be emitted (the one of the last sample).
+     */
+    private long pendingSlot;
+    /**
+     * Timestamp of the last sample of the pending slot.
+     */
+    private long pendingTimestamp;
+    /**
+     * Sum of the values of the pending slot.
+     */
+    private double pendingSum;
+    /**
+     * Number of samples in the pending slot.
+     */
+    private int pendingCount;
+    /**
+     * Last emitted slot (-1 if none).
+     */
+    private long lastSlot = -1;
+    /**
+     * Value of the last emitted slot.
+     */
+    private double lastValue;
+    /**
+     * Maximum label of the pending slot.
+     */
+    private int pendingLabel;
+    /**
+     * Maximum truth value of the pending slot.
+     */
+    private double pendingTruth;
+    /**
+     * Flag that indicates whether the annotations (label and truth) of the
+     * samples are kept or not.
+     */
+    private boolean annotations = false;
+    /**
+     * Labels of the points of the series being built.
+     */
+    private int[] labels = null;
+    /**
+     * Truth values of the points of the series being built.
+     */
+    private double[] truth = null;
+    /**
+     * Number of annotated points.
+     */
+    private int annotated = 0;
+    /**
+     * Labels of the last built series.
+     */
+    private int[] lastLabels = new int[0];
+    /**
+     * Truth values of the last built series.
+     */
+    private double[] lastTruth = new double[0];
+    /**
+     * Number of processed samples.
+     */
+    private long sampleCount = 0;
+    /**
+     * Number of samples sharing slot (or timestamp) with a previous one.
+     */
+    private long duplicateCount = 0;
+    /**
+     * Number of discarded out-of-order samples.
+     */
+    private long outOfOrderCount = 0;
+    /**
+     * Number of gaps detected.
+     */
+    private long gapCount = 0;
+    /**
+     * Number of missing slots (interpolated slots when resampling).
+     */
+    private long missingCount = 0;
+    /**
+     * Length (in slots) of the largest gap.
+     */
+    private long largestGap = 0;
+
+    /**
+     * Constructs a builder that resamples the samples onto a regular grid with
+     * one point per time unit.
+     *
+     * @param timeUnit the time unit of the series.
+     */
+    public TimeSeriesBuilder(TimeUnit timeUnit) {
+        this(timeUnit, true);
+    }
+
+    /**
+     * Constructs a builder.
+     *
+     * @param timeUnit the time unit of the series.
+     * @param resampling <tt>true</tt> to resample the samples onto a regular
+     * grid, <tt>false</tt> to keep their own timestamps.
+     */
+    public TimeSeriesBuilder(TimeUnit timeUnit, boolean resampling) {
+        this.step = timeUnit.toMillis(1);
+        if (step <= 0) {
+            throw new InvalidParameterException("The time unit must be at least one millisecond.");
+        }
+        this.timeUnit = timeUnit;
+        this.resampling = resampling;
+        this.series = newSeries();
+    }
+
+    /**
+     * Set the factory of the series built, for example
+     * <code>OffHeapTimeSeries::new</code> to keep the points out of the heap.
+     * The series created must be empty and appendable. The factory is used
+     * from the next series on (or from the current one, if no sample has
+     * been added yet).
+     *
+     * @param factory the factory of the series.
+     */
+    public void setSeriesFactory(Supplier<? extends TimeSeries> factory) {
+        this.seriesFactory = factory;
+        if (!started) {
+            series = newSeries();
+        }
+    }
+
+    /**
+     * Creates an empty series with the factory.
+     *
+     * @return the new series.
+     */
+    private TimeSeries newSeries() {
+        TimeSeries created = seriesFactory.get();
+        created.setTimeUnit(timeUnit);
+        return created;
+    }
+
+    /**
+     * Set whether the annotations (label and truth) of the samples are kept.
+     * If so, they are stored as primitive columns aligned with the points of
+     * the series: when resampling, the annotations of a slot are the maximum
+     * ones of its samples, and the interpolated slots get the label 0 and the
+     * truth -1 (unknown).
+     *
+     * @param keep <tt>true</tt> to keep the annotations.
+     */
+    public void setAnnotationsKept(boolean keep) {
+        this.annotations = keep;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the annotations of the samples are kept.
+     *
+     * @return <tt>true</tt> if the annotations are kept.
+     */
+    public boolean isAnnotationsKept() {
+        return annotations;
+    }
+
+    /**
+     * Returns the labels of the points of the last built series (empty if the
+     * annotations are not kept).
+     *
+     * @return the labels of the last built series.
+     */
+    public int[] getLabels() {
+        return lastLabels;
+    }
+
+    /**
+     * Returns the truth values of the points of the last built series (empty
+     * if the annotations are not kept).
+     *
+     * @return the truth values of the last built series.
+     */
+    public double[] getTruth() {
+        return lastTruth;
+    }
+
+    /**
+     * Adds a new sample without annotations. The samples are expected in
+     * chronological order.
+     *
+     * @param timestamp the timestamp of the sample (in epoch milliseconds).
+     * @param value the value of the sample.
+     */
+    public void add(long timestamp, double value) {
+        add(timestamp, value, 0, -1);
+    }
+
+    /**
+     * Adds a new annotated sample. The samples are expected in chronological
+     * order.
+     *
+     * @param timestamp the timestamp of the sample (in epoch milliseconds).
+     * @param value the value of the sample.
+     * @param label the label of the sample.
+     * @param truth the truth value of the sample.
+     */
+    public void add(long timestamp, double value, int label, double truth) {
+        if (!started) {
+            resetCounters();
+            sampleCount = 1;
+            started = true;
+            origin = Math.floorDiv(timestamp, step) * step;
+            series.setEpoch(origin);
+            pendingSlot = Math.floorDiv(timestamp - origin, step);
+            pendingTimestamp = timestamp;
+            pendingSum = value;
+            pendingCount = 1;
+            pendingLabel = label;
+            pendingTruth = truth;
+            return;
+        }
+        sampleCount++;
+        long slot = Math.floorDiv(timestamp - origin, step);
+        if (slot < pendingSlot || (!resampling && timestamp < pendingTimestamp)) {
+            //Discarded: the timestamps of the series must be in chronological order
+            outOfOrderCount++;
+        } else if (slot == pendingSlot) {
+            duplicateCount++;
+            if (resampling) {
+                pendingSum += value;
+                pendingCount++;
+                pendingLabel = Math.max(pendingLabel, label);
+                pendingTruth = Math.max(pendingTruth, truth);
+            } else {
+                flush();
+                pendingTimestamp = timestamp;
+                pendingSum = value;
+                pendingCount = 1;
+                pendingLabel = label;
+                pendingTruth = truth;
+            }
+        } else {
+            if (slot - pendingSlot > 1) {
+                gapCount++;
+                missingCount += slot - pendingSlot - 1;
+                largestGap = Math.max(largestGap, slot - pendingSlot - 1);
+            }
+            flush();
+            pendingSlot = slot;
+            pendingTimestamp = timestamp;
+            pendingSum = value;
+            pendingCount = 1;
+            pendingLabel = label;
+            pendingTruth = truth;
+        }
+    }
+
+    /**
+     * Emits the pending slot. When resampling, the missing slots between the
+     * last emitted slot and the pending one are filled by linear
+     * interpolation.
+     */
+    private void flush() {
+        double value = pendingSum / pendingCount;
+        if (resampling) {
+            if (lastSlot >= 0) {
+                long distance = pendingSlot - lastSlot;
+                for (long s = lastSlot + 1; s < pendingSlot; s++) {
+                    double alpha = (double) (s - lastSlot) / distance;
+                    series.add(new Point2D.Double(s, lastValue + alpha * (value - lastValue)));
+                    annotate(0, -1);
+                }
+            }
+            series.add(new Point2D.Double(pendingSlot, value));
+        } else {
+            series.addSample(pendingTimestamp, value);
+        }
+        annotate(pendingLabel, pendingTruth);
+        lastSlot = pendingSlot;
+        lastValue = value;
+    }
+
+    /**
+     * Stores the annotations of the last emitted point (if they are kept).
+     *
+     * @param label the label of the point.
+     * @param t the truth value of the point.
+     */
+    private void annotate(int label, double t) {
+        if (!annotations) {
+            return;
+        }
+        if (labels == null) {
+            labels = new int[1024];
+            truth = new double[1024];
+        } else if (annotated == labels.length) {
+            labels = Arrays.copyOf(labels, annotated * 2);
+            truth = Arrays.copyOf(truth, annotated * 2);
+        }
+        labels[annotated] = label;
+        truth[annotated] = t;
+        annotated++;
+    }
+
+    /**
+     * Resets the sample counters.
+     */
+    private void resetCounters() {
+        sampleCount = 0;
+        duplicateCount = 0;
+        outOfOrderCount = 0;
+        gapCount = 0;
+        missingCount = 0;
+        largestGap = 0;
+    }
+
+    /**
+     * Finishes the building process and returns the time series. After this
+     * call, the builder is reset and can be used to build a new series (the
+     * counters keep the values of the returned series until a new sample is
+     * added).
+     *
+     * @return the time series.
+     */
+    public TimeSeries finish() {
+        if (started && pendingCount > 0) {
+            flush();
+        }
+        TimeSeries result = series;
+        lastLabels = labels == null ? new int[0] : Arrays.copyOf(labels, annotated);
+        lastTruth = truth == null ? new double[0] : Arrays.copyOf(truth, annotated);
+        labels = null;
+        truth = null;
+        annotated = 0;
+        series = newSeries();
+        started = false;
+        pendingCount = 0;
+        lastSlot = -1;
+        return result;
+    }
+
+    /**
+     * Returns the series being built. Its points are appended as the samples
+     * are added (when resampling, once the slot of each sample is complete).
+     *
+     * @return the series being built.
+     */
+    TimeSeries getSeries() {
+        return series;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the samples are resampled onto a regular grid.
+     *
+     * @return <tt>true</tt> if the samples are resampled.
+     */
+    public boolean isResampling() {
+        return resampling;
+    }
+
+    /**
+     * Returns the number of processed samples.
+     *
+     * @return the number of processed samples.
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Returns the number of samples sharing slot (or timestamp) with a
+     * previous one.
+     *
+     * @return the number of duplicated samples.
+     */
+    public long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Returns the number of discarded out-of-order samples.
+     *
+     * @return the number of out-of-order samples.
+     */
+    public long getOutOfOrderCount() {
+        return outOfOrderCount;
+    }
+
+    /**
+     * Returns the number of gaps detected.
+     *
+     * @return the number of gaps.
+     */
+    public long getGapCount() {
+        return gapCount;
+    }
+
+    /**
+     * Returns the total number of missing slots in the gaps (which have been
+     * interpolated when resampling).
+     *
+     * @return the number of missing slots.
+     */
+    public long getMissingCount() {
+        return missingCount;
+    }
+
+    /**
+     * Returns the length (in time units) of the largest gap.
+     *
+     * @return the length of the largest gap.
+     */
+    public long getLargestGap() {
+        return largestGap;
+    }
+}
@@ -0,0 +1,566 @@
+package energypeakcontrol;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class representing a catalogue of the time series stored in a directory,
+ * with one CSV file per meter (as <code>cnt_501.csv</code>). The catalogue
+ * holds a {@link Handle} per file, identified by its meter id; the series of
+ * a handle is read the first time it is requested.
+ * <p>
+ * The series kept in memory are bounded by a global budget (in bytes). When a
+ * series is going to be read and the budget would be exceeded, the least
+ * recently requested series are spilled: they are written to the binary
+ * format of {@link MappedTimeSeries} in the spill directory, and their
+ * handles give the mapped series from then on. A spill file newer than its
+ * CSV file is mapped directly, without reading the CSV file again. A read
+ * that does not fit while other reads are in progress waits for them.
+ * <p>
+ * The budget accounts for the series referenced by the catalogue: a spilled
+ * series is not released while it is still referenced by its users.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class TimeSeriesCatalogue {
+    /**
+     * Extension of the series files.
+     */
+    public static final String CSV_EXTENSION = ".csv";
+    /**
+     * Extension of the spill files.
+     */
+    public static final String SPILL_EXTENSION = ".series";
+    /**
+     * Estimated heap bytes per point of a series in memory (the point, its
+     * reference in the list and the aggregates).
+     */
+    static final int BYTES_PER_POINT = 40;
+    /**
+     * Minimum length of a line of the CSV files, used to estimate the number
+     * of points of a file before reading it.
+     */
+    private static final int MIN_LINE_LENGTH = 24;
+    /**
+     * Directory of the series files.
+     */
+    private final File directory;
+    /**
+     * Directory of the spill files.
+     */
+    private final File spillDirectory;
+    /**
+     * Memory budget (in bytes).
+     */
+    private final long memoryBudget;
+    /**
+     * Time unit of the series.
+     */
+    private TimeUnit timeUnit = TimeUnit.MINUTES;
+    /**
+     * Number of threads that parse each large file.
+     */
+    private int parallelism = 1;
+    /**
+     * Handles of the series, by meter id.
+     */
+    private final Map<String, Handle> handles = new TreeMap<>();
+    /**
+     * Handles whose series are in memory, from the least to the most
+     * recently requested.
+     */
+    private final LinkedHashSet<Handle> resident = new LinkedHashSet<>();
+    /**
+     * Bytes used by the series in memory and reserved by the reads in
+     * progress.
+     */
+    private long used = 0;
+    /**
+     * Number of reads and spills in progress.
+     */
+    private int inProgress = 0;
+
+    /**
+     * Constructs a catalogue of the series stored in a directory. The files
+     * are found by {@link #scan()}.
+     *
+     * @param directory the directory of the series files.
+     * @param spillDirectory the directory of the spill files (it is created
+     * if needed).
+     * @param memoryBudget the memory budget (in bytes).
+     */
+    public TimeSeriesCatalogue(File directory, File spillDirectory, long memoryBudget) {
+        if (memoryBudget <= 0) {
+            throw new InvalidParameterException("The memory budget must be positive.");
+        }
+        this.directory = directory;
+        this.spillDirectory = spillDirectory;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Set the time unit of the series read from now on.
+     *
+     * @param timeUnit the time unit.
+     */
+    public void setTimeUnit(TimeUnit timeUnit) {
+        this.timeUnit = timeUnit;
+    }
+
+    /**
+     * Set the number of threads that parse each large file (see
+     * {@link TimeSeriesReader#setParallelism(int)}).
+     *
+     * @param parallelism the number of threads.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new InvalidParameterException("The parallelism must be positive.");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the memory budget.
+     *
+     * @return the memory budget (in bytes).
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Returns the bytes used by the series in memory and reserved by the
+     * reads in progress.
+     *
+     * @return the memory usage (in bytes).
+     */
+    public synchronized long getMemoryUsage() {
+        return used;
+    }
+
+    /**
+     * Returns the series files of a directory, sorted by name.
+     *
+     * @param directory the directory.
+     * @return the series files.
+     * @throws IOException if the directory can not be listed.
+     */
+    public static List<File> listFiles(File directory) throws IOException {
+        File files[] = directory.listFiles(f -> f.isFile()
+                && f.getName().toLowerCase(Locale.ROOT).endsWith(CSV_EXTENSION));
+        if (files == null) {
+            throw new IOException("Can not list " + directory);
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Scans the directory, adding a handle for each new series file. The
+     * series are not read.
+     *
+     * @return the number of new handles.
+     * @throws IOException if the directory can not be listed.
+     */
+    public int scan() throws IOException {
+        int added = 0;
+        for (File file : listFiles(directory)) {
+            String id = FleetCoordinator.meterId(file);
+            synchronized (this) {
+                if (!handles.containsKey(id)) {
+                    handles.put(id, new Handle(id, file));
+                    added++;
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Returns the handles of the catalogue, sorted by meter id.
+     *
+     * @return the handles.
+     */
+    public synchronized Collection<Handle> getHandles() {
+        return Collections.unmodifiableList(new ArrayList<>(handles.values()));
+    }
+
+    /**
+     * Returns the handle of a meter.
+     *
+     * @param id the meter id.
+     * @return the handle (null if there is none).
+     */
+    public synchronized Handle getHandle(String id) {
+        return handles.get(id);
+    }
+
+    /**
+     * Reads the series of all the handles, several of them at once.
+     *
+     * @param threads the number of series read at once.
+     * @return the handles whose series could not be read (see
+     * {@link Handle#getError()}).
+     * @throws InterruptedIOException if the thread has been interrupted.
+     */
+    public List<Handle> loadAll(int threads) throws InterruptedIOException {
+        Collection<Handle> all = getHandles();
+        List<Handle> failed = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            for (Handle handle : all) {
+                executor.execute(() -> {
+                    try {
+                        handle.get();
+                    } catch (IOException ex) {
+                        failed.add(handle);
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            throw new InterruptedIOException("Loading cancelled");
+        } finally {
+            executor.shutdownNow();
+        }
+        return failed;
+    }
+
+    /**
+     * Returns the series of a handle, reading or mapping it if needed.
+     *
+     * @param handle the handle.
+     * @return the series of the handle.
+     * @throws IOException if the series can not be read.
+     */
+    private TimeSeries load(Handle handle) throws IOException {
+        synchronized (this) {
+            awaitHandle(handle);
+            if (handle.series != null) {
+                if (resident.remove(handle)) {
+                    resident.add(handle);
+                }
+                return handle.series;
+            }
+            handle.busy = true;
+        }
+        try {
+            TimeSeries series;
+            File spill = spillFile(handle);
+            if (spill.isFile() && spill.lastModified() >= handle.file.lastModified()) {
+                series = new MappedTimeSeries(spill);
+                synchronized (this) {
+                    handle.series = series;
+                }
+            } else {
+                series = read(handle);
+            }
+            handle.error = null;
+            return series;
+        } catch (IOException ex) {
+            handle.error = ex;
+            Logger.getLogger(TimeSeriesCatalogue.class.getName()).log(Level.WARNING,
+                    "Series " + handle.id + " not loaded", ex);
+            throw ex;
+        } finally {
+            synchronized (this) {
+                handle.busy = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Reads the series of a handle from its CSV file, within the budget. The
+     * series is kept in memory, unless it is spilled at once because it does
+     * not fit in the budget.
+     *
+     * @param handle the handle.
+     * @return the series.
+     * @throws IOException if the series can not be read.
+     */
+    private TimeSeries read(Handle handle) throws IOException {
+        long reserved = handle.file.length() / MIN_LINE_LENGTH * BYTES_PER_POINT;
+        reserve(reserved);
+        TimeSeries series = null;
+        try {
+            TimeSeriesReader reader = new TimeSeriesReader(timeUnit, true);
+            reader.setParallelism(parallelism);
+            series = reader.read(handle.file.getPath());
+        } finally {
+            synchronized (this) {
+                used -= reserved;
+                inProgress--;
+                if (series != null) {
+                    handle.series = series;
+                    handle.bytes = (long) series.size() * BYTES_PER_POINT;
+                    used += handle.bytes;
+                    resident.add(handle);
+                }
+                notifyAll();
+            }
+        }
+        trim();
+        return series;
+    }
+
+    /**
+     * Reserves memory for a read, spilling the least recently requested
+     * series if needed. If the memory can not be released, waits for the
+     * reads in progress; a read is always allowed when there is no other one.
+     *
+     * @param bytes the bytes to be reserved.
+     * @throws IOException if a spill file can not be written.
+     */
+    private void reserve(long bytes) throws IOException {
+        while (true) {
+            Handle victim;
+            synchronized (this) {
+                victim = used + bytes > memoryBudget ? nextVictim() : null;
+                if (victim == null) {
+                    if (used + bytes <= memoryBudget || inProgress == 0) {
+                        used += bytes;
+                        inProgress++;
+                        return;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Loading cancelled");
+                    }
+                    continue;
+                }
+            }
+            spill(victim);
+        }
+    }
+
+    /**
+     * Spills the least recently requested series while the budget is
+     * exceeded. If a spill file can not be written, the series is kept in
+     * memory.
+     */
+    private void trim() {
+        while (true) {
+            Handle victim;
+            synchronized (this) {
+                victim = used > memoryBudget ? nextVictim() : null;
+            }
+            if (victim == null) {
+                return;
+            }
+            try {
+                spill(victim);
+            } catch (IOException ex) {
+                Logger.getLogger(TimeSeriesCatalogue.class.getName()).log(Level.WARNING,
+                        "Series " + victim.id + " not spilled", ex);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes the least recently requested series in memory to be spilled.
+     * Must be called holding the lock of the catalogue.
+     *
+     * @return the handle of the series (null if there is none).
+     */
+    private Handle nextVictim() {
+        Iterator<Handle> it = resident.iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        Handle victim = it.next();
+        it.remove();
+        victim.busy = true;
+        inProgress++;
+        return victim;
+    }
+
+    /**
+     * Writes the series of a handle to its spill file and replaces it by the
+     * mapped series.
+     *
+     * @param handle the handle (taken by {@link #nextVictim()}).
+     * @throws IOException if the spill file can not be written.
+     */
+    private void spill(Handle handle) throws IOException {
+        TimeSeries mapped = null;
+        try {
+            File spill = spillFile(handle);
+            if (!spillDirectory.isDirectory() && !spillDirectory.mkdirs() && !spillDirectory.isDirectory()) {
+                throw new IOException("Can not create " + spillDirectory);
+            }
+            MappedTimeSeries.write(handle.series, spill);
+            mapped = new MappedTimeSeries(spill);
+        } finally {
+            synchronized (this) {
+                inProgress--;
+                if (mapped != null) {
+                    handle.series = mapped;
+                    used -= handle.bytes;
+                    handle.bytes = 0;
+                } else {
+                    resident.add(handle);
+                }
+                handle.busy = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until a handle is not being read or spilled. Must be called
+     * holding the lock of the catalogue.
+     *
+     * @param handle the handle.
+     * @throws InterruptedIOException if the thread has been interrupted.
+     */
+    private void awaitHandle(Handle handle) throws InterruptedIOException {
+        while (handle.busy) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Loading cancelled");
+            }
+        }
+    }
+
+    /**
+     * Returns the spill file of a handle.
+     *
+     * @param handle the handle.
+     * @return the spill file.
+     */
+    private File spillFile(Handle handle) {
+        return new File(spillDirectory, handle.id + SPILL_EXTENSION);
+    }
+
+    /**
+     * Class representing the entry of a series in the catalogue. Its series is
+     * read the first time it is requested.
+     */
+    public class Handle {
+        /**
+         * Meter id.
+         */
+        private final String id;
+        /**
+         * Series file.
+         */
+        private final File file;
+        /**
+         * Series, in memory or mapped (null if not loaded).
+         */
+        private TimeSeries series = null;
+        /**
+         * Bytes used by the series in memory (0 if it is not in memory).
+         */
+        private long bytes = 0;
+        /**
+         * Flag that indicates whether the series is being read or spilled.
+         */
+        private boolean busy = false;
+        /**
+         * Error of the last read (null if none).
+         */
+        private volatile IOException error = null;
+
+        /**
+         * Constructs a handle.
+         *
+         * @param id the meter id.
+         * @param file the series file.
+         */
+        private Handle(String id, File file) {
+            this.id = id;
+            this.file = file;
+        }
+
+        /**
+         * Returns the meter id.
+         *
+         * @return the meter id.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Returns the series file.
+         *
+         * @return the series file.
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the series, reading it if it has not been read yet. The
+         * series must not be modified.
+         *
+         * @return the series (in memory or mapped).
+         * @throws IOException if the series can not be read.
+         */
+        public TimeSeries get() throws IOException {
+            return load(this);
+        }
+
+        /**
+         * Returns <tt>true</tt> if the series has been read.
+         *
+         * @return <tt>true</tt> if the series has been read.
+         */
+        public boolean isLoaded() {
+            synchronized (TimeSeriesCatalogue.this) {
+                return series != null;
+            }
+        }
+
+        /**
+         * Returns <tt>true</tt> if the series is mapped from a spill file.
+         *
+         * @return <tt>true</tt> if the series is mapped.
+         */
+        public boolean isSpilled() {
+            synchronized (TimeSeriesCatalogue.this) {
+                return series instanceof MappedTimeSeries;
+            }
+        }
+
+        /**
+         * Returns the error of the last read.
+         *
+         * @return the error (null if none).
+         */
+        public IOException getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return id;
+        }
+    }
+}
@@ -1,20 +1,24 @@
 package energypeakcontrol;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Point;
 import java.awt.RenderingHints;
-import java.awt.Stroke;
-import java.awt.geom.AffineTransform;
-import java.awt.geom.GeneralPath;
+import java.awt.Transparency;
 import java.awt.geom.Point2D;
+import java.awt.image.VolatileImage;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 
 /**
  * Class representing a canvas where a set of time series is shown.
+ * <p>
+ * The static layer of the panel (the axes and the limit lines) is drawn once
+ * in an accelerated image and reused until the size, the limits or the 
+ * transform of the first series change. The drawing itself is done by a
+ * {@link TimeSeriesRenderer}.
  * 
  * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
  */
@@ -23,10 +27,6 @@ public class TimeSeriesPanel extends javax.swing.JPanel {
      *  Time series shown in this panel.
      */
     private final ArrayList<TimeSeries> series = new ArrayList();
-    /**
-     *  Graphs of this time series.
-     */
-    private final ArrayList<GeneralPath> graph = new ArrayList();
     /**
      *  Affine transforms applied before the series plotting.
      */
@@ -36,9 +36,10 @@ public class TimeSeriesPanel extends javax.swing.JPanel {
      */
     private final ArrayList<Boolean> visible = new ArrayList(); 
     /**
-     * Time scale used for plotting 
+     * Time scale used for plotting (pixels per time unit; below 1 the view is
+     * zoomed out and several points share a pixel column)
      */
-    private int timeScale = 1;
+    private double timeScale = 1;
     /**
      * Position of the current time (axis X) relative to the panel origin. 
      */
@@ -61,6 +62,36 @@ public class TimeSeriesPanel extends javax.swing.JPanel {
      * parameters of a trapezoidal membeship function.
      */
     private float limitsLinesY[] = null;    
+    /**
+     * Renderer of the series, axes and limits (zoomed-out views are drawn
+     * from the rollups of the series).
+     */
+    private final TimeSeriesRenderer renderer = new TimeSeriesRenderer(true);
+    /**
+     * Flag that indicates whether the series are drawn with antialiasing.
+     */
+    private boolean antialiasing = true;
+    /**
+     * Image with the static layer of this panel (null until it is painted).
+     */
+    private VolatileImage staticLayer = null;
+    /**
+     * Limits drawn in the static layer.
+     */
+    private float layerLimits[] = null;
+    /**
+     * Translation and scale (Y axis) of the first series when the static 
+     * layer was drawn (NaN if there was no series).
+     */
+    private double layerTy = Double.NaN, layerSy = Double.NaN;
+    /**
+     * Background drawn in the static layer.
+     */
+    private Color layerBackground = null;
+    /**
+     * Flag that indicates whether the static layer has to be drawn again.
+     */
+    private boolean layerInvalid = true;
     
     
     /**
@@ -98,19 +129,11 @@ public class TimeSeriesPanel extends javax.swing.JPanel {
     public final void addTimeSeries(TimeSeries series, double tx, double ty,  double sx, double sy) {
         if (series != null) {
             this.series.add(series); //Note the parameter 'series' is a single time series
-            // Generates the graph associated to the new time series
-            GeneralPath gp = new GeneralPath();
-            if (!series.isEmpty()) {
-                gp.moveTo(series.get(0).getX(), -series.get(0).getY());
-                for (int i = 1; i < series.size(); i++) {
-                    gp.lineTo(series.get(i).getX() * this.timeScale, -series.get(i).getY());
-                }                
-            }
-            graph.add(gp);
             // By default, it is visible
             visible.add(true);
             // Affine transform applied to the graph.
             transformInfo.add(new AffineTransformInfo(tx,ty,sx,sy));
+            layerInvalid = true;
         }
     }
         
@@ -131,34 +154,7 @@ public class TimeSeriesPanel extends javax.swing.JPanel {
      * @param data the data to be added represented as a pair (time, value).
      */
     public void addTimeData(int index, Point2D data){
-        TimeSeries ts = series.get(index);
-        GeneralPath gp = graph.get(index);        
-        //Update the graph
-        if(ts.isEmpty()){
-            gp.moveTo(data.getX(),-data.getY());
-        } else{
-            gp.lineTo(data.getX() * this.timeScale , -data.getY());
-        }            
-        ts.add(data);    
-    }
-    
-    /**
-     * Updates the graphs associated to the time series. This method is called 
-     * when the time scale is changed.
-     */
-    private void updateGraphs() {
-        graph.clear();
-        for(TimeSeries ts: series){
-            // Generates a graph for each time series
-            GeneralPath gp = new GeneralPath();
-            if (!series.isEmpty()) {
-                gp.moveTo(ts.get(0).getX(), -ts.get(0).getY());
-                for (int i = 1; i < ts.size(); i++) {
-                    gp.lineTo(ts.get(i).getX() * this.timeScale, -ts.get(i).getY());
-                }
-            }
-            graph.add(gp);
-        }
+        series.get(index).add(data);    
     }
     
     /**
@@ -198,29 +194,63 @@ public class TimeSeriesPanel extends javax.swing.JPanel {
         this.time = time;       
     }
 
+    /**
+     * Set the current time of this panel as the position of the first point
+     * of the first time series whose timestamp is not before the given one.
+     *
+     * @param timestamp the new current timestamp (in epoch milliseconds).
+     * @return the new current time.
+     */
+    public int setCurrentTimestamp(long timestamp) {
+        TimeSeries ts = getTimeSeries();
+        if (ts != null && !ts.isEmpty()) {
+            this.time = Math.min(ts.seek(timestamp), ts.size() - 1);
+        }
+        return this.time;
+    }
+
     /**
      * Returns the time scale.
      *
      * @return the time scale.
      */
-    public int getTimeScale() {
+    public double getTimeScale() {
         return timeScale;
     }
 
     /**
-     * Set the time scale.
+     * Set the time scale (pixels per time unit). A scale below 1 zooms out
+     * the view, so several points are drawn in each pixel column.
      *
      * @param timeScale
      */
-    public void setTimeScale(int timeScale) {
-        if (timeScale <= 0) {
+    public void setTimeScale(double timeScale) {
+        if (!(timeScale > 0) || Double.isInfinite(timeScale)) {
             throw new InvalidParameterException("The time scale must be positive.");
         }
-        if (this.timeScale != timeScale) {
-            this.timeScale = timeScale;
-            //If the time scale changes, the graph needs to be recalculated
-            this.updateGraphs();
-        }
+        this.timeScale = timeScale;
+    }
+
+    /**
+     * Returns <code>true</code> if the series are drawn with antialiasing.
+     *
+     * @return <code>true</code> if the series are drawn with antialiasing.
+     */
+    public boolean isAntialiasing() {
+        return antialiasing;
+    }
+
+    /**
+     * Set whether the series are drawn with antialiasing (by default, they
+     * are; turning it off reduces the cost of each painting. The static layer
+     * is always antialiased).
+     *
+     * @param antialiasing <code>true</code> to draw the series with 
+     * antialiasing.
+     */
+    public void setAntialiasing(boolean antialiasing) {
+        this.antialiasing = antialiasing;
+        this.repaint();
     }
     
     /**
@@ -236,11 +266,9 @@ public class TimeSeriesPanel extends javax.swing.JPanel {
             //The parameters must satisfy the following condition: a<=b<=c<=d
             limitsLinesY = null;
         } else {
-            limitsLinesY = new float[4];
-            limitsLinesY[0] = a;
-            limitsLinesY[1] = b;
-            limitsLinesY[2] = c;
-            limitsLinesY[3] = d;
+            //A new array is published, so the painting never sees a mix of
+            //the old and new limits
+            limitsLinesY = new float[]{a, b, c, d};
             this.repaint();
         }
     }
@@ -287,9 +315,9 @@ public class TimeSeriesPanel extends javax.swing.JPanel {
      */
     public void clear(){
         this.series.clear();
-        this.graph.clear();
         this.transformInfo.clear();
         this.visible.clear();
+        this.layerInvalid = true;
     }
     
     /**
@@ -299,9 +327,9 @@ public class TimeSeriesPanel extends javax.swing.JPanel {
      */
     public void removeSeries(int index){
         this.series.remove(index);
-        this.graph.remove(index);
         this.transformInfo.remove(index);
         this.visible.remove(index);
+        this.layerInvalid = true;
     }
     
     /**
@@ -333,52 +361,115 @@ public class TimeSeriesPanel extends javax.swing.JPanel {
     public void paint(Graphics g){
         Graphics2D g2d = (Graphics2D)g;
         super.paint(g);
-        // The antialiasing is activated  
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         // The origin is updated taking into account the current size of the panel
         this.originX = this.getWidth()/2;
         this.originY = this.getHeight()/2;
-        //The time axis is drawn
-        this.drawTimeAxis(g2d);
-        //The limits are drawn
-        this.drawLimits(g2d);
+        //The time axis and the limits are drawn
+        this.drawStaticLayer(g2d);
         //The time series is drawn taking into account the current time        
-        for (int i = 0; i < graph.size(); i++) {
+        if (antialiasing) {
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        }
+        for (int i = 0; i < series.size(); i++) {
             if (visible.get(i)) {
-                // The transformation is done in reverse order: first we move the 
-                // central axis to (x, 0), then we scale, then we move to its 
-                // original position + displacement
-                g2d.setTransform(AffineTransform.getTranslateInstance(originX - (time * timeScale) + transformInfo.get(i).tx, originY));
-                g2d.scale(1, transformInfo.get(i).sy);
-                g2d.translate(0, transformInfo.get(i).ty);
                 g2d.setColor(colors[i % colors.length]);
-                g2d.draw(graph.get(i));
+                this.drawSeries(g2d, i);
             }
         }
     }
     
+    /**
+     * Draws the static layer (time axis and limit lines) from its image,
+     * which is drawn again only if its contents have changed or been lost.
+     * 
+     * @param g2d the <code>Graphics2D</code> context in which to paint
+     */
+    private void drawStaticLayer(Graphics2D g2d) {
+        int width = this.getWidth(), height = this.getHeight();
+        GraphicsConfiguration gc = this.getGraphicsConfiguration();
+        if (gc == null || width <= 0 || height <= 0) {
+            //Not displayable: it is drawn directly
+            this.paintStaticLayer(g2d);
+            return;
+        }
+        do {
+            int status = staticLayer == null ? VolatileImage.IMAGE_INCOMPATIBLE : staticLayer.validate(gc);
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE || staticLayer.getWidth() != width
+                    || staticLayer.getHeight() != height) {
+                if (staticLayer != null) {
+                    staticLayer.flush();
+                }
+                staticLayer = gc.createCompatibleVolatileImage(width, height, Transparency.OPAQUE);
+                status = VolatileImage.IMAGE_RESTORED;
+            }
+            if (status == VolatileImage.IMAGE_RESTORED || !isStaticLayerCurrent()) {
+                Graphics2D lg = staticLayer.createGraphics();
+                try {
+                    lg.setColor(this.getBackground());
+                    lg.fillRect(0, 0, width, height);
+                    lg.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                    this.paintStaticLayer(lg);
+                } finally {
+                    lg.dispose();
+                }
+            }
+            g2d.drawImage(staticLayer, 0, 0, null);
+        } while (staticLayer.contentsLost());
+    }
+    
+    /**
+     * Checks whether the static layer shows the current limits and transform
+     * of the first series and, if not, records the ones about to be drawn.
+     * 
+     * @return <code>true</code> if the static layer is up to date.
+     */
+    private boolean isStaticLayerCurrent() {
+        double ty = transformInfo.isEmpty() ? Double.NaN : transformInfo.get(0).ty;
+        double sy = transformInfo.isEmpty() ? Double.NaN : transformInfo.get(0).sy;
+        boolean current = !layerInvalid && layerLimits == limitsLinesY && this.getBackground().equals(layerBackground)
+                && Double.compare(ty, layerTy) == 0 && Double.compare(sy, layerSy) == 0;
+        if (!current) {
+            layerInvalid = false;
+            layerLimits = limitsLinesY;
+            layerBackground = this.getBackground();
+            layerTy = ty;
+            layerSy = sy;
+        }
+        return current;
+    }
+    
+    /**
+     * Paints the static layer (time axis and limit lines).
+     * 
+     * @param g2d the <code>Graphics2D</code> context in which to paint
+     */
+    private void paintStaticLayer(Graphics2D g2d) {
+        this.drawTimeAxis(g2d);
+        this.drawLimits(g2d);
+    }
+    
+    /**
+     * Draws the index-th series taking into account the current time and its
+     * affine transform.
+     * 
+     * @param g2d the <code>Graphics2D</code> context in which to paint
+     * @param index index of the time series
+     */
+    private void drawSeries(Graphics2D g2d, int index) {
+        AffineTransformInfo info = transformInfo.get(index);
+        renderer.drawSeries(g2d, series.get(index), originX + info.tx - (double) time * timeScale, timeScale,
+                originY + info.ty * info.sy, info.sy, this.getWidth());
+    }
+    
     /**
      * Draws the time axis.
      * 
      * @param g2d the <code>Graphics2D</code> context in which to paint
      */
     private void drawTimeAxis(Graphics2D g2d) {
-        float dash[] = {10, 10};
-        BasicStroke sk = new BasicStroke(1.0f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 1.0f, dash, 0);
-        Stroke currentStroke = g2d.getStroke();
-        g2d.setStroke(sk);
-        //X axis
-        g2d.setTransform(AffineTransform.getTranslateInstance(originX, 0));        
-        g2d.setColor(Color.red);
-        g2d.drawLine(0, 0, 0, 4000);
-        //Y axis
-        g2d.setTransform(AffineTransform.getTranslateInstance(0, originY));
-        g2d.setColor(Color.LIGHT_GRAY);
-        g2d.drawLine(0, 0, 4000, 0);    
-        if(!transformInfo.isEmpty()){
-            g2d.drawString(String.valueOf(transformInfo.get(0).ty),7,4);
-        }
-        g2d.setStroke(currentStroke);
+        renderer.drawCurrentTime(g2d, originX, this.getHeight());
+        renderer.drawValueAxis(g2d, originY, this.getWidth(), 
+                transformInfo.isEmpty() ? null : String.valueOf(transformInfo.get(0).ty));
     }
     
     /**
@@ -387,27 +478,10 @@ public class TimeSeriesPanel extends javax.swing.JPanel {
      * @param g2d the <code>Graphics2D</code> context in which to paint
      */
     private void drawLimits(Graphics2D g2d) {
-        if (!this.isEmpty() && limitsLinesY!=null ) {
-            double yA = ((transformInfo.get(0).ty - limitsLinesY[0])*transformInfo.get(0).sy)+originY;            
-            double yB = ((transformInfo.get(0).ty - limitsLinesY[1])*transformInfo.get(0).sy)+originY;
-            double yC = ((transformInfo.get(0).ty - limitsLinesY[2])*transformInfo.get(0).sy)+originY;
-            double yD = ((transformInfo.get(0).ty - limitsLinesY[3])*transformInfo.get(0).sy)+originY;
-            
-            float dash[] = {3, 3};
-            BasicStroke sk = new BasicStroke(1.0f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 1.0f, dash, 0);
-            Stroke currentStroke = g2d.getStroke();
-            g2d.setStroke(sk);
-            g2d.setTransform(new AffineTransform());
-            //Limits
-            g2d.setColor(Color.GRAY);
-            g2d.drawLine(0, (int) yA, 4000, (int) yA);
-            g2d.drawLine(0, (int) yD, 4000, (int) yD);
-            g2d.drawString(String.valueOf(limitsLinesY[0]),7,(int)yA+4);
-            g2d.drawString(String.valueOf(limitsLinesY[3]),7,(int)yD+4);
-            g2d.setColor(new Color(178, 178, 178));
-            g2d.drawLine(0, (int) yB, 4000, (int) yB);
-            g2d.drawLine(0, (int) yC, 4000, (int) yC);
-            g2d.setStroke(currentStroke);
+        float limits[] = limitsLinesY;
+        if (!this.isEmpty() && limits!=null ) {
+            renderer.drawLimits(g2d, limits, transformInfo.get(0).ty, transformInfo.get(0).sy, originY, 
+                    this.getWidth());
         }
     }
     
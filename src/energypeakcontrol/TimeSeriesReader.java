@@ -0,0 +1,600 @@
+package energypeakcontrol;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidParameterException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class that reads time series from CSV files with a header line, ';' as
+ * field separator and, at least, a 'datetime' field (with the format
+ * <tt>yyyy-MM-dd HH:mm:ss</tt>) and a 'voltage' field. If the header does not
+ * name the fields, the first and second ones are used.
+ * <p>
+ * Optionally, the 'label' and 'truth' fields are also read as annotations of
+ * the samples (see {@link TimeSeriesBuilder#setAnnotationsKept(boolean)}).
+ * <p>
+ * The file is read in a single streaming pass; the samples are passed to a
+ * {@link TimeSeriesBuilder}, so gaps and duplicates are detected and, by
+ * default, the series is resampled onto a regular grid.
+ * <p>
+ * A large file can be parsed by several threads (see
+ * {@link #setParallelism(int)}): it is split into byte ranges on line
+ * boundaries, the ranges are mapped and parsed concurrently into primitive
+ * arrays (see {@link CsvChunk}), and the samples are passed to the builder in
+ * the order of the file, so the series is the same as in a sequential reading.
+ * <p>
+ * The progress of a reading can be followed chunk by chunk (see
+ * {@link #setProgressListener(ProgressListener)}), and a reading is cancelled
+ * by interrupting its thread.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class TimeSeriesReader {
+    /**
+     * Field separator.
+     */
+    public static final char SEPARATOR = ';';
+    /**
+     * Name of the date-time field.
+     */
+    public static final String DATETIME_FIELD = "datetime";
+    /**
+     * Name of the voltage field.
+     */
+    public static final String VOLTAGE_FIELD = "voltage";
+    /**
+     * Name of the label field.
+     */
+    public static final String LABEL_FIELD = "label";
+    /**
+     * Name of the truth field.
+     */
+    public static final String TRUTH_FIELD = "truth";
+    /**
+     * Number of lines of each chunk notified to the progress listener.
+     */
+    public static final int PROGRESS_CHUNK = 8192;
+    /**
+     * Minimum size (in bytes) of the files parsed in parallel.
+     */
+    public static final long PARALLEL_MIN_SIZE = 4L << 20;
+    /**
+     * Maximum size (in bytes) of the ranges parsed in parallel.
+     */
+    private static final long MAX_RANGE_SIZE = 16L << 20;
+    /**
+     * Number of ranges per thread when a file is parsed in parallel (so the
+     * threads are kept busy even if some ranges are slower).
+     */
+    private static final int RANGES_PER_THREAD = 4;
+    /**
+     * Maximum number of ranges per thread submitted and not yet passed to
+     * the builder when a file is parsed in parallel.
+     */
+    private static final int RANGES_IN_FLIGHT_PER_THREAD = 2;
+    /**
+     * Maximum length of the header line of a file parsed in parallel.
+     */
+    private static final int MAX_HEADER_LENGTH = 1 << 16;
+    /**
+     * Builder used to create the time series.
+     */
+    private final TimeSeriesBuilder builder;
+    /**
+     * Listener notified after each chunk (null for none).
+     */
+    private ProgressListener progressListener = null;
+    /**
+     * Number of threads that parse a large file.
+     */
+    private int parallelism = 1;
+
+    /**
+     * Constructs a reader that resamples the series onto a regular grid with
+     * one point per minute.
+     */
+    public TimeSeriesReader() {
+        this(TimeUnit.MINUTES, true);
+    }
+
+    /**
+     * Constructs a reader.
+     *
+     * @param timeUnit the time unit of the series.
+     * @param resampling <tt>true</tt> to resample the samples onto a regular
+     * grid, <tt>false</tt> to keep their own timestamps.
+     */
+    public TimeSeriesReader(TimeUnit timeUnit, boolean resampling) {
+        this.builder = new TimeSeriesBuilder(timeUnit, resampling);
+    }
+
+    /**
+     * Set whether the 'label' and 'truth' fields are read. After a reading,
+     * they are available from the builder ({@link TimeSeriesBuilder#getLabels()}
+     * and {@link TimeSeriesBuilder#getTruth()}).
+     *
+     * @param read <tt>true</tt> to read the annotations.
+     */
+    public void setAnnotationsRead(boolean read) {
+        builder.setAnnotationsKept(read);
+    }
+
+    /**
+     * Set the listener notified after each chunk of {@link #PROGRESS_CHUNK}
+     * lines (and at the end of the reading).
+     *
+     * @param listener the progress listener (null for none).
+     */
+    public void setProgressListener(ProgressListener listener) {
+        this.progressListener = listener;
+    }
+
+    /**
+     * Set the number of threads that parse the files of at least
+     * {@link #PARALLEL_MIN_SIZE} bytes. With a parallelism of 1 (the
+     * default), the files are read sequentially.
+     *
+     * @param parallelism the number of threads.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new InvalidParameterException("The parallelism must be positive.");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Returns the number of threads that parse the large files.
+     *
+     * @return the number of threads.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Returns the builder used by this reader. After a reading, it provides
+     * the number of gaps, duplicates and out-of-order samples found.
+     *
+     * @return the builder used by this reader.
+     */
+    public TimeSeriesBuilder getBuilder() {
+        return builder;
+    }
+
+    /**
+     * Reads a time series from a file.
+     *
+     * @param file the file where the time series is stored.
+     * @return a time series with the data stored in the file.
+     * @throws IOException if an I/O error occurs or the file format is not
+     * valid.
+     */
+    public TimeSeries read(String file) throws IOException {
+        File f = new File(file);
+        if (parallelism > 1 && f.length() >= PARALLEL_MIN_SIZE) {
+            return readParallel(f);
+        }
+        try (CountingInputStream in = new CountingInputStream(new FileInputStream(f))) {
+            return read(new InputStreamReader(in, StandardCharsets.UTF_8), in, f.length());
+        }
+    }
+
+    /**
+     * Reads a time series from a character stream.
+     *
+     * @param in the character stream.
+     * @return a time series with the data read from the stream.
+     * @throws IOException if an I/O error occurs or the format is not valid.
+     */
+    public TimeSeries read(Reader in) throws IOException {
+        return read(in, null, -1);
+    }
+
+    /**
+     * Reads a time series from a character stream, notifying the progress
+     * after each chunk.
+     *
+     * @param in the character stream.
+     * @param counter the stream that counts the bytes read (null if unknown).
+     * @param totalBytes the size of the stream (-1 if unknown).
+     * @return a time series with the data read from the stream.
+     * @throws IOException if an I/O error occurs or the format is not valid.
+     * @throws InterruptedIOException if the thread has been interrupted.
+     */
+    private TimeSeries read(Reader in, CountingInputStream counter, long totalBytes) throws IOException {
+        BufferedReader reader = new BufferedReader(in, 1 << 16);
+        String header = reader.readLine();
+        if (header == null) {
+            throw new IOException("Empty file");
+        }
+        int datetimeIndex = fieldIndex(header, DATETIME_FIELD, 0);
+        int voltageIndex = fieldIndex(header, VOLTAGE_FIELD, 1);
+        int labelIndex = fieldIndex(header, LABEL_FIELD, 2);
+        int truthIndex = fieldIndex(header, TRUTH_FIELD, 3);
+        boolean annotated = builder.isAnnotationsKept();
+        ProgressListener listener = progressListener;
+        int notified = 0;
+        String line;
+        int lineNumber = 1;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (lineNumber % PROGRESS_CHUNK == 0) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Reading cancelled at line " + lineNumber);
+                }
+                if (listener != null) {
+                    TimeSeries partial = builder.getSeries();
+                    listener.chunkRead(partial, notified, partial.size(),
+                            counter != null ? counter.count : -1, totalBytes);
+                    notified = partial.size();
+                }
+            }
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                long timestamp = parseDateTime(line, fieldStart(line, datetimeIndex));
+                double value = Double.parseDouble(field(line, voltageIndex));
+                if (annotated) {
+                    int label = Integer.parseInt(field(line, labelIndex).trim());
+                    double truth = Double.parseDouble(field(line, truthIndex));
+                    builder.add(timestamp, value, label, truth);
+                } else {
+                    builder.add(timestamp, value);
+                }
+            } catch (RuntimeException ex) {
+                throw new IOException("Line " + lineNumber + ": " + ex.getMessage(), ex);
+            }
+        }
+        TimeSeries series = builder.finish();
+        if (listener != null) {
+            listener.chunkRead(series, Math.min(notified, series.size()), series.size(),
+                    counter != null ? counter.count : -1, totalBytes);
+        }
+        return series;
+    }
+
+    /**
+     * Reads a time series from a file, parsing ranges of the file in
+     * parallel. The ranges are passed to the builder in order as soon as they
+     * are parsed, and a new range is submitted only when the oldest one has
+     * been passed, so the memory of the parsed samples is bounded by
+     * {@link #RANGES_IN_FLIGHT_PER_THREAD} ranges per thread.
+     *
+     * @param file the file where the time series is stored.
+     * @return a time series with the data stored in the file.
+     * @throws IOException if an I/O error occurs or the file format is not
+     * valid.
+     * @throws InterruptedIOException if the thread has been interrupted.
+     */
+    private TimeSeries readParallel(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            // Header
+            ByteBuffer head = ByteBuffer.allocate((int) Math.min(size, MAX_HEADER_LENGTH));
+            while (head.hasRemaining()) {
+                if (channel.read(head, head.position()) <= 0) {
+                    break;
+                }
+            }
+            int headerLength = 0;
+            while (headerLength < head.position() && head.get(headerLength) != '\n') {
+                headerLength++;
+            }
+            if (headerLength == head.position()) {
+                throw new IOException("No line separator in the first " + head.position() + " bytes");
+            }
+            String header = new String(head.array(), 0, headerLength, StandardCharsets.UTF_8);
+            if (header.endsWith("\r")) {
+                header = header.substring(0, header.length() - 1);
+            }
+            int fields[] = {fieldIndex(header, DATETIME_FIELD, 0), fieldIndex(header, VOLTAGE_FIELD, 1),
+                fieldIndex(header, LABEL_FIELD, 2), fieldIndex(header, TRUTH_FIELD, 3)};
+            boolean annotated = builder.isAnnotationsKept();
+            long bounds[] = splitLines(channel, headerLength + 1, size);
+
+            ProgressListener listener = progressListener;
+            ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+                Thread thread = new Thread(r, "csv-parser");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                int ranges = bounds.length - 1;
+                int inFlight = parallelism * RANGES_IN_FLIGHT_PER_THREAD;
+                ArrayDeque<Future<CsvChunk>> chunks = new ArrayDeque<>(inFlight);
+                int submitted = 0;
+                int lineNumber = 1, notified = 0;
+                for (int i = 0; i < ranges; i++) {
+                    while (submitted < ranges && submitted < i + inFlight) {
+                        long from = bounds[submitted], length = bounds[submitted + 1] - from;
+                        chunks.add(executor.submit(() -> CsvChunk.parse(
+                                channel.map(FileChannel.MapMode.READ_ONLY, from, length), fields, annotated)));
+                        submitted++;
+                    }
+                    CsvChunk chunk = chunks.poll().get();
+                    if (Thread.currentThread().isInterrupted()) {
+                        throw new InterruptedException();
+                    }
+                    for (int j = 0; j < chunk.size; j++) {
+                        if (annotated) {
+                            builder.add(chunk.timestamps[j], chunk.values[j], chunk.labels[j], chunk.truth[j]);
+                        } else {
+                            builder.add(chunk.timestamps[j], chunk.values[j]);
+                        }
+                    }
+                    lineNumber += chunk.lines;
+                    if (chunk.error != null) {
+                        throw new IOException("Line " + lineNumber + ": " + chunk.error.getMessage(), chunk.error);
+                    }
+                    if (listener != null) {
+                        TimeSeries partial = builder.getSeries();
+                        listener.chunkRead(partial, notified, partial.size(), bounds[i + 1], size);
+                        notified = partial.size();
+                    }
+                }
+                TimeSeries series = builder.finish();
+                if (listener != null) {
+                    listener.chunkRead(series, Math.min(notified, series.size()), series.size(), size, size);
+                }
+                return series;
+            } catch (InterruptedException ex) {
+                throw new InterruptedIOException("Reading cancelled");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException(cause.getMessage(), cause);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Splits a range of a file into ranges of complete lines, for them to be
+     * parsed in parallel.
+     *
+     * @param channel the channel of the file.
+     * @param from the start of the range (the beginning of a line).
+     * @param to the end of the range (the end of the file).
+     * @return the bounds of the ranges (from <tt>from</tt> to <tt>to</tt>).
+     * @throws IOException if an I/O error occurs.
+     */
+    private long[] splitLines(FileChannel channel, long from, long to) throws IOException {
+        long length = Math.max(to - from, 0);
+        int count = (int) Math.max(parallelism * RANGES_PER_THREAD, (length + MAX_RANGE_SIZE - 1) / MAX_RANGE_SIZE);
+        long bounds[] = new long[count + 1];
+        bounds[0] = from;
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        for (int i = 1; i < count; i++) {
+            // The first line that starts at or after the even split
+            long position = Math.max(from + length * i / count, bounds[i - 1]);
+            long bound = to;
+            if (position > from) {
+                for (long p = position - 1; p < to && bound == to; p += buffer.limit()) {
+                    buffer.clear();
+                    if (channel.read(buffer, p) <= 0) {
+                        break;
+                    }
+                    buffer.flip();
+                    for (int j = 0; j < buffer.limit(); j++) {
+                        if (buffer.get(j) == '\n') {
+                            bound = p + j + 1;
+                            break;
+                        }
+                    }
+                }
+            } else {
+                bound = position;
+            }
+            bounds[i] = bound;
+        }
+        bounds[count] = to;
+        return bounds;
+    }
+
+    /**
+     * Returns the position of the given field in the header.
+     *
+     * @param header the header line.
+     * @param name the name of the field.
+     * @param defaultIndex the position returned if the field is not found.
+     * @return the position of the field.
+     */
+    static int fieldIndex(String header, String name, int defaultIndex) {
+        String[] fields = header.split(String.valueOf(SEPARATOR));
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].trim().equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return defaultIndex;
+    }
+
+    /**
+     * Returns the offset of the given field in a line.
+     *
+     * @param line the line.
+     * @param index the position of the field.
+     * @return the offset of the first character of the field.
+     */
+    private static int fieldStart(String line, int index) {
+        int from = 0;
+        for (int i = 0; i < index; i++) {
+            from = line.indexOf(SEPARATOR, from) + 1;
+            if (from == 0) {
+                throw new NumberFormatException("Missing field " + index);
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Returns the given field of a line.
+     *
+     * @param line the line.
+     * @param index the position of the field.
+     * @return the field.
+     */
+    private static String field(String line, int index) {
+        int from = fieldStart(line, index);
+        int to = line.indexOf(SEPARATOR, from);
+        return line.substring(from, to < 0 ? line.length() : to);
+    }
+
+    /**
+     * Parses a date-time with the fixed format <tt>yyyy-MM-dd HH:mm:ss</tt>
+     * (a 'T' is also allowed as date-time separator, and the seconds may be
+     * followed by a fraction). The date-time is interpreted as UTC, so there
+     * are no gaps or duplicates due to daylight saving changes.
+     *
+     * @param s the character sequence containing the date-time.
+     * @param from the offset of the date-time in the sequence.
+     * @return the date-time in epoch milliseconds.
+     * @throws NumberFormatException if the date-time is not valid.
+     */
+    public static long parseDateTime(CharSequence s, int from) {
+        if (s.length() < from + 19 || s.charAt(from + 4) != '-' || s.charAt(from + 7) != '-'
+                || (s.charAt(from + 10) != ' ' && s.charAt(from + 10) != 'T')
+                || s.charAt(from + 13) != ':' || s.charAt(from + 16) != ':') {
+            throw new NumberFormatException("Invalid date-time");
+        }
+        int year = digits(s, from, 4);
+        int month = digits(s, from + 5, 2);
+        int day = digits(s, from + 8, 2);
+        int hour = digits(s, from + 11, 2);
+        int minute = digits(s, from + 14, 2);
+        int second = digits(s, from + 17, 2);
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 60) {
+            throw new NumberFormatException("Invalid date-time");
+        }
+        int millis = 0;
+        int i = from + 19;
+        if (i < s.length() && s.charAt(i) == '.') {
+            int scale = 100;
+            for (i++; i < s.length() && Character.isDigit(s.charAt(i)); i++) {
+                millis += (s.charAt(i) - '0') * scale;
+                scale /= 10;
+            }
+        }
+        long days = daysFromCivil(year, month, day);
+        return ((days * 24 + hour) * 60 + minute) * 60_000L + second * 1000L + millis;
+    }
+
+    /**
+     * Parses a fixed number of decimal digits.
+     *
+     * @param s the character sequence.
+     * @param from the offset of the first digit.
+     * @param n the number of digits.
+     * @return the parsed number.
+     */
+    private static int digits(CharSequence s, int from, int n) {
+        int value = 0;
+        for (int i = from; i < from + n; i++) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                throw new NumberFormatException("Invalid date-time");
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the number of days from 1970-01-01 to the given date of the
+     * proleptic Gregorian calendar.
+     *
+     * @param year the year.
+     * @param month the month (1-12).
+     * @param day the day of the month (1-31).
+     * @return the number of days since the epoch.
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+
+    /**
+     * Listener of the progress of a reading.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Invoked, in the reading thread, after each chunk of lines. The
+         * points are appended to the series being built, which must not be
+         * kept or modified by the listener (the new points must be copied).
+         *
+         * @param series the series being built.
+         * @param from index of the first point appended since the previous
+         * notification.
+         * @param to index after the last point appended.
+         * @param bytesRead the number of bytes read (-1 if unknown).
+         * @param totalBytes the size of the input (-1 if unknown).
+         */
+        void chunkRead(TimeSeries series, int from, int to, long bytesRead, long totalBytes);
+    }
+
+    /**
+     * Input stream that counts the bytes read.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        /**
+         * Number of bytes read.
+         */
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
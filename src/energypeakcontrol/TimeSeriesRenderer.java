@@ -0,0 +1,393 @@
+package energypeakcontrol;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Stroke;
+import java.util.Arrays;
+
+/**
+ * Class that draws time series, the axes and the limit lines on a
+ * <code>Graphics2D</code> context. It is used by the {@link TimeSeriesPanel}
+ * and, without any Swing component, by the {@link ChartExporter}.
+ * <p>
+ * The series are drawn as polylines of screen coordinates calculated only for
+ * the visible points. When there are several points per pixel column, they
+ * are decimated to the first, minimum, maximum and last value of each column,
+ * so the peaks are kept while the number of drawn points is bounded by the
+ * width. A renderer can also draw the zoomed-out series from their
+ * {@link Rollups}: when the buckets of a rollup level fit in a pixel column,
+ * the minimum and maximum of each column are taken from the buckets instead
+ * of the raw points.
+ * <p>
+ * A renderer reuses its coordinate buffers between drawings, so it must not
+ * be shared by several threads.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class TimeSeriesRenderer {
+    /**
+     * Stroke of the axes.
+     */
+    private static final BasicStroke AXIS_STROKE = new BasicStroke(1.0f, BasicStroke.CAP_BUTT,
+            BasicStroke.JOIN_MITER, 1.0f, new float[]{10, 10}, 0);
+    /**
+     * Stroke of the limit lines.
+     */
+    private static final BasicStroke LIMITS_STROKE = new BasicStroke(1.0f, BasicStroke.CAP_BUTT,
+            BasicStroke.JOIN_MITER, 1.0f, new float[]{3, 3}, 0);
+    /**
+     * Color of the intermediate limit lines.
+     */
+    private static final Color INTERMEDIATE_LIMITS_COLOR = new Color(178, 178, 178);
+    /**
+     * Maximum absolute value of a screen coordinate (the points beyond it are
+     * clamped).
+     */
+    private static final int MAX_COORDINATE = 1 << 20;
+    /**
+     * Screen coordinates of the polyline being drawn.
+     */
+    private int xPoints[] = new int[256], yPoints[] = new int[256];
+    /**
+     * Number of points of the polyline being drawn.
+     */
+    private int count = 0;
+    /**
+     * Flag that indicates whether the zoomed-out series are drawn from their
+     * rollups.
+     */
+    private final boolean useRollups;
+
+    /**
+     * Constructs a renderer that draws the series from their raw points.
+     */
+    public TimeSeriesRenderer() {
+        this(false);
+    }
+
+    /**
+     * Constructs a renderer.
+     *
+     * @param useRollups <code>true</code> if the zoomed-out series are drawn
+     * from their rollups (which are created if needed).
+     */
+    public TimeSeriesRenderer(boolean useRollups) {
+        this.useRollups = useRollups;
+    }
+
+    /**
+     * Draws the current time as a vertical line.
+     *
+     * @param g2d the <code>Graphics2D</code> context in which to paint
+     * @param x the X coordinate of the current time.
+     * @param height the height of the drawing area.
+     */
+    public void drawCurrentTime(Graphics2D g2d, int x, int height) {
+        Stroke currentStroke = g2d.getStroke();
+        g2d.setStroke(AXIS_STROKE);
+        g2d.setColor(Color.red);
+        g2d.drawLine(x, 0, x, height);
+        g2d.setStroke(currentStroke);
+    }
+
+    /**
+     * Draws the value axis as a horizontal line.
+     *
+     * @param g2d the <code>Graphics2D</code> context in which to paint
+     * @param y the Y coordinate of the axis.
+     * @param width the width of the drawing area.
+     * @param label the label of the axis (null for none).
+     */
+    public void drawValueAxis(Graphics2D g2d, int y, int width, String label) {
+        Stroke currentStroke = g2d.getStroke();
+        g2d.setStroke(AXIS_STROKE);
+        g2d.setColor(Color.LIGHT_GRAY);
+        g2d.drawLine(0, y, width, y);
+        if (label != null) {
+            g2d.drawString(label, 7, y + 4);
+        }
+        g2d.setStroke(currentStroke);
+    }
+
+    /**
+     * Draws the limit lines.
+     *
+     * @param g2d the <code>Graphics2D</code> context in which to paint
+     * @param limits the values of the four limits.
+     * @param ty the value shown at the value axis.
+     * @param sy the factor by which the values are scaled.
+     * @param originY the Y coordinate of the value axis.
+     * @param width the width of the drawing area.
+     */
+    public void drawLimits(Graphics2D g2d, float limits[], double ty, double sy, int originY, int width) {
+        double yA = ((ty - limits[0]) * sy) + originY;
+        double yB = ((ty - limits[1]) * sy) + originY;
+        double yC = ((ty - limits[2]) * sy) + originY;
+        double yD = ((ty - limits[3]) * sy) + originY;
+
+        Stroke currentStroke = g2d.getStroke();
+        g2d.setStroke(LIMITS_STROKE);
+        //Limits
+        g2d.setColor(Color.GRAY);
+        g2d.drawLine(0, (int) yA, width, (int) yA);
+        g2d.drawLine(0, (int) yD, width, (int) yD);
+        g2d.drawString(String.valueOf(limits[0]), 7, (int) yA + 4);
+        g2d.drawString(String.valueOf(limits[3]), 7, (int) yD + 4);
+        g2d.setColor(INTERMEDIATE_LIMITS_COLOR);
+        g2d.drawLine(0, (int) yB, width, (int) yB);
+        g2d.drawLine(0, (int) yC, width, (int) yC);
+        g2d.setStroke(currentStroke);
+    }
+
+    /**
+     * Draws a series with the current color. A point (time, value) is drawn
+     * at (<code>offsetX + time*scaleX</code>, <code>offsetY -
+     * value*scaleY</code>); the polyline is broken at the non finite values.
+     *
+     * @param g2d the <code>Graphics2D</code> context in which to paint
+     * @param ts the time series.
+     * @param offsetX the X coordinate of the time 0.
+     * @param scaleX the number of pixels per time unit.
+     * @param offsetY the Y coordinate of the value 0.
+     * @param scaleY the number of pixels per value unit.
+     * @param width the width of the drawing area.
+     */
+    public void drawSeries(Graphics2D g2d, TimeSeries ts, double offsetX, double scaleX, double offsetY,
+            double scaleY, int width) {
+        int n = ts.size();
+        if (n == 0 || !(scaleX > 0)) {
+            return;
+        }
+        // Visible points (and one more at each side, so the lines reach the borders)
+        int from = Math.max(indexOfTime(ts, n, -offsetX / scaleX) - 1, 0);
+        int to = Math.min(indexOfTime(ts, n, (width - offsetX) / scaleX) + 1, n);
+        count = 0;
+        if (scaleX < 1 && useRollups && drawRollup(g2d, ts, from, to, offsetX, scaleX, offsetY, scaleY)) {
+            return;
+        }
+        if (scaleX >= 1) {
+            for (int i = from; i < to; i++) {
+                double v = ts.getValue(i);
+                if (Double.isNaN(v) || Double.isInfinite(v)) {
+                    flush(g2d);
+                } else {
+                    add(toCoordinate(offsetX + ts.getTime(i) * scaleX), toCoordinate(offsetY - v * scaleY));
+                }
+            }
+        } else {
+            // Decimation: first, minimum, maximum and last value of each column
+            int column = Integer.MIN_VALUE;
+            double first = 0, min = 0, max = 0, last = 0;
+            boolean minFirst = true;
+            for (int i = from; i < to; i++) {
+                double v = ts.getValue(i);
+                if (Double.isNaN(v) || Double.isInfinite(v)) {
+                    if (column != Integer.MIN_VALUE) {
+                        addColumn(column, first, min, max, last, minFirst, offsetY, scaleY);
+                        column = Integer.MIN_VALUE;
+                    }
+                    flush(g2d);
+                    continue;
+                }
+                int c = toCoordinate(offsetX + ts.getTime(i) * scaleX);
+                if (c != column) {
+                    if (column != Integer.MIN_VALUE) {
+                        addColumn(column, first, min, max, last, minFirst, offsetY, scaleY);
+                    }
+                    column = c;
+                    first = min = max = last = v;
+                    minFirst = true;
+                } else {
+                    if (v < min) {
+                        min = v;
+                        minFirst = false;
+                    } else if (v > max) {
+                        max = v;
+                        minFirst = true;
+                    }
+                    last = v;
+                }
+            }
+            if (column != Integer.MIN_VALUE) {
+                addColumn(column, first, min, max, last, minFirst, offsetY, scaleY);
+            }
+        }
+        flush(g2d);
+    }
+
+    /**
+     * Draws the visible part of a series from the finest rollup level whose
+     * buckets fit in a pixel column: the minimum and maximum of each column
+     * are those of its buckets. A bucket is placed at the time of its first
+     * point.
+     *
+     * @param g2d the <code>Graphics2D</code> context in which to paint
+     * @param ts the time series.
+     * @param from the index of the first visible point.
+     * @param to the index after the last visible point.
+     * @param offsetX the X coordinate of the time 0.
+     * @param scaleX the number of pixels per time unit.
+     * @param offsetY the Y coordinate of the value 0.
+     * @param scaleY the number of pixels per value unit.
+     * @return <code>false</code> if no rollup level fits in a pixel column
+     * (and nothing has been drawn).
+     */
+    private boolean drawRollup(Graphics2D g2d, TimeSeries ts, int from, int to, double offsetX, double scaleX,
+            double offsetY, double scaleY) {
+        if (from >= to) {
+            return true;
+        }
+        // Length of a pixel column in milliseconds
+        double columnLength = ts.getTimeUnit().toNanos(1) / 1e6 / scaleX;
+        Rollups.Rollup rollup = ts.getRollups().getLevelFor((long) columnLength);
+        if (rollup.getResolution() > columnLength) {
+            return false;
+        }
+        int first = rollup.find(ts.getTimestamp(from));
+        int last = rollup.find(ts.getTimestamp(to - 1));
+        first = first < 0 ? -first - 1 : first;
+        last = last < 0 ? -last - 2 : last;
+        int column = Integer.MIN_VALUE;
+        double min = 0, max = 0;
+        for (int i = first; i <= last; i++) {
+            double bmin = rollup.getMin(i), bmax = rollup.getMax(i);
+            if (Double.isNaN(bmin) || Double.isNaN(bmax) || Double.isInfinite(bmin) || Double.isInfinite(bmax)) {
+                if (column != Integer.MIN_VALUE) {
+                    addRange(column, min, max, offsetY, scaleY);
+                    column = Integer.MIN_VALUE;
+                }
+                flush(g2d);
+                continue;
+            }
+            int index = Math.min(ts.seek(rollup.getStart(i)), to - 1);
+            int c = toCoordinate(offsetX + ts.getTime(index) * scaleX);
+            if (c != column) {
+                if (column != Integer.MIN_VALUE) {
+                    addRange(column, min, max, offsetY, scaleY);
+                }
+                column = c;
+                min = bmin;
+                max = bmax;
+            } else {
+                min = Math.min(min, bmin);
+                max = Math.max(max, bmax);
+            }
+        }
+        if (column != Integer.MIN_VALUE) {
+            addRange(column, min, max, offsetY, scaleY);
+        }
+        flush(g2d);
+        return true;
+    }
+
+    /**
+     * Adds the minimum and maximum of a pixel column to the polyline, the one
+     * nearer to the previous point first (the order of the values in the
+     * column is unknown).
+     *
+     * @param x the X coordinate of the column.
+     * @param min the minimum value of the column.
+     * @param max the maximum value of the column.
+     * @param offsetY the Y coordinate of the value 0.
+     * @param scaleY the number of pixels per value unit.
+     */
+    private void addRange(int x, double min, double max, double offsetY, double scaleY) {
+        int yMin = toCoordinate(offsetY - min * scaleY), yMax = toCoordinate(offsetY - max * scaleY);
+        if (count > 0 && Math.abs(yPoints[count - 1] - yMax) < Math.abs(yPoints[count - 1] - yMin)) {
+            add(x, yMax);
+            add(x, yMin);
+        } else {
+            add(x, yMin);
+            add(x, yMax);
+        }
+    }
+
+    /**
+     * Adds the points of a pixel column to the polyline, keeping the order
+     * in which the minimum and maximum values appeared.
+     *
+     * @param x the X coordinate of the column.
+     * @param first the first value of the column.
+     * @param min the minimum value of the column.
+     * @param max the maximum value of the column.
+     * @param last the last value of the column.
+     * @param minFirst <code>true</code> if the minimum appeared before the
+     * maximum.
+     * @param offsetY the Y coordinate of the value 0.
+     * @param scaleY the number of pixels per value unit.
+     */
+    private void addColumn(int x, double first, double min, double max, double last, boolean minFirst,
+            double offsetY, double scaleY) {
+        add(x, toCoordinate(offsetY - first * scaleY));
+        if (min != max) {
+            add(x, toCoordinate(offsetY - (minFirst ? min : max) * scaleY));
+            add(x, toCoordinate(offsetY - (minFirst ? max : min) * scaleY));
+        }
+        add(x, toCoordinate(offsetY - last * scaleY));
+    }
+
+    /**
+     * Adds a point to the polyline, skipping it if it repeats the previous
+     * one.
+     *
+     * @param x the X coordinate.
+     * @param y the Y coordinate.
+     */
+    private void add(int x, int y) {
+        if (count > 0 && xPoints[count - 1] == x && yPoints[count - 1] == y) {
+            return;
+        }
+        if (count == xPoints.length) {
+            xPoints = Arrays.copyOf(xPoints, count * 2);
+            yPoints = Arrays.copyOf(yPoints, count * 2);
+        }
+        xPoints[count] = x;
+        yPoints[count] = y;
+        count++;
+    }
+
+    /**
+     * Draws the polyline and starts a new one.
+     *
+     * @param g2d the <code>Graphics2D</code> context in which to paint
+     */
+    private void flush(Graphics2D g2d) {
+        if (count > 1) {
+            g2d.drawPolyline(xPoints, yPoints, count);
+        }
+        count = 0;
+    }
+
+    /**
+     * Returns the index of the first point of a series whose time is not
+     * before the given one (the times of the series are increasing).
+     *
+     * @param ts the time series.
+     * @param n the number of points of the series.
+     * @param t the time.
+     * @return the index of the point (<code>n</code> if there is none).
+     */
+    private static int indexOfTime(TimeSeries ts, int n, double t) {
+        int low = 0, high = n;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ts.getTime(mid) < t) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Rounds a screen coordinate, clamping it to {@link #MAX_COORDINATE}.
+     *
+     * @param v the screen coordinate.
+     * @return the rounded coordinate.
+     */
+    private static int toCoordinate(double v) {
+        return (int) Math.round(Math.max(-MAX_COORDINATE, Math.min(MAX_COORDINATE, v)));
+    }
+}
@@ -0,0 +1,122 @@
+package energypeakcontrol;
+
+/**
+ * Class representing a read-only view of a range of points of a time series.
+ * The points are not copied: the view accesses the points of the original
+ * series, keeping their values and timestamps. The times are relative to the
+ * first point of the view (whose time is 0), as in a series holding a copy of
+ * the range, so the view can be simulated and drawn as any other series.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class TimeSeriesView extends BackedTimeSeries {
+    /**
+     * Serial version of the class.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Original time series.
+     */
+    private final TimeSeries parent;
+    /**
+     * Index in the original series of the first point of the view.
+     */
+    private final int offset;
+    /**
+     * Number of points of the view.
+     */
+    private final int length;
+    /**
+     * Time in the original series of the first point of the view (0 if the
+     * view is empty).
+     */
+    private final double origin;
+
+    /**
+     * Constructs a view of a range of points of a time series.
+     *
+     * @param parent the original time series.
+     * @param fromIndex index of the first point of the range (inclusive).
+     * @param toIndex index of the last point of the range (exclusive).
+     * @throws IndexOutOfBoundsException if the range is out of the series.
+     */
+    public TimeSeriesView(TimeSeries parent, int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > parent.size() || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("Range: [" + fromIndex + "," + toIndex + "), Size: " + parent.size());
+        }
+        this.parent = parent;
+        this.offset = fromIndex;
+        this.length = toIndex - fromIndex;
+        this.origin = length > 0 ? parent.getTime(fromIndex) : 0;
+        setTimeUnit(parent.getTimeUnit());
+        setStartTime(parent.getStartTime());
+        //The time 0 of the view is the time of its first point
+        setEpoch(parent.getEpoch() + (long) Math.floor(origin * parent.getTimeUnit().toNanos(1) / 1e6));
+    }
+
+    /**
+     * Returns the original time series.
+     *
+     * @return the original time series.
+     */
+    public TimeSeries getParent() {
+        return parent;
+    }
+
+    /**
+     * Returns the index in the original series of the first point of this
+     * view.
+     *
+     * @return the offset of this view.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    @Override
+    public int size() {
+        return length;
+    }
+
+    /**
+     * Returns the time of the point at the specified position in this view,
+     * relative to the first point of the view.
+     *
+     * @param index index of the point.
+     * @return the time of the point at the specified position.
+     */
+    @Override
+    public double getTime(int index) {
+        return parent.getTime(offset + index) - origin;
+    }
+
+    @Override
+    public double getValue(int index) {
+        return parent.getValue(offset + index);
+    }
+
+    @Override
+    public boolean isRegular() {
+        return parent.isRegular();
+    }
+
+    @Override
+    public long getTimestamp(int index) {
+        return parent.getTimestamp(offset + index);
+    }
+
+    @Override
+    public BlockIndex.Summary summarize(int fromIndex, int toIndex) {
+        fromIndex = Math.max(fromIndex, 0);
+        toIndex = Math.min(toIndex, length);
+        return parent.summarize(offset + fromIndex, offset + toIndex);
+    }
+
+    @Override
+    public TimeSeries view(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > length || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("Range: [" + fromIndex + "," + toIndex + "), Size: " + length);
+        }
+        return new TimeSeriesView(parent, offset + fromIndex, offset + toIndex);
+    }
+}
@@ -25,6 +25,11 @@ import java.util.function.Function;
  * 
  * The parameters <tt>a</tt> and <tt>d</tt> locate the "feet" of the trapezoid 
  * and the parameters <tt>b</tt> and <tt>c</tt> locate the "shoulders".
+ * <p>
+ * The four parameters are stored as an immutable snapshot which is replaced 
+ * as a whole when they are changed, so the function can be retuned while 
+ * other threads are applying it: each evaluation uses either the old or the 
+ * new parameters, never a mix of both.
  * 
  * @param <D> unidimensional domain of the function
  * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
@@ -32,21 +37,9 @@ import java.util.function.Function;
 public class TrapezoidalFunction<D extends Number> implements Function<D, Double>{
 
     /**
-     * Parameter 'a' of the trapezoidal function.
+     * Current parameters of the trapezoidal function.
      */
-    private double a;
-    /**
-     * Parameter 'b' of the trapezoidal function.
-     */
-    private double b;
-    /**
-     * Parameter 'c' of the trapezoidal function.
-     */
-    private double c;
-    /**
-     * Parameter 'd' of the trapezoidal function.
-     */
-    private double d;
+    private volatile Parameters parameters;
 
     /**
      * Constructs a trapezoidal function.
@@ -68,12 +61,18 @@ public class TrapezoidalFunction<D extends Number> implements Function<D, Double
      */
     @Override
     public Double apply(D x) {
-        double xd = x.doubleValue();
-        //If a!=b straight line with its slope; else, step function
-        double f1 = b != a ? (xd - a) / (b - a) : (xd >= a ? 1.0 : 0.0);
-        double f2 = d != c ? (d - xd) / (d - c) : (xd <= c ? 1.0 : 0.0);
-        return (Math.max(Math.min(Math.min(f1, 1), f2), 0));
-
+        return applyAsDouble(x.doubleValue());
+    }
+    
+    /**
+     * Applies this membership function to the given argument (without boxing
+     * the argument or the result).
+     * 
+     * @param xd the function argument.
+     * @return the function result.
+     */
+    public double applyAsDouble(double xd) {
+        return parameters.apply(xd);
     }
 
     /**
@@ -88,10 +87,7 @@ public class TrapezoidalFunction<D extends Number> implements Function<D, Double
         if (a > b || b > c || c > d) {
             throw new InvalidParameterException("The parameters must satisfy the following condition: a<=b<=c<=d");
         }
-        this.a = a;
-        this.b = b;
-        this.c = c;
-        this.d = d;
+        this.parameters = new Parameters(a, b, c, d);
     }
 
     /**
@@ -100,8 +96,8 @@ public class TrapezoidalFunction<D extends Number> implements Function<D, Double
      * @return a vector with the four parameters of this trapezoidal function.
      */
     public double[] getParameters() {
-        double p[] = {a, b, c, d};
-        return p;
+        Parameters p = parameters;
+        return new double[]{p.a, p.b, p.c, p.d};
     }
     
     /**
@@ -112,8 +108,9 @@ public class TrapezoidalFunction<D extends Number> implements Function<D, Double
      */
     
     public Interval<Double> alphaCut(double alpha) {
-        Double interval_a = (b - a)*alpha + a;
-        Double interval_b = d - (d - c)*alpha;
+        Parameters p = parameters;
+        Double interval_a = (p.b - p.a)*alpha + p.a;
+        Double interval_b = p.d - (p.d - p.c)*alpha;
         return new Interval<>(interval_a, interval_b);
     }
     
@@ -124,6 +121,37 @@ public class TrapezoidalFunction<D extends Number> implements Function<D, Double
      */
     @Override
     public String toString(){
-        return this.getClass().getSimpleName()+"("+a+","+b+","+c+","+d+")";
+        Parameters p = parameters;
+        return this.getClass().getSimpleName()+"("+p.a+","+p.b+","+p.c+","+p.d+")";
+    }
+    
+    /**
+     * Immutable snapshot of the four parameters of the function.
+     */
+    private static final class Parameters {
+        /**
+         * Parameters 'a', 'b', 'c' and 'd' of the trapezoidal function.
+         */
+        private final double a, b, c, d;
+
+        Parameters(double a, double b, double c, double d) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+        }
+
+        /**
+         * Applies the membership function defined by these parameters.
+         *
+         * @param xd the function argument.
+         * @return the function result.
+         */
+        double apply(double xd) {
+            //If a!=b straight line with its slope; else, step function
+            double f1 = b != a ? (xd - a) / (b - a) : (xd >= a ? 1.0 : 0.0);
+            double f2 = d != c ? (d - xd) / (d - c) : (xd <= c ? 1.0 : 0.0);
+            return (Math.max(Math.min(Math.min(f1, 1), f2), 0));
+        }
     }
 }
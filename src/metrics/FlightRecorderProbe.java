@@ -0,0 +1,99 @@
+package metrics;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class that emits Java Flight Recorder events for the times processed by a
+ * simulator ({@link TickEvent}) and for their notification to the listeners
+ * ({@link ListenerDispatchEvent}), so a run can be profiled with the standard
+ * JFR tools (for example, starting the JVM with
+ * <code>-XX:StartFlightRecording</code>).
+ * <p>
+ * The events are only committed while a recording with them enabled is in
+ * progress. Each probe is used by a single simulation thread. The Flight
+ * Recorder API needs Java 11 (the version targeted by the project), but a
+ * runtime may be built without the <code>jdk.jfr</code> module: its classes
+ * are only loaded when a probe is created, so this class must not be used if
+ * {@link #isAvailable()} is <code>false</code>.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class FlightRecorderProbe {
+    /**
+     * Event of the time being processed.
+     */
+    private TickEvent tick = null;
+    /**
+     * Event of the notification in progress.
+     */
+    private ListenerDispatchEvent dispatch = null;
+
+    /**
+     * Returns <code>true</code> if the Flight Recorder is available in this
+     * JVM.
+     *
+     * @return <code>true</code> if the Flight Recorder is available.
+     */
+    public static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, FlightRecorderProbe.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError ex) {
+            Logger.getLogger(FlightRecorderProbe.class.getName()).log(Level.FINE, "Flight Recorder not available", ex);
+            return false;
+        }
+    }
+
+    /**
+     * Marks the beginning of the processing of a time.
+     */
+    public void beginTick() {
+        tick = new TickEvent();
+        tick.begin();
+    }
+
+    /**
+     * Marks the end of the processing of a time, committing its event.
+     *
+     * @param time the processed time.
+     * @param dangerDegree the danger degree of the time.
+     * @param injection the voltage injected at the time.
+     */
+    public void endTick(int time, double dangerDegree, double injection) {
+        TickEvent e = tick;
+        tick = null;
+        e.end();
+        if (e.shouldCommit()) {
+            e.time = time;
+            e.dangerDegree = dangerDegree;
+            e.injection = injection;
+            e.commit();
+        }
+    }
+
+    /**
+     * Marks the beginning of the notification of a time to the listeners.
+     */
+    public void beginDispatch() {
+        dispatch = new ListenerDispatchEvent();
+        dispatch.begin();
+    }
+
+    /**
+     * Marks the end of the notification of a time, committing its event.
+     *
+     * @param time the notified time.
+     * @param listeners the number of notified listeners.
+     */
+    public void endDispatch(int time, int listeners) {
+        ListenerDispatchEvent e = dispatch;
+        dispatch = null;
+        e.end();
+        if (e.shouldCommit()) {
+            e.time = time;
+            e.listeners = listeners;
+            e.commit();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class representing a histogram of latencies (in nanoseconds) with a bounded
+ * relative error.
+ * <p>
+ * The values are counted in log-linear buckets: values below 128 have their
+ * own bucket and, above it, each power of two is divided in 64 buckets of the
+ * same width, so the value of a percentile is known with a relative error
+ * below 1/64 (about 1.6%) over the whole range of <code>long</code>, with a
+ * fixed memory footprint. The recording does not allocate and does not lock,
+ * so it can be used from many threads at once.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class LatencyHistogram {
+    /**
+     * Number of bits of the sub-buckets of each power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 6;
+    /**
+     * Number of sub-buckets of each power of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Number of buckets (enough for any non negative long).
+     */
+    private static final int BUCKETS = bucketIndex(Long.MAX_VALUE) + 1;
+    /**
+     * Count of values per bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    /**
+     * Number of recorded values.
+     */
+    private final AtomicLong count = new AtomicLong();
+    /**
+     * Sum of the recorded values.
+     */
+    private final AtomicLong sum = new AtomicLong();
+    /**
+     * Maximum recorded value.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. The negative values are recorded as zero.
+     *
+     * @param nanos the value (in nanoseconds).
+     */
+    public void record(long nanos) {
+        long v = Math.max(nanos, 0);
+        counts.incrementAndGet(bucketIndex(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+            //Retries until the maximum is updated or a greater one is found
+        }
+    }
+
+    /**
+     * Returns the bucket of a value.
+     *
+     * @param v the value (non negative).
+     * @return the index of the bucket.
+     */
+    private static int bucketIndex(long v) {
+        if (v < 2 * SUB_BUCKETS) {
+            return (int) v;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (v >>> shift);
+    }
+
+    /**
+     * Returns the greatest value counted in a bucket.
+     *
+     * @param index the index of the bucket.
+     * @return the greatest value of the bucket.
+     */
+    private static long bucketUpperBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long mantissa = index - ((long) shift << SUB_BUCKET_BITS);
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return the number of recorded values.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return the mean (in nanoseconds, 0 if there is no value).
+     */
+    public double getMean() {
+        long n = count.get();
+        return n > 0 ? (double) sum.get() / n : 0.0;
+    }
+
+    /**
+     * Returns the maximum recorded value.
+     *
+     * @return the maximum (in nanoseconds, 0 if there is no value).
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below which a given percentage of the recorded values
+     * falls (with a relative error below 1/64).
+     *
+     * @param percentile the percentage (between 0 and 100).
+     * @return the value of the percentile (in nanoseconds, 0 if there is no
+     * value).
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Clears the recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Returns a string representation of this histogram.
+     *
+     * @return a string representation of this histogram.
+     */
+    @Override
+    public String toString() {
+        return "LatencyHistogram: [count=" + getCount() + ", mean=" + getMean() + ", p50="
+                + getValueAtPercentile(50) + ", p99=" + getValueAtPercentile(99) + ", max=" + getMax() + "]";
+    }
+}
@@ -0,0 +1,32 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event emitted for each notification of a processed time to
+ * the listeners of a simulator (see {@link FlightRecorderProbe}). Its
+ * duration is the time spent in the listeners.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+@Name("energypeakcontrol.ListenerDispatch")
+@Label("Listener Dispatch")
+@Category({"Energy Peak Control", "Simulator"})
+@Description("Notification of a processed time to the time listeners")
+@StackTrace(false)
+class ListenerDispatchEvent extends jdk.jfr.Event {
+    /**
+     * Notified time.
+     */
+    @Label("Time")
+    int time;
+    /**
+     * Number of notified listeners.
+     */
+    @Label("Listeners")
+    int listeners;
+}
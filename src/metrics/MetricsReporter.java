@@ -0,0 +1,90 @@
+package metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class that periodically dumps a snapshot of the simulator metrics as a line
+ * of a CSV file (preceded by the wall-clock time in milliseconds) or, if no
+ * file is given, as a log message. The dumps are done in a daemon thread, so
+ * they do not delay the control loop.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class MetricsReporter implements AutoCloseable {
+    /**
+     * Metrics to be dumped.
+     */
+    private final SimulatorMetrics metrics;
+    /**
+     * File where the metrics are dumped (null to log them).
+     */
+    private final File file;
+    /**
+     * Executor of the periodic dumps.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Starts the periodic dump of the given metrics.
+     *
+     * @param metrics the metrics to be dumped.
+     * @param file the CSV file where the metrics are dumped (null to log
+     * them). A header is written if the file does not exist.
+     * @param period the time between dumps.
+     * @param unit the time unit of the period.
+     */
+    public MetricsReporter(SimulatorMetrics metrics, File file, long period, TimeUnit unit) {
+        this.metrics = metrics;
+        this.file = file;
+        if (file != null && !file.exists()) {
+            write("time;" + SimulatorMetrics.CSV_HEADER);
+        }
+        this.executor = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+            Thread t = new Thread(r, "metrics-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleAtFixedRate(this::report, period, period, unit);
+    }
+
+    /**
+     * Dumps a snapshot of the metrics.
+     */
+    public void report() {
+        if (file != null) {
+            write(System.currentTimeMillis() + ";" + metrics.toCSV());
+        } else {
+            Logger.getLogger(MetricsReporter.class.getName()).info(metrics.toString());
+        }
+    }
+
+    /**
+     * Appends a line to the dump file.
+     *
+     * @param line the line.
+     */
+    private synchronized void write(String line) {
+        try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+            out.println(line);
+        } catch (IOException ex) {
+            Logger.getLogger(MetricsReporter.class.getName()).log(Level.WARNING, "Metrics not dumped", ex);
+        }
+    }
+
+    /**
+     * Stops the periodic dump, doing a last one.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        report();
+    }
+}
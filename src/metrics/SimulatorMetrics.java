@@ -0,0 +1,245 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Class collecting the metrics of the control loop of one or many simulators:
+ * the processing time of each time (regression, danger degree and
+ * injection), the listener notification time, the I/O time (checkpoints) and
+ * the number of danger events and injections.
+ * <p>
+ * The metrics are enabled by setting them in a simulator (see
+ * <code>Simulator.setMetrics</code>); otherwise, the only cost is the check of
+ * a reference per processed time. They can be shared by several simulators,
+ * published as a JMX MBean (see {@link #register(String)}) and dumped
+ * periodically (see {@link MetricsReporter}).
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public class SimulatorMetrics implements SimulatorMetricsMBean {
+    /**
+     * Domain of the JMX names of the metrics.
+     */
+    public static final String JMX_DOMAIN = "energypeakcontrol";
+    /**
+     * Header of the CSV representation of the metrics.
+     */
+    public static final String CSV_HEADER = "ticks;danger;injections;tick_mean_ns;tick_p50_ns;tick_p99_ns;"
+            + "tick_max_ns;listener_p99_ns;listener_max_ns;io;io_p99_ns";
+    /**
+     * Processing time of each time.
+     */
+    private final LatencyHistogram tickLatency = new LatencyHistogram();
+    /**
+     * Listener notification time of each time.
+     */
+    private final LatencyHistogram listenerLatency = new LatencyHistogram();
+    /**
+     * Time of each I/O operation.
+     */
+    private final LatencyHistogram ioLatency = new LatencyHistogram();
+    /**
+     * Number of processed times with a positive danger degree.
+     */
+    private final AtomicLong dangerCount = new AtomicLong();
+    /**
+     * Number of processed times where a voltage has been injected.
+     */
+    private final AtomicLong injectionCount = new AtomicLong();
+    /**
+     * Name under which these metrics are registered (null if they are not).
+     */
+    private ObjectName objectName = null;
+
+    /**
+     * Records a processed time.
+     *
+     * @param nanos the processing time (in nanoseconds).
+     * @param danger <code>true</code> if the danger degree is positive.
+     * @param injection <code>true</code> if a voltage has been injected.
+     */
+    public void recordTick(long nanos, boolean danger, boolean injection) {
+        tickLatency.record(nanos);
+        if (danger) {
+            dangerCount.incrementAndGet();
+        }
+        if (injection) {
+            injectionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a listener notification.
+     *
+     * @param nanos the notification time (in nanoseconds).
+     */
+    public void recordListeners(long nanos) {
+        listenerLatency.record(nanos);
+    }
+
+    /**
+     * Records an I/O operation.
+     *
+     * @param nanos the operation time (in nanoseconds).
+     */
+    public void recordIO(long nanos) {
+        ioLatency.record(nanos);
+    }
+
+    /**
+     * Returns the histogram of the processing time of each time.
+     *
+     * @return the histogram of the processing time.
+     */
+    public LatencyHistogram getTickLatency() {
+        return tickLatency;
+    }
+
+    /**
+     * Returns the histogram of the listener notification time.
+     *
+     * @return the histogram of the notification time.
+     */
+    public LatencyHistogram getListenerLatency() {
+        return listenerLatency;
+    }
+
+    /**
+     * Returns the histogram of the I/O time.
+     *
+     * @return the histogram of the I/O time.
+     */
+    public LatencyHistogram getIOLatency() {
+        return ioLatency;
+    }
+
+    @Override
+    public long getTickCount() {
+        return tickLatency.getCount();
+    }
+
+    @Override
+    public long getDangerCount() {
+        return dangerCount.get();
+    }
+
+    @Override
+    public long getInjectionCount() {
+        return injectionCount.get();
+    }
+
+    @Override
+    public double getTickMeanNanos() {
+        return tickLatency.getMean();
+    }
+
+    @Override
+    public long getTickP50Nanos() {
+        return tickLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getTickP99Nanos() {
+        return tickLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getTickMaxNanos() {
+        return tickLatency.getMax();
+    }
+
+    @Override
+    public long getListenerP99Nanos() {
+        return listenerLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getListenerMaxNanos() {
+        return listenerLatency.getMax();
+    }
+
+    @Override
+    public long getIOCount() {
+        return ioLatency.getCount();
+    }
+
+    @Override
+    public long getIOP99Nanos() {
+        return ioLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public void reset() {
+        tickLatency.reset();
+        listenerLatency.reset();
+        ioLatency.reset();
+        dangerCount.set(0);
+        injectionCount.set(0);
+    }
+
+    /**
+     * Publishes these metrics in the platform MBean server with the name
+     * <code>energypeakcontrol:type=SimulatorMetrics,name=</code><i>name</i>.
+     * If they can not be registered, a warning is logged.
+     *
+     * @param name the name of the metrics.
+     */
+    public synchronized void register(String name) {
+        if (objectName != null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName(JMX_DOMAIN + ":type=SimulatorMetrics,name=" + ObjectName.quote(name));
+            server.registerMBean(this, on);
+            objectName = on;
+        } catch (JMException ex) {
+            Logger.getLogger(SimulatorMetrics.class.getName()).log(Level.WARNING, "Metrics not registered", ex);
+        }
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server.
+     */
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException ex) {
+            Logger.getLogger(SimulatorMetrics.class.getName()).log(Level.WARNING, "Metrics not unregistered", ex);
+        }
+        objectName = null;
+    }
+
+    /**
+     * Returns a CSV representation of these metrics (see
+     * {@link #CSV_HEADER}).
+     *
+     * @return a CSV representation of these metrics.
+     */
+    public String toCSV() {
+        return getTickCount() + ";" + getDangerCount() + ";" + getInjectionCount() + ";"
+                + Math.round(getTickMeanNanos()) + ";" + getTickP50Nanos() + ";" + getTickP99Nanos() + ";"
+                + getTickMaxNanos() + ";" + getListenerP99Nanos() + ";" + getListenerMaxNanos() + ";"
+                + getIOCount() + ";" + getIOP99Nanos();
+    }
+
+    /**
+     * Returns a string representation of these metrics.
+     *
+     * @return a string representation of these metrics.
+     */
+    @Override
+    public String toString() {
+        return "SimulatorMetrics: [ticks=" + getTickCount() + ", danger=" + getDangerCount() + ", injections="
+                + getInjectionCount() + ", tick=" + tickLatency + ", listeners=" + listenerLatency + "]";
+    }
+}
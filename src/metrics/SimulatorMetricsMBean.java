@@ -0,0 +1,93 @@
+package metrics;
+
+/**
+ * Management interface of the simulator metrics (see
+ * {@link SimulatorMetrics}). The latencies are given in nanoseconds.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+public interface SimulatorMetricsMBean {
+
+    /**
+     * Returns the number of processed times.
+     *
+     * @return the number of processed times.
+     */
+    long getTickCount();
+
+    /**
+     * Returns the number of processed times with a positive danger degree.
+     *
+     * @return the number of danger events.
+     */
+    long getDangerCount();
+
+    /**
+     * Returns the number of processed times where a voltage has been
+     * injected.
+     *
+     * @return the number of injections.
+     */
+    long getInjectionCount();
+
+    /**
+     * Returns the mean processing time of a time.
+     *
+     * @return the mean processing time.
+     */
+    double getTickMeanNanos();
+
+    /**
+     * Returns the median processing time of a time.
+     *
+     * @return the median processing time.
+     */
+    long getTickP50Nanos();
+
+    /**
+     * Returns the 99th percentile of the processing time of a time.
+     *
+     * @return the 99th percentile of the processing time.
+     */
+    long getTickP99Nanos();
+
+    /**
+     * Returns the maximum processing time of a time.
+     *
+     * @return the maximum processing time.
+     */
+    long getTickMaxNanos();
+
+    /**
+     * Returns the 99th percentile of the listener notification time.
+     *
+     * @return the 99th percentile of the notification time.
+     */
+    long getListenerP99Nanos();
+
+    /**
+     * Returns the maximum listener notification time.
+     *
+     * @return the maximum notification time.
+     */
+    long getListenerMaxNanos();
+
+    /**
+     * Returns the number of I/O operations (checkpoints).
+     *
+     * @return the number of I/O operations.
+     */
+    long getIOCount();
+
+    /**
+     * Returns the 99th percentile of the I/O time.
+     *
+     * @return the 99th percentile of the I/O time.
+     */
+    long getIOP99Nanos();
+
+    /**
+     * Clears all the metrics.
+     */
+    void reset();
+}
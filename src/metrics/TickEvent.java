@@ -0,0 +1,36 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event emitted for each time processed by a simulator (see
+ * {@link FlightRecorderProbe}). Its duration is the processing time.
+ *
+ * @author Jesús Chamorro Martínez (jesus@decsai.ugr.es)
+ */
+@Name("energypeakcontrol.Tick")
+@Label("Simulation Tick")
+@Category({"Energy Peak Control", "Simulator"})
+@Description("Processing of a time of the series: regression, danger degree and injection")
+@StackTrace(false)
+class TickEvent extends jdk.jfr.Event {
+    /**
+     * Processed time.
+     */
+    @Label("Time")
+    int time;
+    /**
+     * Danger degree of the processed time.
+     */
+    @Label("Danger Degree")
+    double dangerDegree;
+    /**
+     * Voltage injected at the processed time.
+     */
+    @Label("Injection")
+    double injection;
+}